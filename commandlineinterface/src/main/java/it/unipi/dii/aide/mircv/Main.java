@@ -3,6 +3,8 @@ package it.unipi.dii.aide.mircv;
 import it.unipi.dii.aide.mircv.config.Flags;
 import queryProcessing.QueryProcesser;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
 
@@ -13,6 +15,12 @@ public class Main {
          */
         private static final int k = 10;
 
+        /**
+         * Command deleting documents, followed by their pids: the ':' cannot start a query, since it is removed
+         * by the tokenizer, so a query starting with the word "delete" is still searched
+         */
+        private static final String DELETE_COMMAND = ":delete";
+
     /**
      * Executes the startup of the application and exposed the user interface
      * @param args the scoring algorithm to be used, if none DAAT will be used as default
@@ -28,6 +36,9 @@ public class Main {
             return;
         }
 
+        // Compact the segments added to the index while the queries are served
+        QueryProcesser.startBackgroundMerges();
+
         // Set the locale to English
         Locale.setDefault(Locale.ENGLISH);
 
@@ -49,6 +60,7 @@ public class Main {
                 Please insert a query specifying your preferred mode:\s
                 -c for conjunctive mode or -d for disjunctive mode. Here's an example:\s
                 This is a query example -c \s
+                Type ":delete" followed by the pids of some documents to remove them from the index.
                 Type "help" to get help or "break" to terminate the service""");
 
         for(;;) {
@@ -61,6 +73,22 @@ public class Main {
                 continue;
             }
 
+            // Check if the user wants to delete documents: the pids may contain '-', so the query is not split
+            String[] commandParts = query.trim().split("\\s+");
+            if(commandParts[0].equals(DELETE_COMMAND)) {
+                if(commandParts.length == 1) {
+                    System.out.println("Type \"" + DELETE_COMMAND + "\" followed by the pids of the documents to delete.");
+                    continue;
+                }
+                List<String> pids = Arrays.asList(commandParts).subList(1, commandParts.length);
+                int numDeleted = QueryProcesser.deleteDocuments(pids);
+                if(numDeleted < 0)
+                    System.out.println("Error while deleting the documents.");
+                else
+                    System.out.println(numDeleted + " documents deleted.");
+                continue;
+            }
+
             String[] queryParts = query.split("-");
 
             if(queryParts.length == 1){
@@ -74,7 +102,8 @@ public class Main {
                 if(queryParts[0].equals("help")) {
                     System.out.println("Please insert a query specifying your preferred mode:\n" +
                             "-c for conjunctive mode or -d for disjunctive mode. Here's an example:\n" +
-                            "This is a query example -c");
+                            "This is a query example -c\n" +
+                            "Type \"" + DELETE_COMMAND + "\" followed by the pids of some documents to remove them from the index");
                     continue;
                 }
 
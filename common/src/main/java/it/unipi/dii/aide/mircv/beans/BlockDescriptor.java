@@ -1,11 +1,11 @@
 package it.unipi.dii.aide.mircv.beans;
 
-import it.unipi.dii.aide.mircv.compression.UnaryCompressor;
-import it.unipi.dii.aide.mircv.compression.VariableByteCompressor;
+import it.unipi.dii.aide.mircv.compression.DocidGaps;
 import it.unipi.dii.aide.mircv.config.ConfigurationParams;
 import it.unipi.dii.aide.mircv.config.Flags;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
@@ -53,11 +53,6 @@ public class BlockDescriptor {
      */
     public static final int BLOCK_DESCRIPTOR_ENTRY_BYTES = 4 * 4 + 2 * 8;
 
-    /**
-     * Memory offset reached by the block descriptor
-     */
-    private static long memoryOffset = 0;
-
     /**
      * Path to docid file of Inverted index
      */
@@ -68,9 +63,17 @@ public class BlockDescriptor {
      */
     private static String INVERTED_INDEX_FREQS = ConfigurationParams.getInvertedIndexFreqs();
 
-    public static long getMemoryOffset() {
-        return memoryOffset;
-    }
+    /**
+     * Segment of the index storing the block, null if the block is stored in the files of the base index
+     */
+    private Segment segment = null;
+
+    /**
+     * Max docid of the previous block of the term in the same segment, 0 for the first block: the compressed
+     * docids of the block are the gaps from it if the format of the index stores the docids as gaps.
+     * It is not stored on disk, but set when the block descriptors of the term are read
+     */
+    private int previousMaxDocid = 0;
 
     public void setDocidOffset(long docidOffset) {
         this.docidOffset = docidOffset;
@@ -100,31 +103,59 @@ public class BlockDescriptor {
         return maxDocid;
     }
 
+    public long getDocidOffset() {
+        return docidOffset;
+    }
+
+    public long getFreqOffset() {
+        return freqOffset;
+    }
+
+    public int getDocidSize() {
+        return docidSize;
+    }
+
+    public int getFreqSize() {
+        return freqSize;
+    }
+
+    public int getNumPostings() {
+        return numPostings;
+    }
+
+    public void setSegment(Segment segment) {
+        this.segment = segment;
+    }
+
+    public void setPreviousMaxDocid(int previousMaxDocid) {
+        this.previousMaxDocid = previousMaxDocid;
+    }
+
     /**
-     * Method that saves the block descriptor to the disk
-     * @param fChannelDocid FileChannel of the docid file
-     * @return true if the block descriptor has been saved correctly, false otherwise
+     * Encode the block descriptor in a buffer, that must have at least BLOCK_DESCRIPTOR_ENTRY_BYTES bytes remaining.
+     * The fields are written in the order in which VocabularyEntry.readBlocks reads them
+     * @param buffer the buffer where to write the block descriptor
      */
-    public boolean saveBlockDescriptorOnDisk(FileChannel fChannelDocid) {
-        try {
-            MappedByteBuffer buffer = fChannelDocid.map(FileChannel.MapMode.READ_WRITE, memoryOffset, BLOCK_DESCRIPTOR_ENTRY_BYTES);
-
-            if(buffer != null) {
-                buffer.putInt(docidSize);
-                buffer.putInt(numPostings);
-                buffer.putInt(maxDocid);
-                buffer.putLong(docidOffset);
-                buffer.putLong(freqOffset);
-                buffer.putInt(freqSize);
+    public void writeToBuffer(ByteBuffer buffer) {
+        buffer.putLong(docidOffset);
+        buffer.putLong(freqOffset);
+        buffer.putInt(docidSize);
+        buffer.putInt(freqSize);
+        buffer.putInt(maxDocid);
+        buffer.putInt(numPostings);
+    }
 
-                memoryOffset += BLOCK_DESCRIPTOR_ENTRY_BYTES;
-                return true;
-            }
-            return false;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    /**
+     * Decode the block descriptor from a buffer, that must have at least BLOCK_DESCRIPTOR_ENTRY_BYTES bytes remaining
+     * @param buffer the buffer from which to read the block descriptor
+     */
+    public void readFromBuffer(ByteBuffer buffer) {
+        docidOffset = buffer.getLong();
+        freqOffset = buffer.getLong();
+        docidSize = buffer.getInt();
+        freqSize = buffer.getInt();
+        maxDocid = buffer.getInt();
+        numPostings = buffer.getInt();
     }
 
     /**
@@ -132,12 +163,17 @@ public class BlockDescriptor {
      * @return arraylist of postings
      */
     public ArrayList<Posting> getBlockPostings() {
-        try(FileChannel docsFChan = (FileChannel) Files.newByteChannel(Paths.get(INVERTED_INDEX_DOCS),
+        // the blocks of the base index are in the files of the configuration, the others in the files of their segment
+        boolean inBase = segment == null || segment.isBase();
+        String docsPath = inBase ? INVERTED_INDEX_DOCS : segment.getDocidsPath();
+        String freqsPath = inBase ? INVERTED_INDEX_FREQS : segment.getFrequenciesPath();
+
+        try(FileChannel docsFChan = (FileChannel) Files.newByteChannel(Paths.get(docsPath),
                 StandardOpenOption.WRITE,
                 StandardOpenOption.READ,
                 StandardOpenOption.CREATE
         );
-        FileChannel freqsFChan = (FileChannel) Files.newByteChannel(Paths.get(INVERTED_INDEX_FREQS),
+        FileChannel freqsFChan = (FileChannel) Files.newByteChannel(Paths.get(freqsPath),
                 StandardOpenOption.WRITE,
                 StandardOpenOption.READ,
                 StandardOpenOption.CREATE);
@@ -153,17 +189,13 @@ public class BlockDescriptor {
             ArrayList<Posting> block = new ArrayList<>();
 
             if(Flags.isCompressionEnabled()){
-                // If compression is enabled, use the appropriate decompressor
-                byte[] compressedDocids = new byte[docidSize];
-                byte[] compressedFreqs = new byte[freqSize];
-
-                // Read the compressed docids and frequencies
-                docBuffer.get(compressedDocids, 0, docidSize);
-                freqBuffer.get(compressedFreqs, 0, freqSize);
-
-                // Decompress the docids and frequencies
-                int[] decompressedDocids = VariableByteCompressor.integerArrayDecompression(compressedDocids, numPostings);
-                int[] decompressedFreqs = UnaryCompressor.integerArrayDecompression(compressedFreqs, numPostings);
+                // If compression is enabled, decompress the docids and the frequencies straight from the mapped files
+                int[] decompressedDocids = new int[numPostings];
+                int[] decompressedFreqs = new int[numPostings];
+                Flags.getDocidCodec().decode(docBuffer, docidSize, decompressedDocids, numPostings);
+                Flags.getFrequencyCodec().decode(freqBuffer, freqSize, decompressedFreqs, numPostings);
+                if(Flags.isDocidGapsEnabled())
+                    DocidGaps.fromGaps(decompressedDocids, numPostings, previousMaxDocid);
 
                 // Create the postings
                 for(int i = 0; i < numPostings; i++) {
@@ -229,12 +261,4 @@ public class BlockDescriptor {
                 maxDocid == bd.maxDocid &&
                 numPostings == bd.numPostings;
     }
-
-    /**
-     * Method that sets the memory offset
-     * @param memoryOffset memory offset
-     */
-    public static void setMemoryOffset(long memoryOffset) {
-        BlockDescriptor.memoryOffset = memoryOffset;
-    }
 }
@@ -0,0 +1,157 @@
+package it.unipi.dii.aide.mircv.beans;
+
+import it.unipi.dii.aide.mircv.compression.VariableByteCompressor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * Bitmap of the deleted documents of a segment, stored next to its document index.
+ * In memory it is a bitset indexed by the position of the docid in the segment; on disk it is compressed
+ * as the gaps between the deleted docids, encoded with variable byte, so a few deletions take a few bytes.
+ * The deleted documents stay in the posting lists until their segment is merged
+ */
+public class DeletedDocuments {
+    /**
+     * Docid of the first document of the segment
+     */
+    private final int firstDocid;
+
+    /**
+     * Bit i is set if the document with docid firstDocid + i is deleted
+     */
+    private final BitSet bits = new BitSet();
+
+    /**
+     * Create an empty bitmap
+     * @param firstDocid the docid of the first document of the segment
+     */
+    public DeletedDocuments(int firstDocid) {
+        this.firstDocid = firstDocid;
+    }
+
+    /**
+     * @param docid a docid of the segment
+     * @return true if the document is deleted
+     */
+    public boolean isDeleted(int docid) {
+        return docid >= firstDocid && bits.get(docid - firstDocid);
+    }
+
+    /**
+     * Mark a document as deleted
+     * @param docid a docid of the segment
+     * @return true if the document was not deleted yet
+     */
+    public boolean delete(int docid) {
+        if (isDeleted(docid))
+            return false;
+
+        bits.set(docid - firstDocid);
+        return true;
+    }
+
+    /**
+     * Mark as deleted the documents deleted in another bitmap, e.g. in the bitmap of a merged segment
+     * @param other the other bitmap
+     */
+    public void deleteAll(DeletedDocuments other) {
+        for (int i = other.bits.nextSetBit(0); i >= 0; i = other.bits.nextSetBit(i + 1))
+            delete(other.firstDocid + i);
+    }
+
+    /**
+     * Mark the deleted documents in a bitset indexed by docid, shared by all the segments
+     * @param deleted the bitset
+     */
+    public void copyTo(BitSet deleted) {
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+            deleted.set(firstDocid + i);
+    }
+
+    /**
+     * @return the number of deleted documents
+     */
+    public int getNumDeleted() {
+        return bits.cardinality();
+    }
+
+    /**
+     * @return true if no document is deleted
+     */
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    /**
+     * Load the bitmap of a segment from disk
+     * @param segment the segment
+     * @return the bitmap, empty if the segment has no deleted documents; null if the bitmap cannot be read
+     */
+    public static DeletedDocuments loadFromDisk(Segment segment) {
+        DeletedDocuments deletedDocuments = new DeletedDocuments(segment.getFirstDocid());
+
+        File file = new File(segment.getDeletedDocumentsPath());
+        if (segment.getNumDeleted() == 0 || !file.exists())
+            return deletedDocuments;
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            int numDeleted = dis.readInt();
+            byte[] compressedGaps = new byte[dis.readInt()];
+            dis.readFully(compressedGaps);
+
+            // the first gap is from the position before the first document, so every gap is at least 1
+            int position = -1;
+            for (int gap : VariableByteCompressor.integerArrayDecompression(compressedGaps, numDeleted)) {
+                position += gap;
+                deletedDocuments.bits.set(position);
+            }
+            return deletedDocuments;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Write the bitmap on disk. The bitmap is written in a temporary file that replaces the old one in a single step
+     * @param path the path of the bitmap
+     * @return true if the bitmap is written correctly
+     */
+    public boolean writeToDisk(String path) {
+        int[] gaps = new int[bits.cardinality()];
+        int previous = -1;
+        int n = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            gaps[n++] = i - previous;
+            previous = i;
+        }
+        byte[] compressedGaps = VariableByteCompressor.integerArrayCompression(gaps);
+
+        String tempPath = path + ".tmp";
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempPath))) {
+            dos.writeInt(gaps.length);
+            dos.writeInt(compressedGaps.length);
+            dos.write(compressedGaps);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
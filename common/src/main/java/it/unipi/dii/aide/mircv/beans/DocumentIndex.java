@@ -1,7 +1,10 @@
 package it.unipi.dii.aide.mircv.beans;
 
 
-import it.unipi.dii.aide.mircv.config.CollectionSize;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
+import it.unipi.dii.aide.mircv.utils.ChannelReader;
+
+import java.io.IOException;
 import java.util.LinkedHashMap;
 
 
@@ -47,27 +50,39 @@ public class DocumentIndex extends LinkedHashMap<Integer, DocumentIndexEntry> {
     }
 
     /**
-     * Loads the document index from disk
+     * Loads the document index of all the live segments from disk
      * @return true if fetch is successful
      */
     public boolean loadFromDisk() {
-        // retrieve the document index from disk
-        long numDocs = CollectionSize.getCollectionSize();
+        for (Segment segment : SegmentManifest.getSegments())
+            if (!loadFromDisk(segment))
+                return false;
+        return true;
+    }
 
+    /**
+     * Loads the document index of a segment from disk, reading it sequentially
+     * @param segment the segment
+     * @return true if fetch is successful
+     */
+    public boolean loadFromDisk(Segment segment) {
         // Retrieve the size of a single entry
         final int ENTRY_SIZE = DocumentIndexEntry.getEntrySize();
 
-        // For each document, read the entry from disk
-        for (int i = 0; i < numDocs; i++) {
-            // Create a new entry
-            DocumentIndexEntry newEntry = new DocumentIndexEntry();
-            if(newEntry.readFromDisk((long) i * ENTRY_SIZE)) {
+        try (ChannelReader reader = new ChannelReader(segment.getDocumentIndexPath())) {
+            // For each document of the segment, read the entry from disk: a merged segment has no entries
+            // for the deleted documents removed by the merge
+            while (reader.getPosition() < reader.size()) {
+                DocumentIndexEntry newEntry = new DocumentIndexEntry();
+                newEntry.readFromBuffer(reader.require(ENTRY_SIZE));
+
                 // Insert the entry into the document index
                 this.put(newEntry.getDocid(), newEntry);
-            } else {
-                return false;
             }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
-        return true;
     }
 }
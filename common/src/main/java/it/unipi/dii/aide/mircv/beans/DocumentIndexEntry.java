@@ -6,6 +6,7 @@ import it.unipi.dii.aide.mircv.utils.FileUtils;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -110,9 +111,9 @@ public class DocumentIndexEntry {
         // Write the entry to disk using a FileChannel
         try (FileChannel fc = (FileChannel) Files.newByteChannel(
                 Paths.get(PATH_TO_DOCUMENT_INDEX),
+                StandardOpenOption.READ,
                 StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.APPEND)) {
+                StandardOpenOption.CREATE)) {
 
             long position = fc.size();
             memOffset = position;
@@ -124,20 +125,7 @@ public class DocumentIndexEntry {
             if (buffer == null)
                 return -1;
 
-            // Write the pid with size PID_SIZE
-            CharBuffer cb = CharBuffer.allocate(PID_SIZE);
-            for(int i = 0; i < this.pid.length(); i++)
-                cb.put(i, this.pid.charAt(i));
-
-            // Write the pid to the buffer
-            cb.flip();
-            buffer.put(StandardCharsets.UTF_8.encode(cb));
-
-            // Write the docid
-            buffer.putInt(this.docid);
-
-            // Write the docLen
-            buffer.putInt(this.docLen);
+            writeToBuffer(buffer);
 
             // save the start offset of the structure
             long startOffset = memOffset;
@@ -152,6 +140,26 @@ public class DocumentIndexEntry {
         }
     }
 
+    /**
+     * Encode the document index entry in a buffer, that must have at least ENTRY_SIZE bytes remaining.
+     * Used to write the document index in batches during the indexing
+     * @param buffer the buffer where to write the entry
+     */
+    public void writeToBuffer(ByteBuffer buffer) {
+        // Write the pid with size PID_SIZE, padded with zeros
+        byte[] pidBytes = this.pid.getBytes(StandardCharsets.UTF_8);
+        int pidLength = Math.min(pidBytes.length, PID_SIZE);
+        buffer.put(pidBytes, 0, pidLength);
+        for (int i = pidLength; i < PID_SIZE; i++)
+            buffer.put((byte) 0);
+
+        // Write the docid
+        buffer.putInt(this.docid);
+
+        // Write the docLen
+        buffer.putInt(this.docLen);
+    }
+
     /**
      * Read the document index entry from disk
      * @param memoryOffset the offset of the entry
@@ -198,6 +206,27 @@ public class DocumentIndexEntry {
         }
     }
 
+    /**
+     * Decode the document index entry from a buffer, that must have at least ENTRY_SIZE bytes remaining.
+     * Used to read the document index sequentially when it is loaded
+     * @param buffer the buffer from which to read the entry
+     */
+    public void readFromBuffer(ByteBuffer buffer) {
+        // Read the pid, padded with zeros
+        byte[] pidBytes = new byte[PID_SIZE];
+        buffer.get(pidBytes);
+        int pidLength = 0;
+        while (pidLength < PID_SIZE && pidBytes[pidLength] != 0)
+            pidLength++;
+        this.pid = new String(pidBytes, 0, pidLength, StandardCharsets.UTF_8);
+
+        // Read the docid
+        this.docid = buffer.getInt();
+
+        // Read the docLen
+        this.docLen = buffer.getInt();
+    }
+
     /**
      * Get the size of the entry
      * @return the size of the entry
@@ -0,0 +1,189 @@
+package it.unipi.dii.aide.mircv.beans;
+
+import it.unipi.dii.aide.mircv.config.ConfigurationParams;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Immutable segment of the index: a complete inverted index (vocabulary, posting lists, block descriptors and
+ * document index) of a range of consecutive docids. The base segment is the index built from scratch, stored in
+ * the files of the configuration, while every segment added incrementally or produced by a merge has its own
+ * directory. The posting list of a term in the whole index is the concatenation of its lists in the segments.
+ * A segment is built in the staging directory of BUILD_NAME, and published when it is complete
+ */
+public class Segment {
+    /**
+     * Name of the base segment, stored in the files of the configuration
+     */
+    public static final String BASE_NAME = "base";
+
+    /**
+     * Name of the segment being built: its files are moved to the directory of a new segment when the build is complete
+     */
+    public static final String BUILD_NAME = "build";
+
+    /**
+     * Name of the segment, which is also the name of its directory
+     */
+    private final String name;
+
+    /**
+     * Docid of the first document of the segment
+     */
+    private final int firstDocid;
+
+    /**
+     * Number of documents of the segment, including the deleted ones: the segment has the docids
+     * from firstDocid to firstDocid + numDocs - 1
+     */
+    private final int numDocs;
+
+    /**
+     * Number of deleted documents of the segment
+     */
+    private final int numDeleted;
+
+    /**
+     * Sum of the length of the documents of the segment that are not deleted
+     */
+    private final long totalDocLen;
+
+    /**
+     * Number of terms in the vocabulary of the segment
+     */
+    private final long vocabularySize;
+
+    /**
+     * Constructor of the segment
+     * @param name the name of the segment
+     * @param firstDocid the docid of the first document
+     * @param numDocs the number of documents, including the deleted ones
+     * @param numDeleted the number of deleted documents
+     * @param totalDocLen the sum of the length of the documents that are not deleted
+     * @param vocabularySize the number of terms in the vocabulary
+     */
+    public Segment(String name, int firstDocid, int numDocs, int numDeleted, long totalDocLen, long vocabularySize) {
+        this.name = name;
+        this.firstDocid = firstDocid;
+        this.numDocs = numDocs;
+        this.numDeleted = numDeleted;
+        this.totalDocLen = totalDocLen;
+        this.vocabularySize = vocabularySize;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFirstDocid() {
+        return firstDocid;
+    }
+
+    public int getNumDocs() {
+        return numDocs;
+    }
+
+    public int getNumDeleted() {
+        return numDeleted;
+    }
+
+    /**
+     * @return the number of documents of the segment that are not deleted
+     */
+    public int getNumLiveDocs() {
+        return numDocs - numDeleted;
+    }
+
+    public long getTotalDocLen() {
+        return totalDocLen;
+    }
+
+    public long getVocabularySize() {
+        return vocabularySize;
+    }
+
+    /**
+     * @return the docid that the first document after the segment gets
+     */
+    public int getNextDocid() {
+        return firstDocid + numDocs;
+    }
+
+    /**
+     * @return true if the segment is the index built from scratch
+     */
+    public boolean isBase() {
+        return BASE_NAME.equals(name);
+    }
+
+    /**
+     * @return the directory of the segment
+     */
+    public String getDirectory() {
+        return ConfigurationParams.getSegmentsDir() + "/" + name;
+    }
+
+    public String getVocabularyPath() {
+        return isBase() ? ConfigurationParams.getVocabularyPath() : getDirectory() + "/vocabulary";
+    }
+
+    public String getDocidsPath() {
+        return isBase() ? ConfigurationParams.getInvertedIndexDocs() : getDirectory() + "/invertedIndexDocs";
+    }
+
+    public String getFrequenciesPath() {
+        return isBase() ? ConfigurationParams.getInvertedIndexFreqs() : getDirectory() + "/invertedIndexFreqs";
+    }
+
+    public String getBlockDescriptorsPath() {
+        return isBase() ? ConfigurationParams.getBlockDescriptorsPath() : getDirectory() + "/blockDescriptors";
+    }
+
+    public String getDocumentIndexPath() {
+        return isBase() ? ConfigurationParams.getDocumentIndexPath() : getDirectory() + "/documentIndex";
+    }
+
+    public String getDeletedDocumentsPath() {
+        return isBase() ? ConfigurationParams.getDeletedDocumentsPath() : getDirectory() + "/deletedDocuments";
+    }
+
+    public String getCollectionStatisticsPath() {
+        return isBase() ? ConfigurationParams.getCollectionStatisticsPath() : getDirectory() + "/collectionStatistics";
+    }
+
+    /**
+     * @return the path of the flags of the index the segment belongs to, published together with the segment
+     */
+    public String getFlagsPath() {
+        return isBase() ? ConfigurationParams.getFlagsFilePath() : getDirectory() + "/flags";
+    }
+
+    /**
+     * Write the segment in the manifest
+     * @param stream the stream of the manifest
+     */
+    public void writeToStream(DataOutputStream stream) throws IOException {
+        stream.writeUTF(name);
+        stream.writeInt(firstDocid);
+        stream.writeInt(numDocs);
+        stream.writeInt(numDeleted);
+        stream.writeLong(totalDocLen);
+        stream.writeLong(vocabularySize);
+    }
+
+    /**
+     * Read a segment from the manifest
+     * @param stream the stream of the manifest
+     * @return the segment read
+     */
+    public static Segment readFromStream(DataInputStream stream) throws IOException {
+        return new Segment(stream.readUTF(), stream.readInt(), stream.readInt(), stream.readInt(), stream.readLong(), stream.readLong());
+    }
+
+    @Override
+    public String toString() {
+        return name + " [docids " + firstDocid + "-" + (getNextDocid() - 1) + ((numDeleted > 0) ? ", " + numDeleted + " deleted]" : "]");
+    }
+}
@@ -2,9 +2,11 @@ package it.unipi.dii.aide.mircv.beans;
 
 import it.unipi.dii.aide.mircv.config.CollectionSize;
 import it.unipi.dii.aide.mircv.config.ConfigurationParams;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
 
 import org.junit.platform.commons.util.LruCache;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * The vocabulary class, a singleton object that contains the vocabulary of the collection.
@@ -61,7 +63,7 @@ public class Vocabulary extends LinkedHashMap<String, VocabularyEntry> {
             return entries.get(term);
 
         //if term is not cached, load it from disk
-        VocabularyEntry entry =  findEntry(term);
+        VocabularyEntry entry =  findEntry(term, SegmentManifest.getSegments());
 
         //if entry is not null, cache it and return it
         if (entry != null)
@@ -96,17 +98,76 @@ public class Vocabulary extends LinkedHashMap<String, VocabularyEntry> {
         return position != -1;
     }
 
+    /**
+     * retrieves the vocabulary entry of a given term in the whole index, looking it up in the vocabulary of every segment.
+     * The statistics of a term spanning more segments are combined, and its idf and upper bounds are computed
+     * on the whole collection
+     * @param term: term of which we want vocabulary entry
+     * @param segments: the live segments of the index, in docid order; if empty the base index is searched
+     * @return the vocabulary entry of given term, null if term is not in vocabulary
+     **/
+    public VocabularyEntry findEntry(String term, List<Segment> segments) {
+        if (segments.isEmpty())
+            return findEntry(term);
+
+        // the base index alone is read as it was written, unless its statistics changed with deletions
+        if (segments.size() == 1 && segments.get(0).isBase() && segments.get(0).getNumDeleted() == 0)
+            return findEntry(term, segments.get(0));
+
+        VocabularyEntry entry = null;
+        for (Segment segment : segments) {
+            VocabularyEntry segmentEntry = findEntry(term, segment);
+            if (segmentEntry == null)
+                continue;
+
+            if (entry == null)
+                entry = new VocabularyEntry(term);
+            entry.addSegmentEntry(segmentEntry);
+        }
+
+        if (entry != null) {
+            entry.computeIdf();
+            entry.computeUpperBounds();
+        }
+        return entry;
+    }
+
+    /**
+     * retrieves the vocabulary entry of a given term from the vocabulary of a segment
+     * @param term: term of which we want vocabulary entry
+     * @param segment: the segment
+     * @return the vocabulary entry of given term in the segment, null if term is not in its vocabulary
+     **/
+    public VocabularyEntry findEntry(String term, Segment segment) {
+        String path = segment.isBase() ? PATH_TO_VOCABULARY : segment.getVocabularyPath();
+        VocabularyEntry entry = findEntry(term, path, segment.getVocabularySize());
+        if (entry != null)
+            entry.setSegment(segment);
+        return entry;
+    }
+
     /**
      * retrieves the vocabulary entry of a given term from disk
      * @param term: term of which we want vocabulary entry
      * @return the vocabulary entry of given term, null if term is not in vocabulary
      **/
     public VocabularyEntry findEntry(String term) {
+        return findEntry(term, PATH_TO_VOCABULARY, CollectionSize.getVocabularySize());
+    }
+
+    /**
+     * retrieves the vocabulary entry of a given term from a vocabulary file
+     * @param term: term of which we want vocabulary entry
+     * @param path: path of the vocabulary file
+     * @param vocabularySize: number of entries of the vocabulary file
+     * @return the vocabulary entry of given term, null if term is not in vocabulary
+     **/
+    private VocabularyEntry findEntry(String term, String path, long vocabularySize) {
         // Entry to be returned
         VocabularyEntry entry = new VocabularyEntry();
 
         long start = 0;                                             // Start position of the entry
-        long end = CollectionSize.getVocabularySize() -1;           // End position of the entry
+        long end = vocabularySize -1;                               // End position of the entry
         long mid;                                                   // Index of the elem of vocabulary to read
         String key;                                                 // elem of vocabulary read
         long entrySize = VocabularyEntry.ENTRY_SIZE;                // Size of the entry
@@ -116,7 +177,7 @@ public class Vocabulary extends LinkedHashMap<String, VocabularyEntry> {
             mid = start + (end - start) / 2;
 
             // Read the term from disk
-            entry.readFromDisk(mid * entrySize, PATH_TO_VOCABULARY);
+            entry.readFromDisk(mid * entrySize, path);
             key = entry.getTerm();
 
             if (key == null) {
@@ -7,6 +7,7 @@ import it.unipi.dii.aide.mircv.config.CollectionSize;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -140,6 +141,17 @@ public class VocabularyEntry {
      */
     private long blockOffset = 0;
 
+    /**
+     * Segment of the index whose vocabulary stores the entry, null if the entry is stored in the base index
+     */
+    private Segment segment = null;
+
+    /**
+     * Entries of the term in the segments of the index, in docid order, when the term spans more than one segment;
+     * its posting list is the concatenation of their posting lists. Null if the entry describes a single posting list
+     */
+    private ArrayList<VocabularyEntry> segmentEntries = null;
+
     /**
      * size of the term; if a term is greater than this size it'll be truncated
      */
@@ -182,6 +194,32 @@ public class VocabularyEntry {
         }
     }
 
+    /**
+     * updates the statistics of the vocabulary with the statistics of a partial posting list,
+     * read from its partial vocabulary entry, without reading the postings
+     * @param partialDf the document frequency of the partial posting list
+     * @param partialMaxTf the max term frequency of the partial posting list
+     */
+    public void updateStatistics(int partialDf, int partialMaxTf) {
+        this.df += partialDf;
+        this.maxTf = Math.max(this.maxTf, partialMaxTf);
+    }
+
+    /**
+     * Add the entry of the term in a segment of the index to the entry of the term in the whole index,
+     * combining their statistics. The entries must be added in docid order
+     * @param entry the entry of the term in the segment
+     */
+    public void addSegmentEntry(VocabularyEntry entry) {
+        if (segmentEntries == null)
+            segmentEntries = new ArrayList<>();
+        segmentEntries.add(entry);
+
+        updateStatistics(entry.getDf(), entry.maxTf);
+        updateBM25Statistics(entry.getBM25Tf(), entry.getBM25Dl());
+        this.numBlocks = (segmentEntries.size() == 1) ? entry.getNumBlocks() : this.numBlocks + entry.getNumBlocks();
+    }
+
     /**
      * Compute the idf using the values computed during the merging of the indexes
      */
@@ -239,36 +277,7 @@ public class VocabularyEntry {
             if (buffer == null)
                 return -1;
 
-            // allocate char buffer to write term
-            CharBuffer charBuffer = CharBuffer.allocate(TERM_SIZE);
-
-            // Populate the buffer with the term
-            for(int i = 0; i < term.length(); i++)
-                charBuffer.put(i, term.charAt(i));
-
-            // Write the term to the buffer
-            buffer.put(StandardCharsets.UTF_8.encode(charBuffer));
-
-            // Write the document frequency
-            buffer.putInt(df);
-            buffer.putDouble(idf);
-
-            // Write the max term frequency
-            buffer.putInt(maxTf);
-            buffer.putInt(BM25Dl);
-            buffer.putInt(BM25Tf);
-            buffer.putDouble(maxBM25);
-            buffer.putDouble(maxTFIDF);
-
-            // Write the memory information
-            buffer.putLong(docidOffset);
-            buffer.putLong(frequencyOffset);
-            buffer.putInt(docidSize);
-            buffer.putInt(frequencySize);
-
-            // Write the number of blocks
-            buffer.putInt(numBlocks);
-            buffer.putLong(blockOffset);
+            writeToBuffer(buffer);
 
             // Return the position of the last byte written
             return position + ENTRY_SIZE;
@@ -278,6 +287,80 @@ public class VocabularyEntry {
         }
     }
 
+    /**
+     * Encode the vocabulary entry in a buffer, that must have at least ENTRY_SIZE bytes remaining.
+     * Used to write the vocabulary in batches
+     * @param buffer the buffer where to write the entry
+     */
+    public void writeToBuffer(ByteBuffer buffer) {
+        // Write the term with size TERM_SIZE, padded with zeros
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        int termLength = Math.min(termBytes.length, TERM_SIZE);
+        buffer.put(termBytes, 0, termLength);
+        for (int i = termLength; i < TERM_SIZE; i++)
+            buffer.put((byte) 0);
+
+        // Write the document frequency
+        buffer.putInt(df);
+        buffer.putDouble(idf);
+
+        // Write the max term frequency
+        buffer.putInt(maxTf);
+        buffer.putInt(BM25Dl);
+        buffer.putInt(BM25Tf);
+        buffer.putDouble(maxBM25);
+        buffer.putDouble(maxTFIDF);
+
+        // Write the memory information
+        buffer.putLong(docidOffset);
+        buffer.putLong(frequencyOffset);
+        buffer.putInt(docidSize);
+        buffer.putInt(frequencySize);
+
+        // Write the number of blocks
+        buffer.putInt(numBlocks);
+        buffer.putLong(blockOffset);
+    }
+
+    /**
+     * Decode the vocabulary entry from a buffer, that must have at least ENTRY_SIZE bytes remaining.
+     * Used to read the vocabulary in batches
+     * @param buffer the buffer from which to read the entry
+     * @return false if the entry is empty, i.e. its term is empty
+     */
+    public boolean readFromBuffer(ByteBuffer buffer) {
+        // Read the term, padded with zeros
+        byte[] termBytes = new byte[TERM_SIZE];
+        buffer.get(termBytes);
+        int termLength = 0;
+        while (termLength < TERM_SIZE && termBytes[termLength] != 0)
+            termLength++;
+        term = new String(termBytes, 0, termLength, StandardCharsets.UTF_8);
+
+        // Read the document frequency
+        df = buffer.getInt();
+        idf = buffer.getDouble();
+
+        // Read the max term frequency
+        maxTf = buffer.getInt();
+        BM25Dl = buffer.getInt();
+        BM25Tf = buffer.getInt();
+        maxBM25 = buffer.getDouble();
+        maxTFIDF = buffer.getDouble();
+
+        // Read the memory information
+        docidOffset = buffer.getLong();
+        frequencyOffset = buffer.getLong();
+        docidSize = buffer.getInt();
+        frequencySize = buffer.getInt();
+
+        // Read the number of blocks
+        numBlocks = buffer.getInt();
+        blockOffset = buffer.getLong();
+
+        return termLength > 0;
+    }
+
     /**
      * Read the document index entry from disk
      * @param memoryOffset the memory offset from which we start reading
@@ -363,7 +446,7 @@ public class VocabularyEntry {
      * If the number of postings is < 1024 the posting list is stored in a single block.
      */
     public void computeBlocksInformation() {
-        if (docidSize < 1024)
+        if (df < 1024)
             this.numBlocks = 1;
         else
             this.numBlocks = (int) Math.ceil(Math.sqrt(df));
@@ -377,6 +460,20 @@ public class VocabularyEntry {
         return (int) Math.ceil((double) df / (double) numBlocks);
     }
 
+    /**
+     * Getter for the segment
+     */
+    public Segment getSegment() {
+        return segment;
+    }
+
+    /**
+     * Setter for the segment
+     */
+    public void setSegment(Segment segment) {
+        this.segment = segment;
+    }
+
     /**
      * Getter for the term
      */
@@ -525,8 +622,21 @@ public class VocabularyEntry {
      * @return the arrayList of the block descriptors
      */
     public ArrayList<BlockDescriptor> readBlocks() {
+        // the posting list of a term spanning more segments is the concatenation of its lists in the segments
+        if (segmentEntries != null) {
+            ArrayList<BlockDescriptor> blocks = new ArrayList<>();
+            for (VocabularyEntry entry : segmentEntries) {
+                ArrayList<BlockDescriptor> segmentBlocks = entry.readBlocks();
+                if (segmentBlocks == null)
+                    return null;
+                blocks.addAll(segmentBlocks);
+            }
+            return blocks;
+        }
+
+        String blockDescriptorsPath = (segment == null || segment.isBase()) ? BLOCK_DESCRIPTORS_PATH : segment.getBlockDescriptorsPath();
         try (FileChannel fc = (FileChannel) Files.newByteChannel(
-                Paths.get(BLOCK_DESCRIPTORS_PATH),
+                Paths.get(blockDescriptorsPath),
                 StandardOpenOption.WRITE,
                 StandardOpenOption.READ,
                 StandardOpenOption.CREATE)) {
@@ -539,15 +649,14 @@ public class VocabularyEntry {
             if (buffer == null)
                 return null;
 
-            // Read the block descriptors
+            // Read the block descriptors, chaining the max docids from which the docid gaps start
+            int previousMaxDocid = 0;
             for (int i = 0; i < numBlocks; i++) {
                 BlockDescriptor block = new BlockDescriptor();
-                block.setDocidOffset(buffer.getLong());
-                block.setFreqOffset(buffer.getLong());
-                block.setDocidSize(buffer.getInt());
-                block.setFreqSize(buffer.getInt());
-                block.setMaxDocid(buffer.getInt());
-                block.setNumPostings(buffer.getInt());
+                block.readFromBuffer(buffer);
+                block.setSegment(segment);
+                block.setPreviousMaxDocid(previousMaxDocid);
+                previousMaxDocid = block.getMaxDocid();
                 blocks.add(block);
             }
             return blocks;
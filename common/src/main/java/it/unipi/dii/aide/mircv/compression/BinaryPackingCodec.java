@@ -0,0 +1,237 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec of the SIMD-BP128 binary packing scheme: the values are split in frames of FRAME_SIZE values,
+ * and every value of a frame is packed in the number of bits of the largest one. A frame is packed in the
+ * vertical layout of SIMD-BP128: the i-th value goes to the lane i % LANES, each lane packs its values from the
+ * least significant bit of its words, and the words of the lanes are interleaved, so the four lanes of a frame
+ * are unpacked together by a 128 bit vector with the same shifts and masks.
+ * The frames are unpacked with the Vector API (see VectorBitPacking) if the jdk.incubator.vector module is
+ * available, i.e. if the JVM is run with --add-modules jdk.incubator.vector, and with the same loop on scalars
+ * otherwise; -Dcodec.vectorized=false forces the scalar loop. The stream written is the same in both cases.
+ * The stream holds the widths of the frames, a byte each, padded to a whole int, then the packed frames,
+ * as big endian ints, then the values after the last frame, in variable byte: the blocks with fewer than
+ * FRAME_SIZE postings, i.e. the blocks of the short posting lists, are all in variable byte
+ */
+public class BinaryPackingCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "bp128";
+
+    /**
+     * Number of values of a frame
+     */
+    static final int FRAME_SIZE = 128;
+
+    /**
+     * Number of lanes of a frame, each of 32 bits as the lanes of a 128 bit vector
+     */
+    static final int LANES = 4;
+
+    /**
+     * Number of values of a lane of a frame
+     */
+    static final int LANE_VALUES = FRAME_SIZE / LANES;
+
+    /**
+     * Flag telling whether the Vector API can be used by the codecs created without choosing the unpacker
+     */
+    private static final boolean VECTOR_API_AVAILABLE = isVectorApiAvailable();
+
+    /**
+     * Buffer of every thread where the packed frames are read, grown to the largest block decoded
+     */
+    private static final ThreadLocal<int[]> PACKED_WORDS = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * Flag deciding whether the frames are unpacked with the Vector API
+     */
+    private final boolean vectorized;
+
+    /**
+     * Create the codec, unpacking the frames with the Vector API if it is available
+     */
+    public BinaryPackingCodec() {
+        this(VECTOR_API_AVAILABLE);
+    }
+
+    /**
+     * Create the codec
+     * @param vectorized true to unpack the frames with the Vector API, which must be available
+     */
+    public BinaryPackingCodec(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    /**
+     * Check whether the frames can be unpacked with the Vector API: the module must be in the JVM, the machine
+     * must have 128 bit vectors and the vectorized unpacker must not be disabled by -Dcodec.vectorized=false
+     * @return true if the Vector API can be used
+     */
+    public static boolean isVectorApiAvailable() {
+        if ("false".equalsIgnoreCase(System.getProperty("codec.vectorized")))
+            return false;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return false;
+
+        try {
+            return VectorBitPacking.isSupported();
+        } catch (LinkageError e) {
+            // the module is present but not readable by this class
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the frames are unpacked with the Vector API
+     */
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Compute the width of the values of a frame
+     * @param values the values
+     * @param from the position of the first value of the frame
+     * @return the number of bits of the largest value, at least 1
+     */
+    private static int frameBits(int[] values, int from) {
+        int union = 1;
+        for (int i = from; i < from + FRAME_SIZE; i++)
+            union |= values[i];
+        return 32 - Integer.numberOfLeadingZeros(union);
+    }
+
+    /**
+     * Compute the number of bytes of the widths of the frames, padded to a whole int
+     * @param numFrames the number of frames
+     * @return the number of bytes
+     */
+    private static int headerBytes(int numFrames) {
+        return (numFrames + 3) & ~3;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        int numFrames = length / FRAME_SIZE;
+        int tail = numFrames * FRAME_SIZE;
+
+        int[] frameBits = new int[numFrames];
+        int numWords = 0;
+        for (int f = 0; f < numFrames; f++) {
+            frameBits[f] = frameBits(values, f * FRAME_SIZE);
+            numWords += LANES * frameBits[f];
+        }
+
+        int numTailBytes = 0;
+        for (int i = tail; i < length; i++)
+            numTailBytes += VariableByteCompressor.compressedLength(values[i]);
+
+        ByteBuffer output = ByteBuffer.allocate(headerBytes(numFrames) + 4 * numWords + numTailBytes);
+        for (int f = 0; f < numFrames; f++)
+            output.put((byte) frameBits[f]);
+        output.position(headerBytes(numFrames));
+
+        for (int f = 0; f < numFrames; f++) {
+            int bits = frameBits[f];
+            int from = f * FRAME_SIZE;
+
+            // the words of the lanes, filled from the least significant bit
+            int[] words = new int[LANES];
+            int shift = 0;
+            for (int j = 0; j < LANE_VALUES; j++) {
+                for (int lane = 0; lane < LANES; lane++)
+                    words[lane] |= values[from + LANES * j + lane] << shift;
+                shift += bits;
+
+                if (shift >= 32) {
+                    for (int lane = 0; lane < LANES; lane++)
+                        output.putInt(words[lane]);
+                    shift -= 32;
+                    for (int lane = 0; lane < LANES; lane++)
+                        words[lane] = (shift > 0) ? values[from + LANES * j + lane] >>> (bits - shift) : 0;
+                }
+            }
+        }
+
+        int offset = output.position();
+        for (int i = tail; i < length; i++)
+            offset = VariableByteCompressor.compress(values[i], output.array(), offset);
+        return output.array();
+    }
+
+    /**
+     * Unpack a frame with scalar operations, one lane after the other
+     * @param packed the packed words of the frames, the four lanes interleaved
+     * @param from the position of the first word of the frame
+     * @param bits the width of the values of the frame, between 1 and 32
+     * @param output the array where to write the values
+     * @param offset the position of the first value to write
+     */
+    private static void unpackScalar(int[] packed, int from, int bits, int[] output, int offset) {
+        int mask = (int) ((1L << bits) - 1);
+
+        for (int lane = 0; lane < LANES; lane++) {
+            int position = from + lane;
+            int word = packed[position];
+            int shift = 0;
+            for (int j = 0; j < LANE_VALUES; j++) {
+                int value = word >>> shift;
+                shift += bits;
+
+                if (shift >= 32) {
+                    shift -= 32;
+                    position += LANES;
+                    if (j < LANE_VALUES - 1)
+                        word = packed[position];
+                    if (shift > 0)
+                        value |= word << (bits - shift);
+                }
+
+                output[offset + LANES * j + lane] = value & mask;
+            }
+        }
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        int start = input.position();
+        int numFrames = length / FRAME_SIZE;
+
+        int numWords = 0;
+        for (int f = 0; f < numFrames; f++)
+            numWords += LANES * input.get(start + f);
+
+        // the packed frames are copied in ints with a single bulk read
+        int[] packed = PACKED_WORDS.get();
+        if (packed.length < numWords) {
+            packed = new int[numWords];
+            PACKED_WORDS.set(packed);
+        }
+        input.position(start + headerBytes(numFrames));
+        input.asIntBuffer().get(packed, 0, numWords);
+
+        int from = 0;
+        for (int f = 0; f < numFrames; f++) {
+            int bits = input.get(start + f);
+            if (vectorized)
+                VectorBitPacking.unpack(packed, from, bits, output, f * FRAME_SIZE);
+            else
+                unpackScalar(packed, from, bits, output, f * FRAME_SIZE);
+            from += LANES * bits;
+        }
+
+        // the values after the last frame
+        input.position(start + headerBytes(numFrames) + 4 * numWords);
+        VariableByteCompressor.decompress(input, output, numFrames * FRAME_SIZE, length - numFrames * FRAME_SIZE);
+        input.position(start + numBytes);
+    }
+}
@@ -0,0 +1,100 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * class used by the bit oriented codecs to read a stream of bits written by BitWriter. The reads are absolute
+ * gets of 64 bits at a time, so the position of the buffer is not changed; the bits after the end of the stream
+ * are read as zeros
+ */
+class BitReader {
+    /**
+     * Buffer holding the stream
+     */
+    private final ByteBuffer input;
+
+    /**
+     * Positions of the first byte of the stream and of the byte after the last one
+     */
+    private final int start;
+    private final int end;
+
+    /**
+     * Flag telling whether the longs of the buffer are read in the byte order of the stream
+     */
+    private final boolean bigEndian;
+
+    /**
+     * Position of the next bit to read, from the start of the stream
+     */
+    private long bitPosition;
+
+    /**
+     * Create a reader of bits
+     * @param input the buffer holding the stream
+     * @param start the position of the first byte of the stream
+     * @param numBytes the number of bytes of the stream
+     * @param bitPosition the position of the first bit to read, from the start of the stream
+     */
+    BitReader(ByteBuffer input, int start, int numBytes, long bitPosition) {
+        this.input = input;
+        this.start = start;
+        this.end = start + numBytes;
+        this.bigEndian = input.order() == ByteOrder.BIG_ENDIAN;
+        this.bitPosition = bitPosition;
+    }
+
+    /**
+     * Read the 64 bits starting from the current position, without consuming them: at least 57 of them are
+     * bits of the stream (or zeros after its end), the others are zeros
+     * @return the bits, aligned to the most significant bit
+     */
+    private long window() {
+        int position = start + (int) (bitPosition >>> 3);
+        long word;
+        if (position + 8 <= end) {
+            word = input.getLong(position);
+            if (!bigEndian)
+                word = Long.reverseBytes(word);
+        } else {
+            word = 0;
+            for (int i = 0; position + i < end; i++)
+                word |= (input.get(position + i) & 0xFFL) << (56 - 8 * i);
+        }
+        return word << (bitPosition & 7);
+    }
+
+    /**
+     * Read a value written with BitWriter.write
+     * @param numBits the number of bits of the value, at most 32
+     * @return the value
+     */
+    int readBits(int numBits) {
+        if (numBits == 0)
+            return 0;
+        long bits = window();
+        bitPosition += numBits;
+        return (int) (bits >>> (64 - numBits));
+    }
+
+    /**
+     * Read a sequence of bits set to 0 and the bit set to 1 ending it
+     * @return the number of zeros read, or the number of zeros up to the end of the stream if no bit ends them
+     */
+    int readZeros() {
+        int zeros = 0;
+        while (start + (bitPosition >>> 3) < end) {
+            int leadingZeros = Long.numberOfLeadingZeros(window());
+            if (leadingZeros < 57) {
+                bitPosition += leadingZeros + 1;
+                return zeros + leadingZeros;
+            }
+
+            // the first 57 bits are all bits of the stream, and all zeros
+            bitPosition += 57;
+            zeros += 57;
+        }
+        return zeros;
+    }
+}
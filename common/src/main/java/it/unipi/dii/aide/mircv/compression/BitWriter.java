@@ -0,0 +1,91 @@
+package it.unipi.dii.aide.mircv.compression;
+
+/**
+ * class used by the bit oriented codecs to write a stream of bits into an array of bytes, starting from the
+ * most significant bit of the first byte. The bits are accumulated in a word, written when it is full
+ */
+class BitWriter {
+    /**
+     * Array where the bits are written
+     */
+    private final byte[] output;
+
+    /**
+     * Position of the next byte to write
+     */
+    private int offset;
+
+    /**
+     * Bits not yet written, aligned to the most significant bit
+     */
+    private long word = 0;
+
+    /**
+     * Number of bits used in the word
+     */
+    private int usedBits = 0;
+
+    /**
+     * Create a writer of bits
+     * @param output the array where to write, large enough for all the bits
+     * @param offset the position of the first byte to write
+     */
+    BitWriter(byte[] output, int offset) {
+        this.output = output;
+        this.offset = offset;
+    }
+
+    /**
+     * Write the least significant bits of a value, from the most significant of them
+     * @param value the value, with no bits set above the ones to write
+     * @param numBits the number of bits to write, at most 32
+     */
+    void write(long value, int numBits) {
+        if (numBits == 0)
+            return;
+
+        if (usedBits + numBits < 64) {
+            word |= value << (64 - usedBits - numBits);
+            usedBits += numBits;
+            return;
+        }
+
+        // the value is split between this word and the next one
+        int rest = numBits - (64 - usedBits);
+        word |= value >>> rest;
+        flush();
+        word = (rest == 0) ? 0 : value << (64 - rest);
+        usedBits = rest;
+    }
+
+    /**
+     * Write a sequence of bits set to 0
+     * @param numBits the number of bits to write
+     */
+    void writeZeros(int numBits) {
+        for (; numBits > 32; numBits -= 32)
+            write(0, 32);
+        write(0, numBits);
+    }
+
+    /**
+     * Write the full word to the output
+     */
+    private void flush() {
+        for (int i = 0; i < 8; i++)
+            output[offset++] = (byte) (word >>> (56 - 8 * i));
+    }
+
+    /**
+     * Write the bits left in the word, padded with zeros to a whole byte
+     * @return the position after the last byte written
+     */
+    int finish() {
+        int numBytes = (usedBits + 7) >>> 3;
+        for (int i = 0; i < numBytes; i++)
+            output[offset++] = (byte) (word >>> (56 - 8 * i));
+        word = 0;
+        usedBits = 0;
+        return offset;
+    }
+}
@@ -0,0 +1,39 @@
+package it.unipi.dii.aide.mircv.compression;
+
+/**
+ * class used to turn the docids of a block into gaps before they are compressed, and back after decompression.
+ * The first docid of a block is stored as the gap from the max docid of the previous block of the same term
+ * in the same segment (0 for the first block), every other docid as the gap from the previous one:
+ * the gaps are small numbers, so variable byte stores most of them in a single byte.
+ * Docids are stored as gaps only in the indexes with format version Flags.DOCID_GAPS_FORMAT or later
+ */
+public class DocidGaps {
+    /**
+     * Replace the docids of a block with their gaps
+     * @param docids the increasing docids of the block, replaced in place by their gaps
+     * @param base the max docid of the previous block of the term, 0 for the first block
+     */
+    public static void toGaps(int[] docids, int base) {
+        int previous = base;
+        for (int i = 0; i < docids.length; i++) {
+            int docid = docids[i];
+            docids[i] = docid - previous;
+            previous = docid;
+        }
+    }
+
+    /**
+     * Replace the gaps of a block with the docids, computing their prefix sum
+     * @param gaps the gaps of the block, replaced in place by the docids
+     * @param numGaps the number of gaps
+     * @param base the max docid of the previous block of the term, 0 for the first block
+     */
+    public static void fromGaps(int[] gaps, int numGaps, int base) {
+        // the running sum is kept in a local variable, so the loop is a chain of additions without loads
+        int docid = base;
+        for (int i = 0; i < numGaps; i++) {
+            docid += gaps[i];
+            gaps[i] = docid;
+        }
+    }
+}
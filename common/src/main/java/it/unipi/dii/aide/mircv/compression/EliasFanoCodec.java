@@ -0,0 +1,88 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec of the Elias-Fano representation of monotone sequences. The values of the block are turned into
+ * their prefix sums, which for the docid gaps are the docids themselves minus the base of the block: each sum
+ * is split in its L low bits, written as they are, and its high bits, written in unary as the difference from
+ * the high bits of the previous sum followed by a bit set to 1. With L = floor(log2(U / n)), where U is the
+ * last sum, a block takes at most 2 + L bits per value whatever the distribution of the values.
+ * The stream starts with a byte holding L, followed by all the low bits and then by all the high bits
+ */
+public class EliasFanoCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "eliasfano";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Choose the number of low bits of the sums
+     * @param universe the last sum
+     * @param length the number of sums
+     * @return the number of low bits
+     */
+    private static int lowBits(long universe, int length) {
+        long ratio = universe / Math.max(1, length);
+        return (ratio == 0) ? 0 : 63 - Long.numberOfLeadingZeros(ratio);
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        long universe = 0;
+        for (int i = 0; i < length; i++) {
+            if (values[i] < 0)
+                throw new IllegalArgumentException("Elias-Fano cannot encode " + values[i]);
+            universe += values[i];
+        }
+        int lowBits = lowBits(universe, length);
+
+        // a byte for L, the low bits, a bit set to 1 per value and the zeros between the high bits
+        long numBits = 8 + (long) length * lowBits + length + (universe >>> lowBits);
+        byte[] output = new byte[(int) ((numBits + 7) >>> 3)];
+        BitWriter writer = new BitWriter(output, 0);
+        writer.write(lowBits, 8);
+
+        long mask = (1L << lowBits) - 1;
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += values[i];
+            writer.write(sum & mask, lowBits);
+        }
+
+        sum = 0;
+        long previousHigh = 0;
+        for (int i = 0; i < length; i++) {
+            sum += values[i];
+            long high = sum >>> lowBits;
+            writer.writeZeros((int) (high - previousHigh));
+            writer.write(1, 1);
+            previousHigh = high;
+        }
+        writer.finish();
+        return output;
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        int start = input.position();
+        int lowBits = input.get(start) & 0xFF;
+
+        BitReader lowReader = new BitReader(input, start, numBytes, 8);
+        BitReader highReader = new BitReader(input, start, numBytes, 8 + (long) length * lowBits);
+        long high = 0;
+        long previous = 0;
+        for (int i = 0; i < length; i++) {
+            high += highReader.readZeros();
+            long sum = (high << lowBits) | lowReader.readBits(lowBits);
+            output[i] = (int) (sum - previous);
+            previous = sum;
+        }
+        input.position(start + numBytes);
+    }
+}
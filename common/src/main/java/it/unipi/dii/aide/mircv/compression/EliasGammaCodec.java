@@ -0,0 +1,51 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec writing every value with the Elias gamma code: a value with n + 1 significant bits is written
+ * as n bits set to 0 followed by its significant bits, so 1 takes a single bit and the length grows with the
+ * logarithm of the value. Only positive values can be encoded
+ */
+public class EliasGammaCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "gamma";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        long numBits = 0;
+        for (int i = 0; i < length; i++) {
+            if (values[i] <= 0)
+                throw new IllegalArgumentException("The Elias gamma code cannot encode " + values[i]);
+            numBits += 2 * (31 - Integer.numberOfLeadingZeros(values[i])) + 1;
+        }
+
+        byte[] output = new byte[(int) ((numBits + 7) >>> 3)];
+        BitWriter writer = new BitWriter(output, 0);
+        for (int i = 0; i < length; i++) {
+            int significantBits = 32 - Integer.numberOfLeadingZeros(values[i]);
+            writer.writeZeros(significantBits - 1);
+            writer.write(values[i], significantBits);
+        }
+        writer.finish();
+        return output;
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        BitReader reader = new BitReader(input, input.position(), numBytes, 0);
+        for (int i = 0; i < length; i++) {
+            // the zeros end with the most significant bit of the value, which is always 1
+            int n = reader.readZeros();
+            output[i] = (1 << n) | reader.readBits(n);
+        }
+        input.position(input.position() + numBytes);
+    }
+}
@@ -0,0 +1,160 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec of the patched frame of reference scheme (PForDelta), choosing the bit width of every frame as
+ * OptPFD does. The values are split in frames of FRAME_SIZE values, and every value of a frame is packed in the
+ * same number of bits b; the few values not fitting in b bits are exceptions, whose low bits stay in their
+ * slot and whose high bits are patched in after the frame. The width of a frame is the one giving the smallest
+ * frame, trying all of them, so a few large gaps do not widen all the slots of the frame.
+ * A frame is written as: the width, the number of exceptions, the slots packed from the most significant bit,
+ * a byte with the position of every exception and the high bits of every exception, in variable byte
+ */
+public class PForDeltaCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "pfordelta";
+
+    /**
+     * Number of values of a frame: the position of an exception fits in a byte
+     */
+    private static final int FRAME_SIZE = 128;
+
+    /**
+     * Bytes of a frame before the slots: the width and the number of exceptions
+     */
+    private static final int FRAME_HEADER_BYTES = 2;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Compute the size of a frame packed in a number of bits
+     * @param values the values
+     * @param from the position of the first value of the frame
+     * @param count the number of values of the frame
+     * @param bits the width of the slots
+     * @return the number of bytes of the frame
+     */
+    private static int frameSize(int[] values, int from, int count, int bits) {
+        int size = FRAME_HEADER_BYTES + ((count * bits + 7) >>> 3);
+        for (int j = from; j < from + count; j++) {
+            int high = (int) ((values[j] & 0xFFFFFFFFL) >>> bits);
+            if (high != 0)
+                size += 1 + VariableByteCompressor.compressedLength(high);
+        }
+        return size;
+    }
+
+    /**
+     * Choose the width of the slots of a frame
+     * @param values the values
+     * @param from the position of the first value of the frame
+     * @param count the number of values of the frame
+     * @return the width giving the smallest frame
+     */
+    private static int chooseBits(int[] values, int from, int count) {
+        // no slot needs more bits than the largest value
+        int maxBits = 0;
+        for (int j = from; j < from + count; j++)
+            maxBits = Math.max(maxBits, 32 - Integer.numberOfLeadingZeros(values[j]));
+
+        int bestBits = maxBits;
+        int bestSize = frameSize(values, from, count, maxBits);
+        for (int bits = maxBits - 1; bits >= 0; bits--) {
+            int size = frameSize(values, from, count, bits);
+            if (size < bestSize) {
+                bestSize = size;
+                bestBits = bits;
+            }
+        }
+        return bestBits;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        int numFrames = (length + FRAME_SIZE - 1) / FRAME_SIZE;
+        int[] frameBits = new int[numFrames];
+        int size = 0;
+        for (int f = 0; f < numFrames; f++) {
+            int from = f * FRAME_SIZE;
+            int count = Math.min(FRAME_SIZE, length - from);
+            frameBits[f] = chooseBits(values, from, count);
+            size += frameSize(values, from, count, frameBits[f]);
+        }
+
+        byte[] output = new byte[size];
+        int offset = 0;
+        for (int f = 0; f < numFrames; f++) {
+            int from = f * FRAME_SIZE;
+            int count = Math.min(FRAME_SIZE, length - from);
+            int bits = frameBits[f];
+
+            int numExceptions = 0;
+            for (int j = from; j < from + count; j++)
+                if ((values[j] & 0xFFFFFFFFL) >>> bits != 0)
+                    numExceptions++;
+            output[offset++] = (byte) bits;
+            output[offset++] = (byte) numExceptions;
+
+            // the slots, with the low bits of the exceptions
+            long mask = (1L << bits) - 1;
+            BitWriter writer = new BitWriter(output, offset);
+            for (int j = from; j < from + count; j++)
+                writer.write(values[j] & mask, bits);
+            offset = writer.finish();
+
+            // the positions and then the high bits of the exceptions
+            for (int j = from; j < from + count; j++)
+                if ((values[j] & 0xFFFFFFFFL) >>> bits != 0)
+                    output[offset++] = (byte) (j - from);
+            for (int j = from; j < from + count; j++) {
+                int high = (int) ((values[j] & 0xFFFFFFFFL) >>> bits);
+                if (high != 0)
+                    offset = VariableByteCompressor.compress(high, output, offset);
+            }
+        }
+        return output;
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        int end = input.position() + numBytes;
+        for (int from = 0; from < length; from += FRAME_SIZE) {
+            int count = Math.min(FRAME_SIZE, length - from);
+            int bits = input.get();
+            int numExceptions = input.get() & 0xFF;
+
+            // the slots are unpacked a byte at a time through a buffer of at most 39 bits
+            long mask = (1L << bits) - 1;
+            long buffer = 0;
+            int bufferedBits = 0;
+            for (int j = from; j < from + count; j++) {
+                while (bufferedBits < bits) {
+                    buffer = (buffer << 8) | (input.get() & 0xFF);
+                    bufferedBits += 8;
+                }
+                bufferedBits -= bits;
+                output[j] = (int) ((buffer >>> bufferedBits) & mask);
+            }
+
+            // the positions of the exceptions are followed by their high bits
+            int positions = input.position();
+            input.position(positions + numExceptions);
+            for (int e = 0; e < numExceptions; e++) {
+                int high = 0;
+                int b;
+                do {
+                    b = input.get();
+                    high = (high << 7) | (b & 0x7F);
+                } while (b >= 0);
+                output[from + (input.get(positions + e) & 0xFF)] |= high << bits;
+            }
+        }
+        input.position(end);
+    }
+}
@@ -0,0 +1,46 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec of a stream of postings of a block: the docids (as gaps, see DocidGaps) or the frequencies.
+ * The codecs of the two streams are chosen when the index is built and saved with its flags, so every codec
+ * has a name that never changes; the available codecs are listed in PostingCodecs.
+ * A codec holds no state, so the same instance encodes and decodes from many threads. The values of a block
+ * are positive integers, since the docid gaps and the frequencies are never 0
+ */
+public interface PostingCodec {
+    /**
+     * @return the name of the codec, saved in the flags of the index
+     */
+    String getName();
+
+    /**
+     * Encode the first values of an array
+     * @param values the values to encode
+     * @param length the number of values to encode
+     * @return the encoded bytes
+     */
+    byte[] encode(int[] values, int length);
+
+    /**
+     * Decode the values of a block from a buffer, starting from its position
+     * @param input the buffer, big endian, positioned after the encoded bytes when the method returns
+     * @param numBytes the number of encoded bytes
+     * @param output the array where to write the values, with at least length elements
+     * @param length the number of values to decode
+     */
+    void decode(ByteBuffer input, int numBytes, int[] output, int length);
+
+    /**
+     * Decode the values of a block from an array of bytes
+     * @param input the encoded bytes
+     * @param offset the position of the first encoded byte
+     * @param numBytes the number of encoded bytes
+     * @param output the array where to write the values, with at least length elements
+     * @param length the number of values to decode
+     */
+    default void decode(byte[] input, int offset, int numBytes, int[] output, int length) {
+        decode(ByteBuffer.wrap(input, offset, numBytes), numBytes, output, length);
+    }
+}
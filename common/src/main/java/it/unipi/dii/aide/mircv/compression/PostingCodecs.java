@@ -0,0 +1,63 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * class listing the posting codecs by name: the name of a codec is saved in the flags of the index, so a codec
+ * can be added here but never renamed or removed
+ */
+public class PostingCodecs {
+    /**
+     * Default codec of the docids, the only one of the indexes built before the codecs were saved with the flags
+     */
+    public static final PostingCodec DEFAULT_DOCID_CODEC = new VariableByteCodec();
+
+    /**
+     * Default codec of the frequencies, the only one of the indexes built before the codecs were saved with the flags
+     */
+    public static final PostingCodec DEFAULT_FREQUENCY_CODEC = new UnaryCodec();
+
+    /**
+     * The codecs, by name
+     */
+    private static final Map<String, PostingCodec> CODECS = new LinkedHashMap<>();
+
+    static {
+        register(DEFAULT_DOCID_CODEC);
+        register(DEFAULT_FREQUENCY_CODEC);
+        register(new EliasGammaCodec());
+        register(new Simple16Codec());
+        register(new Simple8bCodec());
+        register(new PForDeltaCodec());
+        register(new EliasFanoCodec());
+        register(new BinaryPackingCodec());
+    }
+
+    /**
+     * Add a codec to the list
+     * @param codec the codec
+     */
+    private static void register(PostingCodec codec) {
+        CODECS.put(codec.getName(), codec);
+    }
+
+    /**
+     * Return a codec by name
+     * @param name the name of the codec, as saved in the flags
+     * @return the codec, null if there is no codec with that name
+     */
+    public static PostingCodec get(String name) {
+        return (name == null) ? null : CODECS.get(name.trim().toLowerCase());
+    }
+
+    /**
+     * Return all the codecs
+     * @return the codecs, in the order in which they were added
+     */
+    public static Collection<PostingCodec> getAll() {
+        return Collections.unmodifiableCollection(CODECS.values());
+    }
+}
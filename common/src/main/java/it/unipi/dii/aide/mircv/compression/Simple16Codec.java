@@ -0,0 +1,129 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Posting codec packing the values in 32 bit words with the Simple-16 scheme: the 4 most significant bits of
+ * a word select one of 16 layouts of the other 28 bits, from 28 values of 1 bit to a single value of 28 bits.
+ * Every word takes as many values as its densest layout fits, so the small values of a block take a few bits
+ * each and the decoder reads a whole word at a time. The values must be smaller than 2^28
+ */
+public class Simple16Codec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "simple16";
+
+    /**
+     * Largest value that fits in a word
+     */
+    public static final int MAX_VALUE = (1 << 28) - 1;
+
+    /**
+     * Bits of the values of each layout, in the order in which they are written from the most significant
+     */
+    private static final int[][] LAYOUTS = {
+            repeat(28, 1),
+            concat(repeat(7, 2), repeat(14, 1)),
+            concat(repeat(7, 1), repeat(7, 2), repeat(7, 1)),
+            concat(repeat(14, 1), repeat(7, 2)),
+            repeat(14, 2),
+            concat(repeat(1, 4), repeat(8, 3)),
+            concat(repeat(1, 3), repeat(4, 4), repeat(3, 3)),
+            repeat(7, 4),
+            concat(repeat(4, 5), repeat(2, 4)),
+            concat(repeat(2, 4), repeat(4, 5)),
+            concat(repeat(3, 6), repeat(2, 5)),
+            concat(repeat(2, 5), repeat(3, 6)),
+            repeat(4, 7),
+            concat(repeat(1, 10), repeat(2, 9)),
+            repeat(2, 14),
+            repeat(1, 28)
+    };
+
+    /**
+     * @return an array of count elements equal to bits
+     */
+    private static int[] repeat(int count, int bits) {
+        int[] layout = new int[count];
+        Arrays.fill(layout, bits);
+        return layout;
+    }
+
+    /**
+     * @return the concatenation of the arrays
+     */
+    private static int[] concat(int[]... parts) {
+        int length = 0;
+        for (int[] part : parts)
+            length += part.length;
+        int[] layout = new int[length];
+        int i = 0;
+        for (int[] part : parts)
+            for (int bits : part)
+                layout[i++] = bits;
+        return layout;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        // every word holds at least a value, so a word per value is enough
+        int[] words = new int[length];
+        int numWords = 0;
+
+        int i = 0;
+        while (i < length) {
+            if (values[i] < 0 || values[i] > MAX_VALUE)
+                throw new IllegalArgumentException("Simple-16 cannot encode " + values[i]);
+
+            // the first layout fitting the next values; the last word may be partial, the decoder stops at length
+            int selector = 0;
+            int count = 0;
+            for (; selector < LAYOUTS.length; selector++) {
+                int[] layout = LAYOUTS[selector];
+                count = Math.min(layout.length, length - i);
+                int j = 0;
+                while (j < count && (values[i + j] >>> layout[j]) == 0)
+                    j++;
+                if (j == count)
+                    break;
+            }
+
+            int[] layout = LAYOUTS[selector];
+            int word = selector << 28;
+            int shift = 28;
+            for (int j = 0; j < count; j++) {
+                shift -= layout[j];
+                word |= values[i + j] << shift;
+            }
+            words[numWords++] = word;
+            i += count;
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(4 * numWords);
+        output.asIntBuffer().put(words, 0, numWords);
+        return output.array();
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        int end = input.position() + numBytes;
+        int n = 0;
+        while (n < length && input.position() < end) {
+            int word = input.getInt();
+            int[] layout = LAYOUTS[word >>> 28];
+            int shift = 28;
+            for (int j = 0; j < layout.length && n < length; j++) {
+                shift -= layout[j];
+                output[n++] = (word >>> shift) & ((1 << layout[j]) - 1);
+            }
+        }
+        input.position(end);
+    }
+}
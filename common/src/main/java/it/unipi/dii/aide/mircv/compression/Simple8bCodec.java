@@ -0,0 +1,105 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec packing the values in 64 bit words with the Simple-8b scheme: the 4 most significant bits of
+ * a word select how many values of the same width the other 60 bits hold, from 60 values of 1 bit to a single
+ * value of 60 bits, so every value can be encoded. The first two selectors hold runs of 240 and 120 values
+ * equal to 1 with no bits at all, which are frequent among the frequencies and the gaps of the common terms
+ */
+public class Simple8bCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "simple8b";
+
+    /**
+     * Number of values of each selector
+     */
+    private static final int[] COUNTS = {240, 120, 60, 30, 20, 15, 12, 10, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    /**
+     * Bits of the values of each selector, 0 for the runs of values equal to 1
+     */
+    private static final int[] BITS = {0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 12, 15, 20, 30, 60};
+
+    /**
+     * Number of selectors holding runs of values equal to 1
+     */
+    private static final int RUN_SELECTORS = 2;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Check whether the next values fit a selector
+     * @param values the values
+     * @param from the position of the first value
+     * @param count the number of values to check
+     * @param selector the selector
+     * @return true if all the values fit
+     */
+    private static boolean fits(int[] values, int from, int count, int selector) {
+        for (int j = from; j < from + count; j++) {
+            if (selector < RUN_SELECTORS ? values[j] != 1 : (values[j] & 0xFFFFFFFFL) >>> BITS[selector] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        // every word holds at least a value, so a word per value is enough
+        long[] words = new long[length];
+        int numWords = 0;
+
+        int i = 0;
+        while (i < length) {
+            // the first selector fitting the next values; the last word may be partial, the decoder stops at length
+            int selector = 0;
+            int count = Math.min(COUNTS[0], length - i);
+            while (!fits(values, i, count, selector)) {
+                selector++;
+                count = Math.min(COUNTS[selector], length - i);
+            }
+
+            long word = (long) selector << 60;
+            if (selector >= RUN_SELECTORS) {
+                int bits = BITS[selector];
+                for (int j = 0; j < count; j++)
+                    word |= (values[i + j] & 0xFFFFFFFFL) << (60 - bits * (j + 1));
+            }
+            words[numWords++] = word;
+            i += count;
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(8 * numWords);
+        output.asLongBuffer().put(words, 0, numWords);
+        return output.array();
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        int end = input.position() + numBytes;
+        int n = 0;
+        while (n < length && input.position() < end) {
+            long word = input.getLong();
+            int selector = (int) (word >>> 60);
+            int count = Math.min(COUNTS[selector], length - n);
+
+            if (selector < RUN_SELECTORS) {
+                for (int j = 0; j < count; j++)
+                    output[n++] = 1;
+            } else {
+                int bits = BITS[selector];
+                long mask = (1L << bits) - 1;
+                for (int j = 1; j <= count; j++)
+                    output[n++] = (int) ((word >>> (60 - bits * j)) & mask);
+            }
+        }
+        input.position(end);
+    }
+}
@@ -0,0 +1,35 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec of the unary compressor, the default codec of the frequencies
+ */
+public class UnaryCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "unary";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        byte[] output = new byte[UnaryCompressor.compressedLength(values, length)];
+        UnaryCompressor.compress(values, length, output, 0);
+        return output;
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        UnaryCompressor.decompress(input, numBytes, output, length);
+    }
+
+    @Override
+    public void decode(byte[] input, int offset, int numBytes, int[] output, int length) {
+        UnaryCompressor.decompress(input, offset, numBytes, output, length);
+    }
+}
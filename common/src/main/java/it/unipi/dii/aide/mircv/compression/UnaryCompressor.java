@@ -1,9 +1,37 @@
 package it.unipi.dii.aide.mircv.compression;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
- * class used to implement the unary compressor used to compress the frequencies in the inverted index
+ * class used to implement the unary compressor used to compress the frequencies in the inverted index.
+ * An integer n is written as n - 1 bits set to 1 followed by a bit set to 0, starting from the most significant
+ * bit of the first byte; the unused bits of the last byte are 0.
+ * The bits are read and written 64 at a time: the decoder finds the terminating zeros of a whole word with
+ * Long.numberOfLeadingZeros, instead of testing one bit at a time
  */
 public class UnaryCompressor {
+    /**
+     * View of a byte array as big endian longs, so the first byte of the stream is the most significant of the word
+     */
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Method computing the number of bytes of a compressed array of integers
+     * @param values the integers, skipped if not positive
+     * @param length the number of integers to consider
+     * @return the number of bytes of their compressed representation
+     */
+    public static int compressedLength(int[] values, int length) {
+        long nBits = 0;
+        for (int i = 0; i < length; i++)
+            if (values[i] > 0)
+                nBits += values[i];
+        return (int) ((nBits + 7) >>> 3);
+    }
+
     /**
      * Method to compress an array of integers into an array of bytes using Unary compression algorithm
      * @param toBeCompressed: array of integers to be compressed
@@ -11,59 +39,167 @@ public class UnaryCompressor {
      * @return an array containing the compressed bytes
      */
     public static byte[] integerArrayCompression(int[] toBeCompressed) {
-        int nBits = 0;
-
-        // find the maximum number of bits needed to represent the frequencies
-        for (int i=0; i<toBeCompressed.length; i++) {
-            // Each integer number will be compressed in a number of bits equal to its value
-            nBits += toBeCompressed[i];
-        }
-
-        // Compute the total number of bytes needed as ceil of nBits/8
-        int nBytes = (nBits/ 8 + (((nBits % 8) != 0) ? 1 : 0));
-
-        System.out.println("nBits: " + nBits + " nBytes: " + nBytes);
-
-        // Initialize array of bytes to store the compressed data
-        byte[] compressedArray = new byte[nBytes];
+        // the exact size is computed first, so the output is the only allocation
+        byte[] compressedArray = new byte[compressedLength(toBeCompressed, toBeCompressed.length)];
+        compress(toBeCompressed, toBeCompressed.length, compressedArray, 0);
+        return compressedArray;
+    }
 
-        // Initialize the index of the byte in the compressedArray
-        int nextByteToWrite = 0;
-        int nextBitToWrite = 0;
+    /**
+     * Method compressing an array of integers into an array of bytes. The bits are accumulated in a word,
+     * written to the output when it is full
+     * @param values the integers to be compressed, skipped if not positive
+     * @param length the number of integers to compress
+     * @param output the array where to write, with at least compressedLength(values, length) bytes after offset
+     * @param offset the position of the first byte to write
+     * @return the position after the last byte written
+     */
+    public static int compress(int[] values, int length, byte[] output, int offset) {
+        long word = 0;
+        int usedBits = 0;
 
-        // Compress each integer in the array
-        for(int i=0; i<toBeCompressed.length; i++) {
-            // Check if the integer is 0
-            if(toBeCompressed[i] <= 0){
+        for (int i = 0; i < length; i++) {
+            if (values[i] <= 0) {
                 System.out.println("Skipped element <=0 in the list of integers to be compressed");
                 continue;
             }
+            int ones = values[i] - 1;
+
+            // the ones filling the rest of the word
+            while (ones >= 64 - usedBits) {
+                word |= -1L >>> usedBits;
+                offset = writeWord(word, 8, output, offset);
+                ones -= 64 - usedBits;
+                word = 0;
+                usedBits = 0;
+            }
 
-            // Compress the integer and append the compressed bytes to the compressedArray
-            for(int j=0; j<toBeCompressed[i] -1; j++) {
-                // Set the bit at the position nextBitToWrite in the byte nextByteToWrite
-                compressedArray[nextByteToWrite] = (byte) (compressedArray[nextByteToWrite] | (1 << 7-nextBitToWrite));
+            // the remaining ones followed by the zero, that fit in the word
+            if (ones > 0)
+                word |= ((1L << ones) - 1) << (64 - usedBits - ones);
+            usedBits += ones + 1;
+            if (usedBits == 64) {
+                offset = writeWord(word, 8, output, offset);
+                word = 0;
+                usedBits = 0;
+            }
+        }
 
-                // Increment the nextBitToWrite
-                nextBitToWrite++;
+        // the bits of the last word, padded with zeros to a whole byte
+        return writeWord(word, (usedBits + 7) >>> 3, output, offset);
+    }
 
-                // If the byte is full, move to the next byte
-                if(nextBitToWrite == 8) {
-                    nextByteToWrite++;
-                    nextBitToWrite = 0;
-                }
+    /**
+     * Write the most significant bytes of a word
+     * @param word the word
+     * @param numBytes the number of bytes to write, at most 8
+     * @param output the array where to write
+     * @param offset the position of the first byte to write
+     * @return the position after the last byte written
+     */
+    private static int writeWord(long word, int numBytes, byte[] output, int offset) {
+        if (numBytes == 8 && offset + 8 <= output.length) {
+            LONG_VIEW.set(output, offset, word);
+            return offset + 8;
+        }
+        for (int i = 0; i < numBytes; i++)
+            output[offset++] = (byte) (word >>> (56 - 8 * i));
+        return offset;
+    }
+
+    /**
+     * Read a word of the stream: the bits after the end of the stream are read as ones, so they end no integer
+     * @param input the compressed bytes
+     * @param offset the position of the first byte of the word
+     * @param end the position after the last byte of the stream
+     * @return the word
+     */
+    private static long readWord(byte[] input, int offset, int end) {
+        if (offset + 8 <= end)
+            return (long) LONG_VIEW.get(input, offset);
+
+        long word = -1L >>> (8 * (end - offset));
+        for (int i = 0; offset + i < end; i++)
+            word |= (input[offset + i] & 0xFFL) << (56 - 8 * i);
+        return word;
+    }
+
+    /**
+     * Method decompressing integers from an array of bytes, one word at a time: every bit set to 0 in the word
+     * ends an integer, whose value is the number of bits since the previous one
+     * @param input the compressed bytes
+     * @param offset the position of the first byte to read
+     * @param numBytes the number of compressed bytes
+     * @param output the array where to write the integers, with at least totNums elements
+     * @param totNums the number of integers to decompress
+     */
+    public static void decompress(byte[] input, int offset, int numBytes, int[] output, int totNums) {
+        int end = offset + numBytes;
+        int n = 0;
+
+        // ones read since the end of the last integer, in the previous words
+        int carry = 0;
+        for (int position = offset; position < end && n < totNums; position += 8) {
+            // the bits set to 1 in the complement of the word end an integer
+            long zeros = ~readWord(input, position, end);
+            int consumed = 0;
+            while (zeros != 0 && n < totNums) {
+                int terminator = Long.numberOfLeadingZeros(zeros);
+                output[n++] = carry + (terminator - consumed) + 1;
+                carry = 0;
+                consumed = terminator + 1;
+                zeros ^= Long.MIN_VALUE >>> terminator;
             }
+            carry += 64 - consumed;
+        }
 
-            // Set the last bit of the byte to 0
-            nextBitToWrite++;
+        // as the stream ended, the missing integers are 0
+        for (; n < totNums; n++)
+            output[n] = 0;
+    }
 
-            // If the byte is full, move to the next byte
-            if(nextBitToWrite == 8) {
-                nextByteToWrite++;
-                nextBitToWrite = 0;
+    /**
+     * Method decompressing integers from a buffer, starting from its position, one word at a time as in
+     * decompress(byte[], int, int, int[], int)
+     * @param input the buffer, positioned after the compressed bytes when the method returns
+     * @param numBytes the number of compressed bytes
+     * @param output the array where to write the integers, with at least totNums elements
+     * @param totNums the number of integers to decompress
+     */
+    public static void decompress(ByteBuffer input, int numBytes, int[] output, int totNums) {
+        int end = input.position() + numBytes;
+        boolean bigEndian = input.order() == ByteOrder.BIG_ENDIAN;
+
+        int n = 0;
+        int carry = 0;
+        for (int position = input.position(); position < end && n < totNums; position += 8) {
+            // the words are read with absolute gets, in the byte order of the stream whatever the order of the buffer
+            long word;
+            if (position + 8 <= end) {
+                word = input.getLong(position);
+                if (!bigEndian)
+                    word = Long.reverseBytes(word);
+            } else {
+                word = -1L >>> (8 * (end - position));
+                for (int i = 0; position + i < end; i++)
+                    word |= (input.get(position + i) & 0xFFL) << (56 - 8 * i);
             }
+
+            long zeros = ~word;
+            int consumed = 0;
+            while (zeros != 0 && n < totNums) {
+                int terminator = Long.numberOfLeadingZeros(zeros);
+                output[n++] = carry + (terminator - consumed) + 1;
+                carry = 0;
+                consumed = terminator + 1;
+                zeros ^= Long.MIN_VALUE >>> terminator;
+            }
+            carry += 64 - consumed;
         }
-        return compressedArray;
+
+        for (; n < totNums; n++)
+            output[n] = 0;
+        input.position(end);
     }
 
     /**
@@ -74,43 +210,7 @@ public class UnaryCompressor {
      */
     public static int[] integerArrayDecompression(byte[] toBeDecompressed, int totNums){
         int[] decompressedArray = new int[totNums];
-
-        int toBeReadedByte = 0;
-        int toBeReadedBit = 0;
-        int nextInteger = 0;
-        int onesCounter = 0;
-
-        // Decompress each integer in the array
-        for(int i=0; i < toBeDecompressed.length * 8; i++){
-            // Create a byte, b, where only the bit (i%8) is set to 1 or 0
-            byte b = 0b00000000;
-            b |= (byte) (1 << 7-(i%8));
-
-            System.out.println("Integer Binary String: " + Integer.toBinaryString(b & 255 | 256).substring(1));
-
-            // Check if the bit is set to 1 or 0
-            if((toBeDecompressed[toBeReadedByte] & b) == 0){
-
-                // Set the next integer in the decompressedArray
-                decompressedArray[nextInteger] = onesCounter + 1;
-
-                nextInteger++;
-                if(nextInteger == totNums)
-                    break;
-
-                onesCounter = 0;
-            } else {
-                // Increment the counter of 1s
-                onesCounter++;
-            }
-            toBeReadedBit++;
-
-            // If the byte is full, move to the next byte
-            if(toBeReadedBit == 8){
-                toBeReadedByte++;
-                toBeReadedBit = 0;
-            }
-        }
+        decompress(toBeDecompressed, 0, toBeDecompressed.length, decompressedArray, totNums);
         return decompressedArray;
     }
 }
@@ -0,0 +1,35 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Posting codec of the variable byte compressor, the default codec of the docids
+ */
+public class VariableByteCodec implements PostingCodec {
+    /**
+     * Name of the codec
+     */
+    public static final String NAME = "vbyte";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int length) {
+        byte[] output = new byte[VariableByteCompressor.compressedLength(values, length)];
+        VariableByteCompressor.compress(values, length, output, 0);
+        return output;
+    }
+
+    @Override
+    public void decode(ByteBuffer input, int numBytes, int[] output, int length) {
+        VariableByteCompressor.decompress(input, output, length);
+    }
+
+    @Override
+    public void decode(byte[] input, int offset, int numBytes, int[] output, int length) {
+        VariableByteCompressor.decompress(input, offset, output, length);
+    }
+}
@@ -1,97 +1,185 @@
 package it.unipi.dii.aide.mircv.compression;
 
-import java.util.ArrayList;
-import static java.lang.Math.log;
-
+import java.nio.ByteBuffer;
+
+/**
+ * class used to implement the variable byte compressor used to compress the docids in the inverted index.
+ * Every integer is split in groups of 7 bits, written from the most significant one, one group per byte:
+ * the most significant bit of a byte is 1 only in the last byte of an integer.
+ * The methods encode into and decode from arrays and buffers given by the caller, without allocating
+ * anything per integer
+ */
 public class VariableByteCompressor {
+    /**
+     * Maximum number of bytes of a compressed integer
+     */
+    public static final int MAX_COMPRESSED_BYTES = 5;
+
+    /**
+     * Method computing the number of bytes of a compressed integer
+     * @param value the integer, treated as unsigned
+     * @return the number of bytes of its compressed representation, between 1 and MAX_COMPRESSED_BYTES
+     */
+    public static int compressedLength(int value) {
+        // 7 bits per byte, and at least one byte for 0
+        int bits = 32 - Integer.numberOfLeadingZeros(value | 1);
+        return (bits + 6) / 7;
+    }
+
+    /**
+     * Method computing the number of bytes of a compressed array of integers
+     * @param values the integers
+     * @param length the number of integers to consider
+     * @return the number of bytes of their compressed representation
+     */
+    public static int compressedLength(int[] values, int length) {
+        int numBytes = 0;
+        for (int i = 0; i < length; i++)
+            numBytes += compressedLength(values[i]);
+        return numBytes;
+    }
+
     /**
      * Method for compressing a single integer
      * @param toBeCompressed the integer to be compressed
      * @return the compressed representation of the input number
      */
     public static byte[] integerCompression(int toBeCompressed) {
-        // case of number 0
-        if (toBeCompressed == 0) {
-            return new byte[]{0};
-        }
+        byte[] output = new byte[compressedLength(toBeCompressed)];
+        compress(toBeCompressed, output, 0);
+        return output;
+    }
 
-        // compute the number of bytes needed
-        int numBytes = (int) (log(toBeCompressed) / log(128)) + 1;
+    /**
+     * Method compressing an integer into an array of bytes
+     * @param value the integer to be compressed
+     * @param output the array where to write, with at least compressedLength(value) bytes after offset
+     * @param offset the position of the first byte to write
+     * @return the position after the last byte written
+     */
+    public static int compress(int value, byte[] output, int offset) {
+        // the groups of 7 bits before the last one, from the most significant
+        for (int shift = 7 * (compressedLength(value) - 1); shift > 0; shift -= 7)
+            output[offset++] = (byte) ((value >>> shift) & 0x7F);
+
+        // the last group, marked by the most significant bit
+        output[offset++] = (byte) (value | 0x80);
+        return offset;
+    }
 
-        // create the byte array
-        byte[] output = new byte[numBytes];
+    /**
+     * Method compressing an array of integers into an array of bytes
+     * @param values the integers to be compressed
+     * @param length the number of integers to compress
+     * @param output the array where to write, with at least compressedLength(values, length) bytes after offset
+     * @param offset the position of the first byte to write
+     * @return the position after the last byte written
+     */
+    public static int compress(int[] values, int length, byte[] output, int offset) {
+        for (int i = 0; i < length; i++)
+            offset = compress(values[i], output, offset);
+        return offset;
+    }
 
-        // fill the byte array starting from the least significant byte
-        // and moving to the most significant byte
-        for (int i = numBytes - 1; i >= 0; i--) {
-            output[i] = (byte) (toBeCompressed % 128);
-            toBeCompressed /= 128;
+    /**
+     * Method compressing an array of integers into a buffer, starting from its position
+     * @param values the integers to be compressed
+     * @param length the number of integers to compress
+     * @param output the buffer, with at least compressedLength(values, length) bytes remaining
+     * @return the number of bytes written
+     */
+    public static int compress(int[] values, int length, ByteBuffer output) {
+        int start = output.position();
+        for (int i = 0; i < length; i++) {
+            int value = values[i];
+            for (int shift = 7 * (compressedLength(value) - 1); shift > 0; shift -= 7)
+                output.put((byte) ((value >>> shift) & 0x7F));
+            output.put((byte) (value | 0x80));
         }
-
-        // set the most significant bit of the last byte to 1
-        output[numBytes - 1] += 128;
-        return output;
+        return output.position() - start;
     }
 
     /**
-     * Method to compress an array of integers into an array of bytes using Unary compression algorithm
+     * Method to compress an array of integers into an array of bytes using variable byte compression algorithm
      * @param toBeCompressed: array of integers to be compressed
      * @return an array containing the compressed bytes
      */
     public static byte[] integerArrayCompression(int[] toBeCompressed) {
-        ArrayList<Byte> compressedArray = new ArrayList<>();
+        // the exact size is computed first, so the output is the only allocation
+        byte[] output = new byte[compressedLength(toBeCompressed, toBeCompressed.length)];
+        compress(toBeCompressed, toBeCompressed.length, output, 0);
+        return output;
+    }
 
-        // compress each integer in the array
-        for (int i : toBeCompressed) {
-            // compress the integer and append the compressed bytes to the compressedArray
-            for (byte elem : integerCompression(i))
-                compressedArray.add(elem);
+    /**
+     * Method decompressing integers from an array of bytes.
+     * The loop has no branch on the content of the bytes: every byte is appended to the current integer,
+     * which is always stored in the output, and the most significant bit of the byte decides whether the
+     * output moves to the next integer and the current one is reset
+     * @param input the compressed bytes
+     * @param offset the position of the first byte to read
+     * @param output the array where to write the integers, with at least length elements
+     * @param length the number of integers to decompress
+     * @return the position after the last byte read
+     */
+    public static int decompress(byte[] input, int offset, int[] output, int length) {
+        int n = 0;
+        int value = 0;
+        while (n < length) {
+            int b = input[offset++];
+            value = (value << 7) | (b & 0x7F);
+            output[n] = value;
+
+            // 1 if the byte ends the integer, 0 otherwise (the byte is sign extended)
+            int last = b >>> 31;
+            n += last;
+            value &= last - 1;
         }
+        return offset;
+    }
 
-        // convert the ArrayList to an array of bytes
-        byte[] output = new byte[compressedArray.size()];
-        for (int i = 0; i < compressedArray.size(); i++)
-            output[i] = compressedArray.get(i);
+    /**
+     * Method decompressing integers from a buffer, starting from its position, with the same loop of
+     * decompress(byte[], int, int[], int)
+     * @param input the buffer, positioned after the last byte read when the method returns
+     * @param output the array where to write the integers, with at least length elements
+     * @param length the number of integers to decompress
+     */
+    public static void decompress(ByteBuffer input, int[] output, int length) {
+        decompress(input, output, 0, length);
+    }
 
-        return output;
+    /**
+     * Method decompressing integers from a buffer into a part of an array
+     * @param input the buffer, positioned after the last byte read when the method returns
+     * @param output the array where to write the integers
+     * @param offset the position of the first integer to write
+     * @param length the number of integers to decompress
+     */
+    public static void decompress(ByteBuffer input, int[] output, int offset, int length) {
+        int n = offset;
+        int end = offset + length;
+        int value = 0;
+        while (n < end) {
+            int b = input.get();
+            value = (value << 7) | (b & 0x7F);
+            output[n] = value;
+
+            int last = b >>> 31;
+            n += last;
+            value &= last - 1;
+        }
     }
 
     /**
-     * Method to decompress an array of bytes int an array of totNums integers using Unary compression algorithm
+     * Method to decompress an array of bytes int an array of totNums integers using variable byte compression algorithm
      * @param toBeDecompressed: array of bytes to be decompressed
      * @param totNums: total number of integers to be decompressed
      * @return an array containing the decompressed integers
      */
     public static int[] integerArrayDecompression(byte[] toBeDecompressed, int totNums) {
         int[] decompressedArray = new int[totNums];
-
-        // Counter for processed data
-        int decompressedNumber = 0;
-
-        // Index of already processed data
-        int alreadyDecompressed = 0;
-
-        // decompress each integer in the array
-        for(byte elem: toBeDecompressed){
-            // if the most significant bit is 1, the current byte is the last byte of the compressed integer
-            if((elem & 0xff) < 128)
-                // if the most significant bit is 0, the current byte is not the last byte of the compressed integer
-                // so we need to append the byte to the previous byte
-                decompressedNumber = 128 * decompressedNumber + elem;
-            else{
-                // termination byte, remove the 1 at the MSB and then append the byte to the number
-                decompressedNumber = 128 * decompressedNumber + ((elem - 128) & 0xff);
-
-                // save the number in the output array
-                decompressedArray[alreadyDecompressed] = decompressedNumber;
-
-                // increase the number of processed numbers
-                alreadyDecompressed++;
-
-                //reset the variable for the next number to decompress
-                decompressedNumber = 0;
-            }
-        }
+        decompress(toBeDecompressed, 0, decompressedArray, totNums);
         return decompressedArray;
     }
-}
\ No newline at end of file
+}
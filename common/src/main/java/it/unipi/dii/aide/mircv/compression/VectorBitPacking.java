@@ -0,0 +1,60 @@
+package it.unipi.dii.aide.mircv.compression;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * class unpacking the frames of BinaryPackingCodec with the Vector API: the four lanes of a frame are unpacked
+ * together, one 128 bit vector at a time, with vector shifts and masks.
+ * It is the only class using the jdk.incubator.vector module, and it is loaded only if the module is available
+ * (see BinaryPackingCodec.isVectorApiAvailable), so the codec runs without the module with its scalar unpacker
+ */
+class VectorBitPacking {
+    /**
+     * Vectors of the four lanes of a frame, whatever the preferred size of the vectors of the machine,
+     * since the layout of the frames does not depend on the machine that wrote them
+     */
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_128;
+
+    /**
+     * Check whether the vectors of the four lanes are executed as SIMD instructions: if the machine has
+     * smaller vectors the Vector API emulates them, and the scalar unpacker is faster
+     * @return true if the unpacker can be used
+     */
+    static boolean isSupported() {
+        return VectorShape.preferredShape().vectorBitSize() >= SPECIES.vectorBitSize();
+    }
+
+    /**
+     * Unpack a frame of BinaryPackingCodec.FRAME_SIZE values
+     * @param packed the packed words of the frames, the four lanes interleaved
+     * @param from the position of the first word of the frame
+     * @param bits the width of the values of the frame, between 1 and 32
+     * @param output the array where to write the values
+     * @param offset the position of the first value to write
+     */
+    static void unpack(int[] packed, int from, int bits, int[] output, int offset) {
+        int mask = (int) ((1L << bits) - 1);
+
+        IntVector word = IntVector.fromArray(SPECIES, packed, from);
+        int shift = 0;
+        for (int j = 0; j < BinaryPackingCodec.LANE_VALUES; j++) {
+            IntVector values = word.lanewise(VectorOperators.LSHR, shift);
+            shift += bits;
+
+            // the values of the four lanes continue in the next word of the lanes
+            if (shift >= 32) {
+                shift -= 32;
+                from += BinaryPackingCodec.LANES;
+                if (j < BinaryPackingCodec.LANE_VALUES - 1)
+                    word = IntVector.fromArray(SPECIES, packed, from);
+                if (shift > 0)
+                    values = values.or(word.lanewise(VectorOperators.LSHL, bits - shift));
+            }
+
+            values.and(mask).intoArray(output, offset + BinaryPackingCodec.LANES * j);
+        }
+    }
+}
@@ -23,6 +23,23 @@ public class ConfigurationParams {
     private static String collectionStatisticsPath;
     private static String blockDescriptorsPath;
     private static String flagsFilePath;
+    private static int preprocessingThreads;
+    private static int inversionThreads;
+    private static int readerThreads;
+    private static int mergeThreads;
+    private static int mergeFanIn;
+    private static int compressionThreads;
+    private static String segmentsDir = "data/segments";
+    private static String deletedDocumentsPath = "data/deletedDocuments";
+    private static int segmentMergeFactor;
+    private static long indexMemory;
+    private static String docidCodec = "vbyte";
+    private static String frequencyCodec = "unary";
+
+    /**
+     * Default number of adjacent segments of the same size merged together
+     */
+    private static final int DEFAULT_SEGMENT_MERGE_FACTOR = 10;
 
     static {
         try {
@@ -54,12 +71,100 @@ public class ConfigurationParams {
                 collectionStatisticsPath = doc.getElementsByTagName("collectionStatisticsPath").item(0).getTextContent();
                 blockDescriptorsPath = doc.getElementsByTagName("blockDescriptorsPath").item(0).getTextContent();
                 flagsFilePath = doc.getElementsByTagName("flagsFilePath").item(0).getTextContent();
+
+                // Retrieve the optional performance params, falling back to defaults if missing
+                preprocessingThreads = getIntParam(doc, "preprocessingThreads", defaultThreads());
+                inversionThreads = getIntParam(doc, "inversionThreads", defaultInversionThreads());
+                readerThreads = getIntParam(doc, "readerThreads", defaultReaderThreads());
+                mergeThreads = getIntParam(doc, "mergeThreads", defaultMergeThreads());
+                mergeFanIn = getIntParam(doc, "mergeFanIn", 0);
+                compressionThreads = getIntParam(doc, "compressionThreads", defaultThreads());
+                segmentMergeFactor = getIntParam(doc, "segmentMergeFactor", DEFAULT_SEGMENT_MERGE_FACTOR);
+                if (doc.getElementsByTagName("segmentsDir").getLength() > 0)
+                    segmentsDir = doc.getElementsByTagName("segmentsDir").item(0).getTextContent();
+                if (doc.getElementsByTagName("deletedDocumentsPath").getLength() > 0)
+                    deletedDocumentsPath = doc.getElementsByTagName("deletedDocumentsPath").item(0).getTextContent();
+                if (doc.getElementsByTagName("indexMemory").getLength() > 0)
+                    indexMemory = parseSize(doc.getElementsByTagName("indexMemory").item(0).getTextContent());
+                if (doc.getElementsByTagName("docidCodec").getLength() > 0)
+                    docidCodec = doc.getElementsByTagName("docidCodec").item(0).getTextContent().trim();
+                if (doc.getElementsByTagName("frequencyCodec").getLength() > 0)
+                    frequencyCodec = doc.getElementsByTagName("frequencyCodec").item(0).getTextContent().trim();
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Read an optional integer parameter from the config file
+     * @param doc the parsed config file
+     * @param tag the tag of the parameter
+     * @param defaultValue value returned if the tag is missing or not positive
+     * @return the value of the parameter
+     */
+    private static int getIntParam(Document doc, String tag, int defaultValue) {
+        if (doc.getElementsByTagName(tag).getLength() == 0)
+            return defaultValue;
+
+        int value = Integer.parseInt(doc.getElementsByTagName(tag).item(0).getTextContent().trim());
+        return (value > 0) ? value : defaultValue;
+    }
+
+    /**
+     * Parse a size in bytes, with an optional k, m or g suffix (e.g. 512m or 4g)
+     * @param size the size to parse
+     * @return the number of bytes
+     */
+    private static long parseSize(String size) {
+        size = size.trim().toLowerCase();
+        if (size.isEmpty())
+            return 0;
+
+        long multiplier = switch (size.charAt(size.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        if (multiplier != 1)
+            size = size.substring(0, size.length() - 1);
+
+        return Long.parseLong(size) * multiplier;
+    }
+
+    /**
+     * Default number of worker threads: all the cores but the ones used by the reader and the inverter
+     * @return the default number of threads
+     */
+    private static int defaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    /**
+     * Default number of inversion threads: a quarter of the cores, since inverting is cheaper than preprocessing
+     * @return the default number of threads
+     */
+    private static int defaultInversionThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    }
+
+    /**
+     * Default number of reader threads: a plain collection is read by at most 4 threads, since reading is I/O bound
+     * @return the default number of threads
+     */
+    private static int defaultReaderThreads() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+    }
+
+    /**
+     * Default number of merge threads: all the cores, since each thread merges its own range of terms
+     * @return the default number of threads
+     */
+    private static int defaultMergeThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     public static String getRawCollectionPath() {
         return rawCollectionPath;
     }
@@ -76,6 +181,10 @@ public class ConfigurationParams {
         return documentIndexPath;
     }
 
+    public static String getDeletedDocumentsPath() {
+        return deletedDocumentsPath;
+    }
+
     public static String getVocabularyPath() {
         return vocabularyPath;
     }
@@ -123,4 +232,74 @@ public class ConfigurationParams {
     public static String getFlagsFilePath() {
         return flagsFilePath;
     }
-}
\ No newline at end of file
+
+    public static int getPreprocessingThreads() {
+        return (preprocessingThreads > 0) ? preprocessingThreads : defaultThreads();
+    }
+
+    public static int getInversionThreads() {
+        return (inversionThreads > 0) ? inversionThreads : defaultInversionThreads();
+    }
+
+    public static int getReaderThreads() {
+        return (readerThreads > 0) ? readerThreads : defaultReaderThreads();
+    }
+
+    public static int getMergeThreads() {
+        return (mergeThreads > 0) ? mergeThreads : defaultMergeThreads();
+    }
+
+    /**
+     * @return the maximum number of partial indexes merged together, 0 if it is chosen by the merge
+     */
+    public static int getMergeFanIn() {
+        return mergeFanIn;
+    }
+
+    /**
+     * @return the number of workers compressing the blocks of the merged index
+     */
+    public static int getCompressionThreads() {
+        return (compressionThreads > 0) ? compressionThreads : defaultThreads();
+    }
+
+    /**
+     * @return the directory of the segments added incrementally to the index, and of their manifest
+     */
+    public static String getSegmentsDir() {
+        return segmentsDir;
+    }
+
+    /**
+     * @return the number of adjacent segments of the same size merged together in background, 1 to disable the merges
+     */
+    public static int getSegmentMergeFactor() {
+        return (segmentMergeFactor > 0) ? segmentMergeFactor : DEFAULT_SEGMENT_MERGE_FACTOR;
+    }
+
+    /**
+     * Return the memory budget of the in-memory indexes built by SPIMI.
+     * It can be overridden from the command line with -Dindex.memory=[size], e.g. -Dindex.memory=4g
+     * @return the budget in bytes, half of the heap if not configured
+     */
+    public static long getIndexMemory() {
+        String property = System.getProperty("index.memory");
+        long budget = (property != null) ? parseSize(property) : indexMemory;
+
+        return (budget > 0) ? budget : Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * @return the name of the codec of the docids of the compressed indexes built from scratch (see PostingCodecs)
+     */
+    public static String getDocidCodec() {
+        return docidCodec;
+    }
+
+    /**
+     * @return the name of the codec of the frequencies of the compressed indexes built from scratch (see PostingCodecs)
+     */
+    public static String getFrequencyCodec() {
+        return frequencyCodec;
+    }
+}
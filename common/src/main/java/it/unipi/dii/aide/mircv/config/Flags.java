@@ -1,19 +1,53 @@
 package it.unipi.dii.aide.mircv.config;
 
+import it.unipi.dii.aide.mircv.beans.Segment;
+import it.unipi.dii.aide.mircv.compression.PostingCodec;
+import it.unipi.dii.aide.mircv.compression.PostingCodecs;
+
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.util.List;
 
 /**
  * The class that contains the flags
  */
 public class Flags {
     /**
-     * The flag for the collection size
+     * Path of the flags of the configuration, used by the indexes built before the flags were published with the segments
      */
     private static final String FLAGS_FILE_PATH = ConfigurationParams.getFlagsFilePath();
 
+    /**
+     * Format of the indexes written before the format version was saved with the flags:
+     * the compressed docids are stored as they are
+     */
+    public static final int ABSOLUTE_DOCIDS_FORMAT = 1;
+
+    /**
+     * Format where the compressed docids are stored as gaps (see DocidGaps)
+     */
+    public static final int DOCID_GAPS_FORMAT = 2;
+
+    /**
+     * First format whose terms are preprocessed in a single pass, stemmed and without stopwords only with the flag:
+     * the indexes of the previous formats always contain stems without stopwords
+     */
+    public static final int SINGLE_PASS_PREPROCESSING_FORMAT = DOCID_GAPS_FORMAT;
+
+    /**
+     * Format where the names of the codecs of the docids and of the frequencies are saved with the flags
+     * (see PostingCodecs); in the previous formats they are always variable byte and unary
+     */
+    public static final int POSTING_CODECS_FORMAT = 3;
+
+    /**
+     * Format of the indexes built from scratch
+     */
+    public static final int CURRENT_FORMAT = POSTING_CODECS_FORMAT;
+
     /**
      * Flag for enabling the compression
      */
@@ -30,20 +64,72 @@ public class Flags {
     private static boolean maxScore;
 
     /**
-     * Read flags from file and initialize the relative booleans
+     * Version of the on-disk format of the index: the segments added to an index are written in its format
+     */
+    private static int formatVersion = CURRENT_FORMAT;
+
+    /**
+     * Codec of the compressed docids
+     */
+    private static PostingCodec docidCodec = PostingCodecs.DEFAULT_DOCID_CODEC;
+
+    /**
+     * Codec of the compressed frequencies
+     */
+    private static PostingCodec frequencyCodec = PostingCodecs.DEFAULT_FREQUENCY_CODEC;
+
+    /**
+     * Read the flags of the loaded index (see SegmentManifest.load) and initialize the relative booleans
      * @return true if the file is read correctly, false otherwise
      */
     public static boolean initializeFlags() {
-        if(FLAGS_FILE_PATH == null)
+        List<Segment> segments = SegmentManifest.getSegments();
+        return initializeFlags(segments.isEmpty() ? FLAGS_FILE_PATH : getFlagsPath(segments.get(0)));
+    }
+
+    /**
+     * Return the path of the flags of the index a segment belongs to: the flags are published with every segment,
+     * except the ones published before the flags were saved in the segments, which use the flags of the configuration
+     * @param segment a live segment
+     * @return the path of the flags
+     */
+    public static String getFlagsPath(Segment segment) {
+        String path = segment.getFlagsPath();
+        return new File(path).exists() ? path : FLAGS_FILE_PATH;
+    }
+
+    /**
+     * Read flags from file and initialize the relative booleans
+     * @param path the path of the flags
+     * @return true if the file is read correctly, false otherwise
+     */
+    public static boolean initializeFlags(String path) {
+        if(path == null)
             return false;
 
-        try(    FileInputStream fis = new FileInputStream(FLAGS_FILE_PATH);
+        try(    FileInputStream fis = new FileInputStream(path);
                 DataInputStream dis = new DataInputStream(fis)) {
             // read the flags from file
             compression = dis.readBoolean();
             stemStopRemoval = dis.readBoolean();
             maxScore = dis.readBoolean();
 
+            // the flags of an index written before the format version was introduced end here
+            formatVersion = (dis.available() > 0) ? dis.readInt() : ABSOLUTE_DOCIDS_FORMAT;
+
+            docidCodec = PostingCodecs.DEFAULT_DOCID_CODEC;
+            frequencyCodec = PostingCodecs.DEFAULT_FREQUENCY_CODEC;
+            if (formatVersion >= POSTING_CODECS_FORMAT) {
+                String docidCodecName = dis.readUTF();
+                String frequencyCodecName = dis.readUTF();
+                docidCodec = PostingCodecs.get(docidCodecName);
+                frequencyCodec = PostingCodecs.get(frequencyCodecName);
+                if (docidCodec == null || frequencyCodec == null) {
+                    System.out.println("Unknown posting codecs of the index: " + docidCodecName + ", " + frequencyCodecName);
+                    return false;
+                }
+            }
+
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -52,28 +138,27 @@ public class Flags {
     }
 
     /**
-     * updates the flag status and save them to file
-     * @param compressionFlag     to set compression
-     * @param stemStopRemovalFlag to set stemming and stopword removal
-     * @param maxScoreFlag        to set max score algorithm
+     * save the flags to file, together with the current format version and codecs. The flags are saved in the
+     * staging directory of a segment, so they become visible to the queries only when the segment is published
+     * @param path the path of the flags
      * @return true if successful
      */
-    public static boolean saveFlags(boolean compressionFlag, boolean stemStopRemovalFlag, boolean maxScoreFlag) {
-        if (FLAGS_FILE_PATH == null)
+    public static boolean saveFlags(String path) {
+        if (path == null)
             return false;
 
-        try (FileOutputStream fos = new FileOutputStream(FLAGS_FILE_PATH);
+        try (FileOutputStream fos = new FileOutputStream(path);
              DataOutputStream dos = new DataOutputStream(fos)) {
 
-            // update the flags
-            compression = compressionFlag;
-            stemStopRemoval = stemStopRemovalFlag;
-            maxScore = maxScoreFlag;
-
             // write the flags to file
-            dos.writeBoolean(compressionFlag);
-            dos.writeBoolean(stemStopRemovalFlag);
-            dos.writeBoolean(maxScoreFlag);
+            dos.writeBoolean(compression);
+            dos.writeBoolean(stemStopRemoval);
+            dos.writeBoolean(maxScore);
+            dos.writeInt(formatVersion);
+            if (formatVersion >= POSTING_CODECS_FORMAT) {
+                dos.writeUTF(docidCodec.getName());
+                dos.writeUTF(frequencyCodec.getName());
+            }
 
             return true;
         } catch (Exception e) {
@@ -106,6 +191,64 @@ public class Flags {
         return maxScore;
     }
 
+    /**
+     * Return the version of the on-disk format of the index
+     * @return the format version
+     */
+    public static int getFormatVersion() {
+        return formatVersion;
+    }
+
+    /**
+     * Return whether the compressed docids are stored as gaps
+     * @return true if the index is compressed and its format stores the docids as gaps
+     */
+    public static boolean isDocidGapsEnabled() {
+        return compression && formatVersion >= DOCID_GAPS_FORMAT;
+    }
+
+    /**
+     * Return whether the terms of the index were preprocessed before the single pass was introduced
+     * @return true if the index always contains stems without stopwords, stemmed and filtered twice with the flag
+     */
+    public static boolean hasLegacyPreprocessing() {
+        return formatVersion < SINGLE_PASS_PREPROCESSING_FORMAT;
+    }
+
+    /**
+     * Return the codec of the compressed docids
+     * @return the codec
+     */
+    public static PostingCodec getDocidCodec() {
+        return docidCodec;
+    }
+
+    /**
+     * Return the codec of the compressed frequencies
+     * @return the codec
+     */
+    public static PostingCodec getFrequencyCodec() {
+        return frequencyCodec;
+    }
+
+    /**
+     * Set the codecs of the compressed docids and frequencies, saved with the flags from POSTING_CODECS_FORMAT
+     * @param docidCodec the codec of the docids
+     * @param frequencyCodec the codec of the frequencies
+     */
+    public static void setPostingCodecs(PostingCodec docidCodec, PostingCodec frequencyCodec) {
+        Flags.docidCodec = docidCodec;
+        Flags.frequencyCodec = frequencyCodec;
+    }
+
+    /**
+     * Set the version of the on-disk format of the index
+     * @param version the format version
+     */
+    public static void setFormatVersion(int version) {
+        Flags.formatVersion = version;
+    }
+
     /**
      * Set the status of the compression flag
      * @param compressionFlag the new status of the compression flag
@@ -0,0 +1,587 @@
+package it.unipi.dii.aide.mircv.config;
+
+import it.unipi.dii.aide.mircv.beans.DeletedDocuments;
+import it.unipi.dii.aide.mircv.beans.DocumentIndexEntry;
+import it.unipi.dii.aide.mircv.beans.Segment;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The manifest of the live segments of the index, in docid order.
+ * The manifest is replaced atomically at every change, under a file lock shared by the indexer and the query
+ * processor, so a reader always sees a complete set of segments. The query processor acquires the segments
+ * for the duration of a query: the segments replaced by a merge are deleted only when no query uses them
+ */
+public class SegmentManifest {
+    /**
+     * Path of the manifest
+     */
+    private static final String MANIFEST_PATH = ConfigurationParams.getSegmentsDir() + "/manifest";
+
+    /**
+     * Path of the file locked while the manifest is changed
+     */
+    private static final String LOCK_PATH = ConfigurationParams.getSegmentsDir() + "/manifest.lock";
+
+    /**
+     * Lock serializing the changes of the manifest made by the threads of the process, since the file lock
+     * is held by the whole process
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    /**
+     * The live segments, as last loaded
+     */
+    private static List<Segment> segments = Collections.emptyList();
+
+    /**
+     * Generation of the loaded manifest, incremented at every change; -1 if no manifest is loaded
+     */
+    private static long generation = -1;
+
+    /**
+     * Identifier of the loaded index: the generation of the manifest that published it when it was built
+     * from scratch, kept by the merges, the deletions and the segments added to it; 0 for an index built before
+     * the identifier was saved in the manifest
+     */
+    private static long indexId = 0;
+
+    /**
+     * Number of queries using each segment
+     */
+    private static final HashMap<String, Integer> references = new HashMap<>();
+
+    /**
+     * Segments replaced by a merge, deleted when no query uses them anymore
+     */
+    private static final HashSet<String> retired = new HashSet<>();
+
+    /**
+     * Load the manifest. An index built before the segments were introduced has no manifest:
+     * it is loaded as a single base segment, with the statistics of the collection
+     * @return true if the manifest is loaded correctly
+     */
+    public static synchronized boolean load() {
+        try {
+            Manifest manifest = readManifest();
+            if (manifest == null)
+                manifest = new Manifest(0, 0, baseSegmentList());
+
+            install(manifest);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return the live segments, as last loaded, in docid order
+     */
+    public static synchronized List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return the generation of the loaded manifest
+     */
+    public static synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the identifier of the loaded index, which changes only when the index is rebuilt from scratch
+     */
+    public static synchronized long getIndexId() {
+        return indexId;
+    }
+
+    /**
+     * @return the docid of the first document of the next segment added to the index
+     */
+    public static synchronized int getNextDocid() {
+        return segments.isEmpty() ? 1 : segments.get(segments.size() - 1).getNextDocid();
+    }
+
+    /**
+     * Acquire the live segments for a query, loading the manifest again if it changed on disk.
+     * An index rebuilt from scratch is loaded together with its flags, which may differ from the ones of the old index.
+     * The segments are not deleted until they are released
+     * @return the live segments, in docid order
+     */
+    public static synchronized List<Segment> acquireSegments() {
+        try {
+            Manifest manifest = readManifest();
+            if (manifest != null && manifest.generation != generation) {
+                if (manifest.indexId == indexId || manifest.segments.isEmpty())
+                    install(manifest);
+                else if (Flags.initializeFlags(Flags.getFlagsPath(manifest.segments.get(0)))) {
+                    System.out.println("The index was rebuilt: loading its segments and its flags");
+                    install(manifest);
+                }
+            }
+        } catch (IOException e) {
+            // keep using the segments already loaded
+            e.printStackTrace();
+        }
+
+        for (Segment segment : segments)
+            references.merge(segment.getName(), 1, Integer::sum);
+        return segments;
+    }
+
+    /**
+     * Release the segments acquired for a query, deleting the retired ones that are no longer used
+     * @param acquired the segments returned by acquireSegments
+     */
+    public static synchronized void releaseSegments(List<Segment> acquired) {
+        for (Segment segment : acquired) {
+            int count = references.merge(segment.getName(), -1, Integer::sum);
+            if (count == 0) {
+                references.remove(segment.getName());
+                if (retired.remove(segment.getName()))
+                    removeSegmentFiles(segment);
+            }
+        }
+    }
+
+    /**
+     * Read the live segments of the loaded index from the manifest on disk, without loading them
+     * @return the live segments, null if they cannot be read or if the index was rebuilt since it was loaded
+     */
+    public static List<Segment> readSegments() {
+        try {
+            Manifest manifest = currentManifest();
+            return (manifest.indexId == getIndexId()) ? manifest.segments : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Create the directory of a new segment, with a name not used by any other segment
+     * @return the name of the segment, null if the directory cannot be created
+     */
+    public static String createSegmentDirectory() {
+        FileUtils.createDirectory(ConfigurationParams.getSegmentsDir());
+        for (int n = 1; ; n++) {
+            String name = "segment_" + n;
+            try {
+                Files.createDirectory(Paths.get(ConfigurationParams.getSegmentsDir(), name));
+                return name;
+            } catch (FileAlreadyExistsException e) {
+                // the name is taken, try the next one
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Publish a segment completed in the staging directory: its files are moved to the directory of a new segment
+     * and the manifest is written, both under the lock, so the segment appears complete or not at all.
+     * A segment built from scratch replaces all the segments of the index, which are deleted together with
+     * the directories left by interrupted merges
+     * @param built the segment built in the staging directory, named BUILD_NAME
+     * @param replace true if the segment replaces the whole index, false if it is added after the last segment
+     * @return the published segment, null if it cannot be published
+     */
+    public static Segment publishSegment(Segment built, boolean replace) {
+        List<Segment> replaced;
+        Segment published;
+
+        synchronized (WRITE_LOCK) {
+            FileChannel lock = null;
+            try {
+                lock = lockManifest();
+                Manifest manifest = currentManifest();
+                List<Segment> current = manifest.segments;
+                int nextDocid = current.isEmpty() ? 1 : current.get(current.size() - 1).getNextDocid();
+                if (!replace && manifest.indexId != getIndexId()) {
+                    System.out.println("Segment " + built + " was built for an index that has been rebuilt meanwhile");
+                    return null;
+                }
+                if (!replace && built.getFirstDocid() != nextDocid) {
+                    System.out.println("Segment " + built + " does not follow the last docid of the index: another segment was added meanwhile");
+                    return null;
+                }
+
+                // the name is reserved by creating the directory, as the merges running outside the lock do
+                String name = createSegmentDirectory();
+                if (name == null)
+                    return null;
+
+                published = new Segment(name, built.getFirstDocid(), built.getNumDocs(), built.getNumDeleted(),
+                        built.getTotalDocLen(), built.getVocabularySize());
+                List<Segment> newSegments = new ArrayList<>(replace ? Collections.emptyList() : current);
+                newSegments.add(published);
+                try {
+                    moveFiles(built.getDirectory(), published.getDirectory());
+                    writeManifest(newSegments, replace);
+                } catch (IOException e) {
+                    // the build stays complete in the staging directory, so that it can be published again
+                    moveFiles(published.getDirectory(), built.getDirectory());
+                    FileUtils.deleteDirectory(published.getDirectory());
+                    throw e;
+                }
+                FileUtils.deleteDirectory(built.getDirectory());
+                replaced = replace ? current : Collections.emptyList();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                unlockManifest(lock);
+            }
+        }
+
+        if (replace) {
+            retireSegments(replaced);
+            removeOrphanSegments(published);
+        }
+        return published;
+    }
+
+    /**
+     * Move the files of a directory to another directory of the same file system, one rename each
+     * @param from the directory of the files
+     * @param to the directory where to move them
+     */
+    private static void moveFiles(String from, String to) throws IOException {
+        File[] files = new File(from).listFiles();
+        if (files == null)
+            throw new IOException("Cannot list the files of " + from);
+
+        for (File file : files)
+            Files.move(file.toPath(), Paths.get(to, file.getName()), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the directories of the segments that are not in the manifest, left by merges or builds interrupted
+     * before they were published. Called only when the index is rebuilt from scratch: at any other time
+     * such a directory could belong to a merge still running
+     * @param live the only live segment
+     */
+    private static void removeOrphanSegments(Segment live) {
+        File[] files = new File(ConfigurationParams.getSegmentsDir()).listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().startsWith("segment_") && !file.getName().equals(live.getName())) {
+                System.out.println("Removing the orphan segment " + file.getName());
+                FileUtils.deleteDirectory(file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Delete documents from the index, marking them in the bitmaps of deleted documents of their segments.
+     * The documents are looked up by the caller, so only the bitmaps are read and written under the lock.
+     * The deleted documents are skipped by the queries, and their postings are removed when their segment is merged
+     * @param entries the entries of the documents to delete, with their docids and lengths
+     * @param expectedIndexId the identifier of the index the docids belong to
+     * @return the number of documents deleted, -1 if the deletion failed or the index was rebuilt meanwhile
+     */
+    public static int deleteDocuments(Collection<DocumentIndexEntry> entries, long expectedIndexId) {
+        synchronized (WRITE_LOCK) {
+            FileChannel lock = null;
+            try {
+                lock = lockManifest();
+                Manifest manifest = currentManifest();
+                if (manifest.indexId != expectedIndexId) {
+                    System.out.println("The index was rebuilt meanwhile: the documents are not deleted");
+                    return -1;
+                }
+
+                List<Segment> newSegments = new ArrayList<>(manifest.segments.size());
+                int numDeleted = 0;
+
+                for (Segment segment : manifest.segments) {
+                    // mark the documents of the segment, reading its bitmap only if it has some
+                    DeletedDocuments deletedDocuments = null;
+                    int segmentDeleted = 0;
+                    long deletedLen = 0;
+                    for (DocumentIndexEntry entry : entries) {
+                        if (entry.getDocid() < segment.getFirstDocid() || entry.getDocid() >= segment.getNextDocid())
+                            continue;
+
+                        if (deletedDocuments == null) {
+                            deletedDocuments = DeletedDocuments.loadFromDisk(segment);
+                            if (deletedDocuments == null)
+                                return -1;
+                        }
+                        if (deletedDocuments.delete(entry.getDocid())) {
+                            segmentDeleted++;
+                            deletedLen += entry.getDocLen();
+                        }
+                    }
+
+                    if (segmentDeleted == 0) {
+                        newSegments.add(segment);
+                        continue;
+                    }
+
+                    if (!deletedDocuments.writeToDisk(segment.getDeletedDocumentsPath()))
+                        return -1;
+                    newSegments.add(new Segment(segment.getName(), segment.getFirstDocid(), segment.getNumDocs(),
+                            deletedDocuments.getNumDeleted(), segment.getTotalDocLen() - deletedLen, segment.getVocabularySize()));
+                    numDeleted += segmentDeleted;
+                }
+
+                if (numDeleted > 0)
+                    writeManifest(newSegments, false);
+                return numDeleted;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return -1;
+            } finally {
+                unlockManifest(lock);
+            }
+        }
+    }
+
+    /**
+     * Replace adjacent segments with the segment produced by their merge. The replaced segments are deleted
+     * when no query uses them anymore. The documents deleted from the replaced segments, including the ones
+     * deleted while they were being merged, stay deleted in the merged segment
+     * @param inputs the merged segments, in docid order
+     * @param merged the segment produced by the merge
+     * @return true if the segments are replaced, false if they are not live anymore or the manifest cannot be written
+     */
+    public static boolean replaceSegments(List<Segment> inputs, Segment merged) {
+        synchronized (WRITE_LOCK) {
+            FileChannel lock = null;
+            try {
+                lock = lockManifest();
+                List<Segment> current = currentSegments();
+
+                int start = indexOf(current, inputs.get(0).getName());
+                for (int i = 0; i < inputs.size(); i++) {
+                    if (start < 0 || start + i >= current.size() || !current.get(start + i).getName().equals(inputs.get(i).getName())) {
+                        System.out.println("The merged segments are no longer live");
+                        return false;
+                    }
+                }
+
+                // the replaced segments as they are now, with the documents deleted during the merge
+                List<Segment> replaced = current.subList(start, start + inputs.size());
+                DeletedDocuments deletedDocuments = new DeletedDocuments(merged.getFirstDocid());
+                long totalDocLen = 0;
+                for (Segment segment : replaced) {
+                    DeletedDocuments segmentDeleted = DeletedDocuments.loadFromDisk(segment);
+                    if (segmentDeleted == null)
+                        return false;
+                    deletedDocuments.deleteAll(segmentDeleted);
+                    totalDocLen += segment.getTotalDocLen();
+                }
+                if (!deletedDocuments.isEmpty() && !deletedDocuments.writeToDisk(merged.getDeletedDocumentsPath()))
+                    return false;
+                merged = new Segment(merged.getName(), merged.getFirstDocid(), merged.getNumDocs(),
+                        deletedDocuments.getNumDeleted(), totalDocLen, merged.getVocabularySize());
+
+                List<Segment> newSegments = new ArrayList<>(current.subList(0, start));
+                newSegments.add(merged);
+                newSegments.addAll(current.subList(start + inputs.size(), current.size()));
+                writeManifest(newSegments, false);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                unlockManifest(lock);
+            }
+        }
+
+        retireSegments(inputs);
+        return true;
+    }
+
+    /**
+     * Mark the segments replaced by a merge or by a new build as retired, deleting them now if no query uses them
+     * @param inputs the replaced segments
+     */
+    private static synchronized void retireSegments(List<Segment> inputs) {
+        for (Segment segment : inputs) {
+            if (references.containsKey(segment.getName()))
+                retired.add(segment.getName());
+            else
+                removeSegmentFiles(segment);
+        }
+    }
+
+    /**
+     * Remove the files of a segment
+     * @param segment the segment
+     */
+    private static void removeSegmentFiles(Segment segment) {
+        System.out.println("Removing segment " + segment);
+        if (segment.isBase()) {
+            FileUtils.removeFile(segment.getVocabularyPath());
+            FileUtils.removeFile(segment.getDocidsPath());
+            FileUtils.removeFile(segment.getFrequenciesPath());
+            FileUtils.removeFile(segment.getBlockDescriptorsPath());
+            FileUtils.removeFile(segment.getDocumentIndexPath());
+            FileUtils.removeFile(segment.getDeletedDocumentsPath());
+            FileUtils.removeFile(segment.getCollectionStatisticsPath());
+        } else {
+            FileUtils.deleteDirectory(segment.getDirectory());
+        }
+    }
+
+    /**
+     * Make the manifest the loaded one, updating the statistics of the collection with the totals of its segments
+     * @param manifest the manifest
+     */
+    private static void install(Manifest manifest) {
+        segments = Collections.unmodifiableList(manifest.segments);
+        generation = manifest.generation;
+        indexId = manifest.indexId;
+
+        // the deleted documents are not part of the collection
+        long numDocs = 0;
+        long totalDocLen = 0;
+        for (Segment segment : segments) {
+            numDocs += segment.getNumLiveDocs();
+            totalDocLen += segment.getTotalDocLen();
+        }
+        CollectionSize.setCollectionSize((int) numDocs);
+        CollectionSize.setTotalDocLen(totalDocLen);
+    }
+
+    /**
+     * @return the segments of the manifest on disk, or the loaded ones if there is no manifest yet
+     */
+    private static List<Segment> currentSegments() throws IOException {
+        return currentManifest().segments;
+    }
+
+    /**
+     * @return the manifest on disk, or the loaded one if there is no manifest yet
+     */
+    private static synchronized Manifest currentManifest() throws IOException {
+        Manifest manifest = readManifest();
+        return (manifest != null) ? manifest : new Manifest(generation, indexId, segments);
+    }
+
+    /**
+     * @return the base segment described by the statistics of the collection, if the index was built
+     */
+    private static List<Segment> baseSegmentList() {
+        List<Segment> base = new ArrayList<>();
+        if (CollectionSize.getCollectionSize() > 0)
+            base.add(new Segment(Segment.BASE_NAME, 1, (int) CollectionSize.getCollectionSize(), 0,
+                    CollectionSize.getTotalDocLen(), CollectionSize.getVocabularySize()));
+        return base;
+    }
+
+    /**
+     * @param segments a list of segments
+     * @param name the name of a segment
+     * @return the position of the segment in the list, -1 if it is not there
+     */
+    private static int indexOf(List<Segment> segments, String name) {
+        for (int i = 0; i < segments.size(); i++)
+            if (segments.get(i).getName().equals(name))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Lock the manifest against the changes of other processes
+     * @return the channel holding the lock, released by unlockManifest
+     */
+    private static FileChannel lockManifest() throws IOException {
+        FileUtils.createDirectory(ConfigurationParams.getSegmentsDir());
+        FileChannel channel = FileChannel.open(Paths.get(LOCK_PATH), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.lock();
+        return channel;
+    }
+
+    /**
+     * Release the lock of the manifest
+     * @param lock the channel holding the lock, null if the lock was not acquired
+     */
+    private static void unlockManifest(FileChannel lock) {
+        if (lock == null)
+            return;
+
+        try {
+            lock.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Content of the manifest file
+     * @param generation the generation of the manifest
+     * @param indexId the identifier of the index
+     * @param segments the live segments
+     */
+    private record Manifest(long generation, long indexId, List<Segment> segments) {}
+
+    /**
+     * Read the manifest on disk
+     * @return the manifest, null if there is no manifest
+     */
+    private static Manifest readManifest() throws IOException {
+        File file = new File(MANIFEST_PATH);
+        if (!file.exists())
+            return null;
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            long manifestGeneration = dis.readLong();
+            int numSegments = dis.readInt();
+
+            List<Segment> manifestSegments = new ArrayList<>(numSegments);
+            for (int i = 0; i < numSegments; i++)
+                manifestSegments.add(Segment.readFromStream(dis));
+
+            // the manifests written before the index identifier was introduced end here
+            long manifestIndexId = (dis.available() > 0) ? dis.readLong() : 0;
+            return new Manifest(manifestGeneration, manifestIndexId, manifestSegments);
+        }
+    }
+
+    /**
+     * Write a new generation of the manifest: the manifest is written in a temporary file that replaces the
+     * old one in a single step, so a reader never sees a partial manifest. Must be called under the lock
+     * @param newSegments the live segments
+     * @param newIndex true if the segments are an index built from scratch, which gets a new identifier
+     */
+    private static void writeManifest(List<Segment> newSegments, boolean newIndex) throws IOException {
+        Manifest current = readManifest();
+        long newGeneration = (current != null) ? current.generation + 1 : 1;
+        long newIndexId = newIndex ? newGeneration : ((current != null) ? current.indexId : getIndexId());
+
+        String tempPath = MANIFEST_PATH + ".tmp";
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempPath))) {
+            dos.writeLong(newGeneration);
+            dos.writeInt(newSegments.size());
+            for (Segment segment : newSegments)
+                segment.writeToStream(dos);
+            dos.writeLong(newIndexId);
+        }
+        Files.move(Paths.get(tempPath), Paths.get(MANIFEST_PATH), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Segments of the index (generation " + newGeneration + "): " + newSegments);
+    }
+}
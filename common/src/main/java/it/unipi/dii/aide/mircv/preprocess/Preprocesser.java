@@ -1,6 +1,5 @@
 package it.unipi.dii.aide.mircv.preprocess;
 
-import ca.rmen.porterstemmer.PorterStemmer;
 import it.unipi.dii.aide.mircv.beans.TextDocument;
 import it.unipi.dii.aide.mircv.config.ConfigurationParams;
 import it.unipi.dii.aide.mircv.beans.ProcessedDocument;
@@ -11,6 +10,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -53,14 +53,19 @@ public class Preprocesser {
     protected static String PATH_TO_STOPWORDS = ConfigurationParams.getStopwordsPath();
 
     /**
-     * List of Stopwords
+     * Set of Stopwords, null until they are read
      */
-    private static final ArrayList<String> stopwords = new ArrayList<>();
+    private static volatile StopwordSet stopwords = null;
 
     /**
-     * Stemmer
+     * Number of stems kept in the cache: the tokens follow a Zipfian distribution, so the frequent ones always hit
      */
-    private static final PorterStemmer stemmer = new PorterStemmer();
+    private static final int STEM_CACHE_SIZE = 1 << 16;
+
+    /**
+     * Cache of the stems, shared by the threads preprocessing the documents
+     */
+    private static final StemCache stemCache = new StemCache(STEM_CACHE_SIZE);
 
     /**
      * Match length for a term
@@ -70,22 +75,43 @@ public class Preprocesser {
     /**
      * Read stopwords from a file and loads them in main memory
      */
-    public static void readStopwords() {
+    public static synchronized void readStopwords() {
+        ArrayList<String> words = new ArrayList<>();
         try (BufferedReader br = Files.newBufferedReader(Paths.get(PATH_TO_STOPWORDS), StandardCharsets.UTF_8)) {
             for (String line; (line = br.readLine()) != null; ) {
                 // If the line is empty, process the next line
                 if (line.isEmpty()) continue;
 
                 // Else add word to stopwords list
-                stopwords.add(line);
+                words.add(line);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        // if the file cannot be read the set is empty, so that it is not read again for each document
+        stopwords = new StopwordSet(words);
     }
 
     /**
-     * Tokenize the text
+     * Get the set of stopwords, reading them the first time they are needed
+     * @return the set of stopwords
+     */
+    private static StopwordSet getStopwords() {
+        StopwordSet set = stopwords;
+        if (set == null) {
+            synchronized (Preprocesser.class) {
+                if (stopwords == null)
+                    readStopwords();
+                set = stopwords;
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Tokenize the text.
+     * Reference implementation of the tokenization, replaced by Tokenizer.tokenize in the preprocessing
      * @param text: text to tokenize
      * @return array of tokens
      */
@@ -111,7 +137,8 @@ public class Preprocesser {
 
 
     /**
-     * Performs text cleaning
+     * Performs text cleaning.
+     * Reference implementation of the cleaning, replaced by Tokenizer.tokenize in the preprocessing
      * @param text: text to clean
      * @return cleaned text
      */
@@ -139,33 +166,23 @@ public class Preprocesser {
     }
 
     /**
-     * Remove stopwords from the text
+     * Remove stopwords from the tokens and replace the others with their stems, in a single pass
      * @param tokens: list of tokens
-     * @return array of tokens
+     * @return array of stems of the valid tokens
      */
-    private static String[] removeStopwords(String[] tokens) {
-        // ArrayList to hold valid tokens
-        ArrayList<String> validTokens = new ArrayList<>();
-
-        // Add the token to valid tokens if not a stop word
-        for (String token : tokens)
-            // If the token is not a stopword, add it to the list
-            if (!stopwords.contains(token) && token.length() <= TERM_THRESHOLD)
-                validTokens.add(token);
+    private static String[] removeStopwordsAndStem(String[] tokens) {
+        StopwordSet stopwordSet = getStopwords();
 
-        return validTokens.toArray(new String[0]);
-    }
+        // Array to hold the stems of the valid tokens
+        String[] stems = new String[tokens.length];
+        int numStems = 0;
 
-    /**
-     * @param tokens: tokens to stem
-     * @return Returns stem of each token
-     */
-    private static String[] getStemwords(String[] tokens) {
-        // Replace each word with the stem word
-        for (int i = 0; i < tokens.length; i++)
-            tokens[i] = stemmer.stemWord(tokens[i]);
+        for (String token : tokens)
+            // If the token is not a stopword, add its stem to the list
+            if (!stopwordSet.contains(token) && token.length() <= TERM_THRESHOLD)
+                stems[numStems++] = stemCache.stem(token);
 
-        return tokens;
+        return (numStems == stems.length) ? stems : Arrays.copyOf(stems, numStems);
     }
 
     /**
@@ -175,31 +192,30 @@ public class Preprocesser {
      * @return the processed document
      */
     public static ProcessedDocument preprocessDocument(TextDocument doc) {
-        // Clean the text
-        String cleanedText = cleanText(doc.getText());
-
-        // Tokenize the text
-        String[] tokens = tokenizeWords(cleanedText);
-
-        // Remove stopwords
-        tokens = removeStopwords(tokens);
-
-        // Get the stems of the tokens
-        tokens = getStemwords(tokens);
-
-        // Check if there is a flag for stopword removal
-        if(Flags.isStemStopRemovalEnabled()){
-            // Remove stopwords
-            tokens = removeStopwords(tokens);
-
-            // Perform stemming
-            getStemwords(tokens);
+        // Clean and tokenize the text
+        String[] tokens = Tokenizer.tokenize(doc.getText());
+
+        if(Flags.hasLegacyPreprocessing()) {
+            // the terms are processed as they were indexed
+            tokens = removeStopwordsAndStem(tokens);
+            if(Flags.isStemStopRemovalEnabled())
+                tokens = removeStopwordsAndStem(tokens);
+        } else if(Flags.isStemStopRemovalEnabled()) {
+            // Check if there is a flag for stopword removal and stemming
+            tokens = removeStopwordsAndStem(tokens);
         }
 
         // Return the processed document
         return new ProcessedDocument(doc.getPid(), tokens);
     }
 
+    /**
+     * @return the cache of the stems, with the statistics of its hit rate
+     */
+    public static StemCache getStemCache() {
+        return stemCache;
+    }
+
     /**
      * Used in test environment
      */
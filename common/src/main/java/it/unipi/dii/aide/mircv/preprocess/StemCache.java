@@ -0,0 +1,98 @@
+package it.unipi.dii.aide.mircv.preprocess;
+
+import ca.rmen.porterstemmer.PorterStemmer;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the stems, keyed by the surface form of the token.
+ * The cache is direct-mapped: each token has a single slot, and a miss replaces the entry in the slot.
+ * Entries are immutable and slots are atomic references, so the cache can be shared by the preprocessing
+ * threads without locks; a race can only cause an extra miss.
+ */
+public class StemCache {
+    /**
+     * Entry of the cache: a token and its stem
+     */
+    private record Entry(String token, String stem) {
+    }
+
+    /**
+     * Slots of the cache
+     */
+    private final AtomicReferenceArray<Entry> slots;
+
+    /**
+     * Mask to compute the slot from the hash, the capacity is a power of 2
+     */
+    private final int mask;
+
+    /**
+     * Stemmer, one instance per thread since it is not thread-safe
+     */
+    private final ThreadLocal<PorterStemmer> stemmer = ThreadLocal.withInitial(PorterStemmer::new);
+
+    /**
+     * Number of lookups answered by the cache
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Number of lookups that required the stemmer
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor of the cache
+     * @param capacity number of entries of the cache, rounded up to a power of 2
+     */
+    public StemCache(int capacity) {
+        capacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Get the stem of a token, computing it with the stemmer if it is not in the cache
+     * @param token the token
+     * @return the stem of the token
+     */
+    public String stem(String token) {
+        int hash = token.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        Entry entry = slots.get(slot);
+        if (entry != null && entry.token.equals(token)) {
+            hits.increment();
+            return entry.stem;
+        }
+
+        misses.increment();
+        String stem = stemmer.get().stemWord(token);
+        slots.set(slot, new Entry(token, stem));
+        return stem;
+    }
+
+    /**
+     * @return the fraction of lookups answered by the cache, 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = hits.sum() + misses.sum();
+        return (lookups == 0) ? 0 : (double) hits.sum() / lookups;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Stem cache: " + getHits() + " hits, " + getMisses() + " misses, hit rate " +
+                String.format("%.2f", getHitRate() * 100) + "%";
+    }
+}
@@ -0,0 +1,81 @@
+package it.unipi.dii.aide.mircv.preprocess;
+
+import java.util.Collection;
+
+/**
+ * Set of stopwords stored in an open-addressing hash table with linear probing.
+ * The set is built once and only read afterward, so it can be shared between threads.
+ */
+public class StopwordSet {
+    /**
+     * Slots of the table, null if empty
+     */
+    private final String[] table;
+
+    /**
+     * Mask to compute the slot from the hash, the capacity is a power of 2
+     */
+    private final int mask;
+
+    /**
+     * Number of stopwords in the set
+     */
+    private int size = 0;
+
+    /**
+     * Build the set, with a table at most half full to keep the probe sequences short
+     * @param stopwords the stopwords of the set
+     */
+    public StopwordSet(Collection<String> stopwords) {
+        int capacity = Integer.highestOneBit(Math.max(stopwords.size(), 1) * 2 - 1) << 1;
+        table = new String[capacity];
+        mask = capacity - 1;
+
+        for (String stopword : stopwords)
+            add(stopword);
+    }
+
+    /**
+     * Add a stopword to the set
+     * @param stopword the stopword to add
+     */
+    private void add(String stopword) {
+        int slot = slot(stopword);
+        while (table[slot] != null) {
+            if (table[slot].equals(stopword))
+                return;
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = stopword;
+        size++;
+    }
+
+    /**
+     * Check if a token is a stopword
+     * @param token the token
+     * @return true if the token is a stopword
+     */
+    public boolean contains(String token) {
+        int slot = slot(token);
+        while (table[slot] != null) {
+            if (table[slot].equals(token))
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Compute the first slot of a string, spreading the high bits of the hash over the low ones
+     * @param s the string
+     * @return the slot
+     */
+    private int slot(String s) {
+        int hash = s.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+}
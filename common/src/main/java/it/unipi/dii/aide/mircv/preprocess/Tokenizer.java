@@ -0,0 +1,185 @@
+package it.unipi.dii.aide.mircv.preprocess;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Single-pass tokenizer, producing exactly the tokens of Preprocesser.tokenizeWords(Preprocesser.cleanText(text)):
+ * - a text made only of a URL is removed
+ * - HTML tags are removed
+ * - every character that is not an ASCII letter separates two words
+ * - runs of 3 or more equal letters are collapsed to 2 letters
+ * - words are split where a lowercase letter is followed by an uppercase letter (camel case)
+ * - tokens are lowercased and cut at TERM_THRESHOLD characters
+ * The text is scanned once, writing the cleaned words in a buffer reused by the thread.
+ */
+public class Tokenizer {
+    /**
+     * The pattern to match URLs, the same used by Preprocesser.cleanText: it matches only a text made of a URL
+     */
+    private static final Pattern URL_PATTERN = Pattern.compile("(?i)^(https?|ftp|mailto):\\/\\/(www\\.)?[a-zA-Z0-9@:%._\\+~#=]{2,256}\\.[a-z]{2,24}\\b([-a-zA-Z0-9@:%_\\+.~#?&//=]*)$");
+
+    /**
+     * Max length of a token
+     */
+    private static final int TERM_THRESHOLD = 64;
+
+    /**
+     * Initial size of the buffer of the cleaned text
+     */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * Tokenizer of each thread, since documents are preprocessed in parallel during indexing
+     */
+    private static final ThreadLocal<Tokenizer> tokenizer = ThreadLocal.withInitial(Tokenizer::new);
+
+    /**
+     * Buffer storing the cleaned text: words of ASCII letters separated by a single space
+     */
+    private char[] cleaned = new char[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Buffer storing the tokens of the text
+     */
+    private final ArrayList<String> tokens = new ArrayList<>();
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Tokenize a text, using the tokenizer of the current thread
+     * @param text text to tokenize
+     * @return array of tokens, an array with one empty token if the text has no words (as String.split)
+     */
+    public static String[] tokenize(String text) {
+        return tokenizer.get().tokenizeText(text);
+    }
+
+    /**
+     * Tokenize a text
+     * @param text text to tokenize
+     * @return array of tokens
+     */
+    private String[] tokenizeText(String text) {
+        // the URL pattern is anchored to the whole text, so it can match only texts starting with a scheme
+        if (startsWithScheme(text))
+            text = URL_PATTERN.matcher(text).replaceAll(" ");
+
+        int length = clean(text);
+
+        // splitting an empty text gives an empty token
+        if (length == 0)
+            return new String[]{""};
+
+        tokens.clear();
+        int start = 0;
+        for (int i = 1; i <= length; i++) {
+            if (i == length || cleaned[i] == ' ') {
+                addToken(start, i);
+                start = i + 1;
+            } else if (isUpperCase(cleaned[i]) && isLowerCase(cleaned[i - 1])) {
+                // camel case: a lowercase letter followed by an uppercase letter
+                addToken(start, i);
+                start = i;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Check if the text can be a URL
+     * @param text the text
+     * @return true if the text starts with one of the schemes of the URL pattern, ignoring case
+     */
+    private static boolean startsWithScheme(String text) {
+        return text.regionMatches(true, 0, "http", 0, 4)
+                || text.regionMatches(true, 0, "ftp", 0, 3)
+                || text.regionMatches(true, 0, "mailto", 0, 6);
+    }
+
+    /**
+     * Write the cleaned text in the buffer: HTML tags and non-letters are separators, words are separated
+     * by a single space, with no spaces at the beginning and at the end, and runs of 3 or more equal letters
+     * are collapsed to 2 letters
+     * @param text the text to clean
+     * @return the length of the cleaned text
+     */
+    private int clean(String text) {
+        int textLength = text.length();
+        if (cleaned.length < textLength)
+            cleaned = new char[Math.max(textLength, cleaned.length * 2)];
+
+        int length = 0;
+        boolean pendingSpace = false; // a separator was found after the last written letter
+        int runLength = 0; // number of equal letters at the end of the buffer
+
+        // position of the first '>' not before the current '<', -1 if not searched yet
+        int tagEnd = -1;
+
+        for (int i = 0; i < textLength; i++) {
+            char c = text.charAt(i);
+
+            if (isLetter(c)) {
+                if (pendingSpace) {
+                    cleaned[length++] = ' ';
+                    pendingSpace = false;
+                    runLength = 0;
+                }
+
+                // keep at most 2 equal letters in a row
+                if (runLength > 0 && cleaned[length - 1] == c) {
+                    if (runLength == 2)
+                        continue;
+                    runLength++;
+                } else {
+                    runLength = 1;
+                }
+                cleaned[length++] = c;
+                continue;
+            }
+
+            // an HTML tag is '<', at least one character and the first following '>'
+            if (c == '<' && tagEnd != textLength) {
+                if (tagEnd < i) {
+                    tagEnd = text.indexOf('>', i);
+                    if (tagEnd < 0)
+                        tagEnd = textLength; // no more tags in the text
+                }
+                if (tagEnd < textLength && tagEnd > i + 1)
+                    i = tagEnd;
+            }
+
+            // every other character separates two words
+            if (length > 0)
+                pendingSpace = true;
+        }
+        return length;
+    }
+
+    /**
+     * Add a token, lowercased and cut at TERM_THRESHOLD characters
+     * @param start the first character of the token in the buffer
+     * @param end the character following the token in the buffer
+     */
+    private void addToken(int start, int end) {
+        end = Math.min(end, start + TERM_THRESHOLD);
+        for (int i = start; i < end; i++)
+            if (isUpperCase(cleaned[i]))
+                cleaned[i] = (char) (cleaned[i] + ('a' - 'A'));
+
+        tokens.add(new String(cleaned, start, end - start));
+    }
+
+    private static boolean isLetter(char c) {
+        return isLowerCase(c) || isUpperCase(c);
+    }
+
+    private static boolean isLowerCase(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+}
@@ -0,0 +1,152 @@
+package it.unipi.dii.aide.mircv.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential reader of a file, counterpart of ChannelWriter: the file is read ahead in large chunks
+ * from a single long-lived file channel, so reading the file in order costs one system call per chunk.
+ * A read at a position out of the current chunk moves the reader there
+ */
+public class ChannelReader implements AutoCloseable {
+    /**
+     * Default size of the buffer: 64KB
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Channel of the file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Buffer holding the chunk of the file read ahead
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Position in the file of the first byte of the buffer
+     */
+    private long bufferStart = 0;
+
+    /**
+     * Open the file for reading
+     * @param path path of the file
+     */
+    public ChannelReader(String path) throws IOException {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Open the file for reading
+     * @param path path of the file
+     * @param bufferSize size of the buffer in bytes
+     */
+    public ChannelReader(String path, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Move the reader to a position of the file, keeping the buffered data if the position is inside it
+     * @param position the position of the next byte to read
+     */
+    public void seek(long position) {
+        long offset = position - bufferStart;
+        if (offset >= 0 && offset <= buffer.limit()) {
+            buffer.position((int) offset);
+            return;
+        }
+
+        // the position is out of the buffer: the next read fills it from there
+        bufferStart = position;
+        buffer.limit(0);
+    }
+
+    /**
+     * Make the given number of bytes available in the buffer, reading the next chunk of the file if needed
+     * @param numBytes the number of bytes to read, at most the size of the buffer
+     * @return the buffer from which to get the bytes
+     */
+    public ByteBuffer require(int numBytes) throws IOException {
+        if (buffer.remaining() >= numBytes)
+            return buffer;
+
+        bufferStart += buffer.position();
+        buffer.compact();
+        while (buffer.position() < numBytes) {
+            if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+                buffer.flip();
+                throw new IOException("Unexpected end of file at position " + (bufferStart + buffer.limit()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Read an int from the file
+     * @return the int read
+     */
+    public int readInt() throws IOException {
+        return require(Integer.BYTES).getInt();
+    }
+
+    /**
+     * Read an array of ints from the file
+     * @param values the array where to store the ints
+     * @param offset the offset of the first int to read in the array
+     * @param length the number of ints to read
+     */
+    public void readInts(int[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            require(Integer.BYTES);
+
+            int chunk = Math.min(length, buffer.remaining() / Integer.BYTES);
+            for (int i = 0; i < chunk; i++)
+                values[offset + i] = buffer.getInt();
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Read an array of bytes from the file
+     * @param values the array where to store the bytes
+     * @param offset the offset of the first byte to read in the array
+     * @param length the number of bytes to read
+     */
+    public void readBytes(byte[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            require(1);
+
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.get(values, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * @return the position in the file of the next byte that will be read
+     */
+    public long getPosition() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * @return the size of the file
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
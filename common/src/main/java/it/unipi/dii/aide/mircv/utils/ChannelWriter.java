@@ -0,0 +1,179 @@
+package it.unipi.dii.aide.mircv.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only writer of a file: the data is collected in a large direct buffer
+ * and written to a single long-lived file channel in big sequential chunks
+ */
+public class ChannelWriter implements AutoCloseable {
+    /**
+     * Default size of the buffer: 8MB
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Channel of the file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Buffer collecting the data not yet written to the channel
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of bytes already written to the channel
+     */
+    private long written = 0;
+
+    /**
+     * Open the file for writing, truncating it if it already exists
+     * @param path path of the file
+     */
+    public ChannelWriter(String path) throws IOException {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Open the file for writing, truncating it if it already exists
+     * @param path path of the file
+     * @param bufferSize size of the buffer in bytes
+     */
+    public ChannelWriter(String path, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Open the file for writing at a given position, discarding what follows it: used to go on writing a file
+     * whose first bytes were written before an interruption
+     * @param path path of the file
+     * @param position the number of bytes of the file to keep
+     */
+    public ChannelWriter(String path, long position) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        this.channel.truncate(position);
+        this.channel.position(position);
+        this.buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+        this.written = position;
+    }
+
+    /**
+     * Make room in the buffer for the given number of bytes, writing the buffer to the channel if needed.
+     * The caller must put exactly these bytes in the returned buffer before calling another method of the writer
+     * @param numBytes the number of bytes to write, at most the size of the buffer
+     * @return the buffer where to put the bytes
+     */
+    public ByteBuffer reserve(int numBytes) throws IOException {
+        if (buffer.remaining() < numBytes)
+            flush();
+        return buffer;
+    }
+
+    /**
+     * Append an array of bytes to the file
+     * @param bytes the bytes to append
+     */
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Append a portion of an array of bytes to the file
+     * @param bytes the array of bytes
+     * @param offset the offset of the first byte to append
+     * @param length the number of bytes to append
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining())
+                flush();
+
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Append an int to the file
+     * @param value the int to append
+     */
+    public void writeInt(int value) throws IOException {
+        reserve(Integer.BYTES).putInt(value);
+    }
+
+    /**
+     * Append a portion of an array of ints to the file
+     * @param values the array of ints
+     * @param offset the offset of the first int to append
+     * @param length the number of ints to append
+     */
+    public void writeInts(int[] values, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (buffer.remaining() < Integer.BYTES)
+                flush();
+
+            int chunk = Math.min(length, buffer.remaining() / Integer.BYTES);
+            for (int i = 0; i < chunk; i++)
+                buffer.putInt(values[offset + i]);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Append the whole content of another file, copied by the channels without passing through the buffer
+     * @param path the path of the file to append
+     */
+    public void transferFrom(String path) throws IOException {
+        flush();
+        try (FileChannel source = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = source.size();
+            long transferred = 0;
+            while (transferred < size)
+                transferred += source.transferTo(transferred, size - transferred, channel);
+            written += transferred;
+        }
+    }
+
+    /**
+     * @return the position in the file of the next byte that will be appended
+     */
+    public long getPosition() {
+        return written + buffer.position();
+    }
+
+    /**
+     * Write the content of the buffer to the channel
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            written += channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Write the remaining data and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
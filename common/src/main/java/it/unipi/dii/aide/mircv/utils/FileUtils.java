@@ -3,10 +3,14 @@ package it.unipi.dii.aide.mircv.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
+import java.util.zip.CRC32C;
 
 /**
  * Utility class for file operations
@@ -53,7 +57,7 @@ public class FileUtils {
 
     /**
      * @param path directory path
-     *  Deletes directory of given path
+     *  Deletes directory of given path, with its subdirectories
      **/
     public static void deleteDirectory(String path) {
         File directory = new File(path);
@@ -63,8 +67,13 @@ public class FileUtils {
 
         boolean successful = true;
         // Before deleting the directory, delete all files
-        for(File file : Objects.requireNonNull(directory.listFiles()))
-            successful = file.delete();
+        for(File file : Objects.requireNonNull(directory.listFiles())) {
+            if(file.isDirectory()) {
+                deleteDirectory(file.getPath());
+                successful = !file.exists();
+            } else
+                successful = file.delete();
+        }
 
         if(!successful)
             return;
@@ -72,4 +81,27 @@ public class FileUtils {
         // Delete the directory
         successful = directory.delete();
     }
+
+    /**
+     * Compute a checksum of the content of some files, used to check that the files written before a crash are complete
+     * @param paths the paths of the files, in a fixed order
+     * @return the CRC32C of the concatenated files, -1 if a file is missing or cannot be read
+     */
+    public static long checksum(String... paths) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+
+        for (String path : paths) {
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return crc.getValue();
+    }
 }
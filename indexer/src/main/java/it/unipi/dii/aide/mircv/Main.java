@@ -1,9 +1,15 @@
 package it.unipi.dii.aide.mircv;
 
+import it.unipi.dii.aide.mircv.algorithms.BuildCheckpoint;
 import it.unipi.dii.aide.mircv.algorithms.Merger;
 import it.unipi.dii.aide.mircv.algorithms.Spimi;
+import it.unipi.dii.aide.mircv.beans.Segment;
+import it.unipi.dii.aide.mircv.compression.PostingCodec;
+import it.unipi.dii.aide.mircv.compression.PostingCodecs;
+import it.unipi.dii.aide.mircv.config.CollectionSize;
 import it.unipi.dii.aide.mircv.config.ConfigurationParams;
 import it.unipi.dii.aide.mircv.config.Flags;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
 import it.unipi.dii.aide.mircv.utils.FileUtils;
 
 import java.io.BufferedWriter;
@@ -13,6 +19,7 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 
 import static it.unipi.dii.aide.mircv.utils.Utility.initializeFiles;
+import static it.unipi.dii.aide.mircv.utils.Utility.resumePartialFiles;
 import static it.unipi.dii.aide.mircv.utils.Utility.cleanUpFiles;
 
 /**
@@ -39,6 +46,9 @@ public class Main {
         // If set to true, maxScore is used else DAAT is used
         boolean maxScoreEnabled = false;
 
+        // If set to true, the collection is added to the existing index as a new segment
+        boolean incrementalEnable = false;
+
         // Check input and initialize flags
         for (String flag : args) {
             switch (flag) {
@@ -57,27 +67,75 @@ public class Main {
                 case "-m":
                     maxScoreEnabled = true;
                     break;
+                case "-i":
+                    incrementalEnable = true;
+                    break;
                 default:
                     System.out.println("Invalid flag: " + flag);
                     System.exit(1);
             }
         }
 
-        // Save to file flags that will be useful for query handling
-        if(!Flags.saveFlags(compressedWritingEnable, stemStopRemovalEnable, maxScoreEnabled)){
-            System.out.println("Error while saving flags");
-            System.exit(1);
+        int firstDocid = 1;
+        if(incrementalEnable) {
+            // the segment is built with the flags of the existing index, after its last docid
+            if(!SegmentManifest.load() || SegmentManifest.getSegments().isEmpty() || !Flags.initializeFlags()) {
+                System.out.println("No index to add the documents to: build it first");
+                System.exit(1);
+            }
+            firstDocid = SegmentManifest.getNextDocid();
+        } else {
+            // the flags are saved in the staging directory, since the old index is queried with its own flags until the new one is published
+            Flags.setCompression(compressedWritingEnable);
+            Flags.setStemStopRemoval(stemStopRemovalEnable);
+            Flags.setMaxScore(maxScoreEnabled);
+            Flags.setFormatVersion(Flags.CURRENT_FORMAT);
+
+            // the codecs of the compressed postings are taken from the configuration
+            PostingCodec docidCodec = PostingCodecs.get(ConfigurationParams.getDocidCodec());
+            PostingCodec frequencyCodec = PostingCodecs.get(ConfigurationParams.getFrequencyCodec());
+            if(docidCodec == null || frequencyCodec == null) {
+                System.out.println("Unknown posting codecs: " + ConfigurationParams.getDocidCodec() + ", " + ConfigurationParams.getFrequencyCodec());
+                System.exit(1);
+            }
+            Flags.setPostingCodecs(docidCodec, frequencyCodec);
+            if(!SegmentManifest.load()) {
+                System.out.println("Error while loading the segments of the index");
+                System.exit(1);
+            }
+        }
+        boolean compression = Flags.isCompressionEnabled();
+
+        // the index is built in the staging directory, and becomes visible to the queries only when it is complete
+        Segment staging = new Segment(Segment.BUILD_NAME, firstDocid, 0, 0, 0, 0);
+        CollectionSize.setCollectionStatisticsPath(staging.getCollectionStatisticsPath());
+        Merger.setPathToVocabulary(staging.getVocabularyPath());
+        Merger.setPathToInvertedIndexDocs(staging.getDocidsPath());
+        Merger.setPathToInvertedIndexFreqs(staging.getFrequenciesPath());
+        Merger.setPathToBlockDescriptors(staging.getBlockDescriptorsPath());
+
+        // a build interrupted with the same collection and flags is resumed from its checkpoint;
+        // the debug files are not checkpointed, so a debug build always starts over
+        BuildCheckpoint checkpoint = null;
+        if(!debugModeEnable) {
+            String key = Spimi.describeCollection(compressedReadingEnable) + ":" + firstDocid + ":" + compression + ":"
+                    + Flags.isStemStopRemovalEnabled() + ":" + Flags.isMaxScoreEnabled() + ":" + Flags.getFormatVersion()
+                    + ":" + Flags.getDocidCodec().getName() + ":" + Flags.getFrequencyCodec().getName();
+            checkpoint = BuildCheckpoint.open(staging.getDirectory(), key, staging.getDocumentIndexPath());
         }
 
         // Initialize the files and directories for Spimi execution
-        initializeFiles();
+        if(checkpoint == null || !checkpoint.isResumed())
+            initializeFiles(staging.getDirectory());
+        else
+            resumePartialFiles();
 
         // Execute the Spimi algorithm
-        System.out.println("Indexing started with params: " + Arrays.toString(args));
+        System.out.println("Indexing started with params: " + Arrays.toString(args) + ", first docid " + firstDocid);
         long start = System.currentTimeMillis();
-        int numIndexes = Spimi.executeSpimi(compressedReadingEnable, debugModeEnable);
+        int numIndexes = Spimi.executeSpimi(compressedReadingEnable, debugModeEnable, firstDocid, staging.getDocumentIndexPath(), checkpoint);
 
-        // Check for errors
+        // Check for errors: what was built stays in the staging directory, to resume from the checkpoint
         if(numIndexes <= 0) {
             System.out.println("Error while executing Spimi: no partial indexes created");
             System.exit(1);
@@ -85,33 +143,48 @@ public class Main {
         long spimiTime = System.currentTimeMillis();
         formatTime(start, spimiTime, "Spimi execution time");
 
-        if(Merger.mergeIndexes(numIndexes, compressedWritingEnable, debugModeEnable)) {
-            cleanUpFiles();
-
-            // Print the time taken for the execution
-            long end = System.currentTimeMillis();
-            formatTime(spimiTime, end, "Merging execution time");
-            formatTime(start, end, "Total execution time for Inverted index");
-
-            FileUtils.createIfNotExists("data/indexerStatistics.tsv");
-            try(BufferedWriter writer = new BufferedWriter(new FileWriter("data/indexerStatistics.tsv", true));) {
-                long docidSize = Files.size(Paths.get(ConfigurationParams.getInvertedIndexDocs()));
-                long freqSize = Files.size(Paths.get(ConfigurationParams.getInvertedIndexFreqs()));
-                long vocabularySize = Files.size(Paths.get(ConfigurationParams.getVocabularyPath()));
-                long docIndexSize = Files.size(Paths.get(ConfigurationParams.getDocumentIndexPath()));
-                long fullTime = end - start;
-                String stats = Arrays.toString(args) + '\t' + fullTime + '\t' + docidSize + '\t' + freqSize + '\t' + vocabularySize + '\t' + docIndexSize + '\n';
-                writer.write(stats);
-            }catch(Exception e){
-                e.printStackTrace();
-            }
+        if(!Merger.mergeIndexes(numIndexes, compression, debugModeEnable, checkpoint)) {
+            System.out.println("Error while merging indexes");
+            System.exit(1);
+        }
+        cleanUpFiles();
 
-            Merger.printPerformanceStatistics();
+        // Save to file flags that will be useful for query handling, published with the segment
+        if(!Flags.saveFlags(staging.getFlagsPath())) {
+            System.out.println("Error while saving flags");
+            System.exit(1);
+        }
 
-            return;
+        // a new index replaces all the segments, a new segment is added after them
+        Segment published = SegmentManifest.publishSegment(new Segment(Segment.BUILD_NAME, firstDocid,
+                (int) CollectionSize.getCollectionSize(), 0, CollectionSize.getTotalDocLen(), CollectionSize.getVocabularySize()),
+                !incrementalEnable);
+        if(published == null) {
+            System.out.println("Error while publishing the index");
+            System.exit(1);
         }
-        System.out.println("Error while merging indexes");
-        cleanUpFiles();
+        FileUtils.removeFile(published.getDirectory() + "/" + BuildCheckpoint.FILE_NAME);
+        System.out.println("Index published as segment " + published);
+
+        // Print the time taken for the execution
+        long end = System.currentTimeMillis();
+        formatTime(spimiTime, end, "Merging execution time");
+        formatTime(start, end, "Total execution time for Inverted index");
+
+        FileUtils.createIfNotExists("data/indexerStatistics.tsv");
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter("data/indexerStatistics.tsv", true));) {
+            long docidSize = Files.size(Paths.get(published.getDocidsPath()));
+            long freqSize = Files.size(Paths.get(published.getFrequenciesPath()));
+            long vocabularySize = Files.size(Paths.get(published.getVocabularyPath()));
+            long docIndexSize = Files.size(Paths.get(published.getDocumentIndexPath()));
+            long fullTime = end - start;
+            String stats = Arrays.toString(args) + '\t' + fullTime + '\t' + docidSize + '\t' + freqSize + '\t' + vocabularySize + '\t' + docIndexSize + '\n';
+            writer.write(stats);
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+
+        Merger.printPerformanceStatistics();
     }
 
     /**
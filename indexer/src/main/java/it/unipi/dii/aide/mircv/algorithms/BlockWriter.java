@@ -0,0 +1,307 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.BlockDescriptor;
+import it.unipi.dii.aide.mircv.beans.PostingList;
+import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
+import it.unipi.dii.aide.mircv.compression.DocidGaps;
+import it.unipi.dii.aide.mircv.compression.PostingCodec;
+import it.unipi.dii.aide.mircv.config.Flags;
+import it.unipi.dii.aide.mircv.utils.ChannelWriter;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Last two stages of the merge pipeline: the blocks of postings produced by the merger are encoded by a pool
+ * of workers, and a writer thread writes them in their original order, assigning the offsets of the blocks,
+ * of the block descriptors and of the vocabulary entries as it goes. Encoding then overlaps with the reads
+ * of the merger and with the writes, and scales with the encoding workers.
+ */
+class BlockWriter implements AutoCloseable {
+    /**
+     * Number of blocks that can wait to be written, bounding the memory of the pipeline
+     */
+    private static final int MAX_BLOCKS_IN_FLIGHT = 256;
+
+    /**
+     * Marker of the end of the blocks
+     */
+    private static final Future<EncodedBlock> END_OF_BLOCKS = CompletableFuture.completedFuture(null);
+
+    /**
+     * Block of postings of a term, encoded and ready to be written
+     */
+    private static class EncodedBlock {
+        /**
+         * Vocabulary entry of the term, completed with the offsets when the block is written
+         */
+        VocabularyEntry vocabularyEntry;
+
+        /**
+         * Flags telling whether the block is the first or the last one of the term
+         */
+        boolean first;
+        boolean last;
+
+        /**
+         * Number of postings and max docid of the block
+         */
+        int numPostings;
+        int maxDocid;
+
+        /**
+         * Docid from which the gaps of the block start: the max docid of the previous block of the term,
+         * 0 for the first block
+         */
+        int docidBase;
+
+        /**
+         * Compressed docids and frequencies, null if the block is not compressed
+         */
+        byte[] compressedDocids;
+        byte[] compressedFreqs;
+
+        /**
+         * Uncompressed docids and frequencies, used if the block is not compressed
+         */
+        int[] docids;
+        int[] freqs;
+
+        /**
+         * Postings of the term, written to the debug files with the last block; null if not in debug mode
+         */
+        PostingList debugList;
+    }
+
+    /**
+     * Writers of the docids, frequencies, block descriptors and vocabulary
+     */
+    private final ChannelWriter docidWriter;
+    private final ChannelWriter frequencyWriter;
+    private final ChannelWriter descriptorWriter;
+    private final ChannelWriter vocabularyWriter;
+
+    /**
+     * Flag deciding whether to compress the blocks
+     */
+    private final boolean compressionMode;
+
+    /**
+     * Flag deciding whether to store the compressed docids as gaps, following the format version of the index
+     */
+    private final boolean docidGaps;
+
+    /**
+     * Codecs of the compressed docids and frequencies, the ones of the index
+     */
+    private final PostingCodec docidCodec;
+    private final PostingCodec frequencyCodec;
+
+    /**
+     * Max docid of the last block added, the base of the gaps of the next block of the same term
+     */
+    private int lastMaxDocid = 0;
+
+    /**
+     * Pool of the encoding workers, null to encode the blocks in the thread of the merger
+     */
+    private final ExecutorService encoders;
+
+    /**
+     * Blocks being encoded, in the order in which they must be written
+     */
+    private final BlockingQueue<Future<EncodedBlock>> blocks;
+
+    /**
+     * Thread writing the encoded blocks
+     */
+    private final Thread writerThread;
+
+    /**
+     * Error of the writer thread, null if none
+     */
+    private volatile Exception error = null;
+
+    /**
+     * Open the files and start the writer thread
+     * @param compressionMode flag deciding whether to compress the blocks
+     * @param encoders pool of the encoding workers, null to encode the blocks in the calling thread
+     * @param outputPaths paths of the docids, frequencies, block descriptors and vocabulary to write
+     */
+    BlockWriter(boolean compressionMode, ExecutorService encoders, String... outputPaths) throws IOException {
+        this.compressionMode = compressionMode;
+        this.docidGaps = compressionMode && Flags.getFormatVersion() >= Flags.DOCID_GAPS_FORMAT;
+        this.docidCodec = Flags.getDocidCodec();
+        this.frequencyCodec = Flags.getFrequencyCodec();
+        this.encoders = encoders;
+        this.docidWriter = new ChannelWriter(outputPaths[0]);
+        this.frequencyWriter = new ChannelWriter(outputPaths[1]);
+        this.descriptorWriter = new ChannelWriter(outputPaths[2]);
+        this.vocabularyWriter = new ChannelWriter(outputPaths[3]);
+
+        this.blocks = new ArrayBlockingQueue<>(MAX_BLOCKS_IN_FLIGHT);
+        this.writerThread = new Thread(this::writeBlocks, "merge-block-writer");
+        this.writerThread.start();
+    }
+
+    /**
+     * Send a block of a term to be encoded and written, blocking if the writer is lagging behind
+     * @param vocabularyEntry the vocabulary entry of the term, written after its last block
+     * @param docids the docids of the block, not modified afterwards by the caller
+     * @param freqs the frequencies of the block, not modified afterwards by the caller
+     * @param first true if the block is the first one of the term
+     * @param last true if the block is the last one of the term
+     * @param debugList the postings of the term to write to the debug files with the last block, null if none
+     */
+    void addBlock(VocabularyEntry vocabularyEntry, int[] docids, int[] freqs, boolean first, boolean last,
+                  PostingList debugList) throws IOException, InterruptedException {
+        if (error != null)
+            throw new IOException("The writer of the merged index failed", error);
+
+        EncodedBlock block = new EncodedBlock();
+        block.vocabularyEntry = vocabularyEntry;
+        block.first = first;
+        block.last = last;
+        block.numPostings = docids.length;
+        block.maxDocid = docids[docids.length - 1];
+        block.docidBase = first ? 0 : lastMaxDocid;
+        block.docids = docids;
+        block.freqs = freqs;
+        block.debugList = debugList;
+        lastMaxDocid = block.maxDocid;
+
+        if (!compressionMode)
+            blocks.put(CompletableFuture.completedFuture(block));
+        else if (encoders == null)
+            blocks.put(CompletableFuture.completedFuture(encode(block)));
+        else
+            blocks.put(encoders.submit(() -> encode(block)));
+    }
+
+    /**
+     * Compress the docids and the frequencies of a block with the codecs of the index
+     * @param block the block
+     * @return the block, with its compressed postings
+     */
+    private EncodedBlock encode(EncodedBlock block) {
+        if (docidGaps)
+            DocidGaps.toGaps(block.docids, block.docidBase);
+        block.compressedDocids = docidCodec.encode(block.docids, block.numPostings);
+        block.compressedFreqs = frequencyCodec.encode(block.freqs, block.numPostings);
+        block.docids = null;
+        block.freqs = null;
+        return block;
+    }
+
+    /**
+     * Loop of the writer thread: write the blocks in order as soon as they are encoded.
+     * After an error the blocks are still consumed, so that the merger never blocks
+     */
+    private void writeBlocks() {
+        try {
+            Future<EncodedBlock> future;
+            while ((future = blocks.take()) != END_OF_BLOCKS) {
+                if (error != null)
+                    continue;
+
+                try {
+                    writeBlock(future.get());
+                } catch (IOException | ExecutionException | RuntimeException e) {
+                    error = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            error = e;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write a block with its block descriptor, and the vocabulary entry of its term after the last block
+     * @param block the encoded block
+     */
+    private void writeBlock(EncodedBlock block) throws IOException {
+        VocabularyEntry vocabularyEntry = block.vocabularyEntry;
+
+        // the offsets of the term are known only now that the previous blocks are written
+        if (block.first) {
+            vocabularyEntry.setMemoryOffset(docidWriter.getPosition());
+            vocabularyEntry.setFrequencyOffset(frequencyWriter.getPosition());
+            vocabularyEntry.setBlockOffset(descriptorWriter.getPosition());
+        }
+
+        BlockDescriptor blockDescriptor = new BlockDescriptor();
+        blockDescriptor.setDocidOffset(docidWriter.getPosition());
+        blockDescriptor.setFreqOffset(frequencyWriter.getPosition());
+        blockDescriptor.setMaxDocid(block.maxDocid);
+        blockDescriptor.setNumPostings(block.numPostings);
+
+        if (compressionMode) {
+            docidWriter.write(block.compressedDocids);
+            frequencyWriter.write(block.compressedFreqs);
+            blockDescriptor.setDocidSize(block.compressedDocids.length);
+            blockDescriptor.setFreqSize(block.compressedFreqs.length);
+        } else {
+            docidWriter.writeInts(block.docids, 0, block.numPostings);
+            frequencyWriter.writeInts(block.freqs, 0, block.numPostings);
+            blockDescriptor.setDocidSize(block.numPostings * 4);
+            blockDescriptor.setFreqSize(block.numPostings * 4);
+        }
+        blockDescriptor.writeToBuffer(descriptorWriter.reserve(BlockDescriptor.BLOCK_DESCRIPTOR_ENTRY_BYTES));
+
+        if (block.last) {
+            // the total size of the posting list on disk
+            vocabularyEntry.setDocidSize((int) (docidWriter.getPosition() - vocabularyEntry.getDocidOffset()));
+            vocabularyEntry.setFrequencySize((int) (frequencyWriter.getPosition() - vocabularyEntry.getFrequencyOffset()));
+
+            // save vocabulary entry on disk
+            vocabularyEntry.writeToBuffer(vocabularyWriter.reserve((int) VocabularyEntry.ENTRY_SIZE));
+
+            if (block.debugList != null) {
+                block.debugList.debugSaveToDisk("debugDOCIDS.txt", "debugFREQS.txt", vocabularyEntry.getMaxNumberOfPostingsInBlock());
+                vocabularyEntry.debugSaveToDisk("debugVOCABULARY.txt");
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes written in the docids file
+     */
+    long getDocsMemOffset() {
+        return docidWriter.getPosition();
+    }
+
+    /**
+     * @return the number of bytes written in the freqs file
+     */
+    long getFreqsMemOffset() {
+        return frequencyWriter.getPosition();
+    }
+
+    /**
+     * Wait for the writer thread to write all the blocks, and close the files
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            blocks.put(END_OF_BLOCKS);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the merged index", e);
+        } finally {
+            docidWriter.close();
+            frequencyWriter.close();
+            descriptorWriter.close();
+            vocabularyWriter.close();
+        }
+
+        if (error != null)
+            throw new IOException("The writer of the merged index failed", error);
+    }
+}
@@ -0,0 +1,540 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoint of a build of the index, so that a build interrupted by an error or by a crash of the JVM
+ * resumes from the last completed step instead of starting over.
+ * SPIMI commits the runs of documents in docid order: a run is committed when its partial indexes are written
+ * and all the runs before it are committed, recording the documents of the collection consumed, the next docid,
+ * the length of the document index and the checksums of the partial indexes. The merge records every intermediate
+ * run, every range of terms and the final index as they are completed, with the checksums of their files.
+ * The checkpoint is written to a temporary file that replaces the old one in a single step, and when it is
+ * loaded the files it refers to are checked against their checksums
+ */
+public class BuildCheckpoint {
+    /**
+     * Version of the format of the checkpoint, a checkpoint of another version is discarded
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Name of the checkpoint in the directory of the build
+     */
+    public static final String FILE_NAME = "checkpoint";
+
+    /**
+     * Name of the unit of the merge that writes the final inverted index
+     */
+    static final String FINAL_UNIT = "final";
+
+    /**
+     * Files written by a step of the build, with the checksum of their content
+     * @param paths the paths of the files
+     * @param checksum the checksum of the files, ignored if there are no files
+     */
+    private record FileGroup(String[] paths, long checksum) {
+        /**
+         * @return true if the files are still there with the same content
+         */
+        boolean isValid() {
+            return paths.length == 0 || FileUtils.checksum(paths) == checksum;
+        }
+    }
+
+    /**
+     * State of the build at the end of a run dispatched by SPIMI, committed once its partial indexes are written
+     */
+    private static class RunState {
+        long inputDocs;
+        int nextDocid;
+        long totalDocLen;
+        long documentIndexSize;
+        boolean dispatched = false;
+        List<FileGroup> partials = null;
+    }
+
+    /**
+     * Path of the checkpoint
+     */
+    private final String path;
+
+    /**
+     * Description of the build: the collection, the flags and the first docid. A checkpoint is used only by
+     * a build with the same description
+     */
+    private final String key;
+
+    /**
+     * Path of the document index written by SPIMI
+     */
+    private final String documentIndexPath;
+
+    /**
+     * Flag telling whether the checkpoint was loaded from disk
+     */
+    private boolean resumed = false;
+
+    /**
+     * Number of runs committed by SPIMI
+     */
+    private int committedRuns = 0;
+
+    /**
+     * Number of documents of the collection consumed by the committed runs, including the empty ones
+     */
+    private long inputDocs = 0;
+
+    /**
+     * Docid of the first document after the committed runs, 0 if no run is committed
+     */
+    private int nextDocid = 0;
+
+    /**
+     * Sum of the length of the documents of the committed runs
+     */
+    private long totalDocLen = 0;
+
+    /**
+     * Length of the document index written for the committed runs
+     */
+    private long documentIndexSize = 0;
+
+    /**
+     * Partial indexes of each committed run
+     */
+    private final ArrayList<List<FileGroup>> committedPartials = new ArrayList<>();
+
+    /**
+     * Runs dispatched or written but not committed yet, waiting for the runs before them
+     */
+    private final HashMap<Integer, RunState> pendingRuns = new HashMap<>();
+
+    /**
+     * Number of partial indexes numbered in docid order at the end of SPIMI, -1 if SPIMI is not complete
+     */
+    private int numIndexes = -1;
+
+    /**
+     * Parameters of the build fixed by the first execution, so that a resumed merge splits the work in the same way
+     */
+    private final LinkedHashMap<String, Integer> parameters = new LinkedHashMap<>();
+
+    /**
+     * Units of the merge completed, with a value (the size of their vocabulary) and their files
+     */
+    private final LinkedHashMap<String, Long> completedValues = new LinkedHashMap<>();
+    private final LinkedHashMap<String, FileGroup> completedFiles = new LinkedHashMap<>();
+
+    /**
+     * Create an empty checkpoint
+     * @param path the path of the checkpoint
+     * @param key the description of the build
+     * @param documentIndexPath the path of the document index written by SPIMI
+     */
+    private BuildCheckpoint(String path, String key, String documentIndexPath) {
+        this.path = path;
+        this.key = key;
+        this.documentIndexPath = documentIndexPath;
+    }
+
+    /**
+     * Open the checkpoint of a build. The checkpoint on disk is used only if it belongs to a build with the same
+     * description and the files of its committed steps are intact; otherwise the build starts over
+     * @param directory the directory of the build
+     * @param key the description of the build
+     * @param documentIndexPath the path of the document index written by SPIMI
+     * @return the checkpoint to resume from, or an empty one if the build must start over (see isResumed)
+     */
+    public static BuildCheckpoint open(String directory, String key, String documentIndexPath) {
+        String path = directory + "/" + FILE_NAME;
+        BuildCheckpoint checkpoint = new BuildCheckpoint(path, key, documentIndexPath);
+        if (!new File(path).exists())
+            return checkpoint;
+
+        try {
+            if (!checkpoint.readFromDisk()) {
+                System.out.println("The checkpoint belongs to another build: starting over");
+                return new BuildCheckpoint(path, key, documentIndexPath);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new BuildCheckpoint(path, key, documentIndexPath);
+        }
+
+        if (!checkpoint.validate()) {
+            System.out.println("The files of the checkpoint are damaged: starting over");
+            return new BuildCheckpoint(path, key, documentIndexPath);
+        }
+
+        checkpoint.resumed = true;
+        System.out.println("Resuming the build from the checkpoint: " + checkpoint);
+        return checkpoint;
+    }
+
+    /**
+     * Check the files of the checkpoint. The completed units of the merge whose files are damaged are
+     * forgotten, so that they are merged again; the partial indexes are needed only if the final index is not complete
+     * @return true if the build can resume from the checkpoint
+     */
+    private boolean validate() {
+        FileGroup finalIndex = completedFiles.get(FINAL_UNIT);
+        if (finalIndex != null && finalIndex.isValid())
+            return true;
+
+        completedFiles.entrySet().removeIf(unit -> {
+            if (unit.getValue().isValid())
+                return false;
+            completedValues.remove(unit.getKey());
+            return true;
+        });
+
+        for (List<FileGroup> partials : committedPartials)
+            for (FileGroup partial : partials)
+                if (!partial.isValid())
+                    return false;
+
+        return numIndexes >= 0 || new File(documentIndexPath).length() >= documentIndexSize;
+    }
+
+    /**
+     * @return true if the checkpoint was loaded from disk, false if the build starts over
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return the number of runs committed by SPIMI
+     */
+    public synchronized int getCommittedRuns() {
+        return committedRuns;
+    }
+
+    /**
+     * @param run a committed run
+     * @return the number of partial indexes of the run
+     */
+    public synchronized int getNumPartials(int run) {
+        return committedPartials.get(run).size();
+    }
+
+    /**
+     * @return the number of documents of the collection consumed by the committed runs
+     */
+    public synchronized long getInputDocs() {
+        return inputDocs;
+    }
+
+    /**
+     * @return the docid of the first document after the committed runs
+     */
+    public synchronized int getNextDocid() {
+        return nextDocid;
+    }
+
+    /**
+     * @return the sum of the length of the documents of the committed runs
+     */
+    public synchronized long getTotalDocLen() {
+        return totalDocLen;
+    }
+
+    /**
+     * @return the length of the document index written for the committed runs
+     */
+    public synchronized long getDocumentIndexSize() {
+        return documentIndexSize;
+    }
+
+    /**
+     * @return true if SPIMI wrote all the partial indexes
+     */
+    public synchronized boolean isSpimiCompleted() {
+        return numIndexes >= 0;
+    }
+
+    /**
+     * @return the number of partial indexes written by SPIMI
+     */
+    public synchronized int getNumIndexes() {
+        return numIndexes;
+    }
+
+    /**
+     * Record the state of the build at the end of a run, when its last documents are dispatched.
+     * The document index must already be written up to documentIndexSize
+     * @param run the run
+     * @param inputDocs the number of documents of the collection consumed up to the end of the run
+     * @param nextDocid the docid of the first document after the run
+     * @param totalDocLen the sum of the length of the documents up to the end of the run
+     * @param documentIndexSize the length of the document index up to the end of the run
+     * @return true if the checkpoint is updated correctly
+     */
+    public synchronized boolean runDispatched(int run, long inputDocs, int nextDocid, long totalDocLen, long documentIndexSize) {
+        RunState state = pendingRuns.computeIfAbsent(run, r -> new RunState());
+        state.inputDocs = inputDocs;
+        state.nextDocid = nextDocid;
+        state.totalDocLen = totalDocLen;
+        state.documentIndexSize = documentIndexSize;
+        state.dispatched = true;
+        return commitRuns();
+    }
+
+    /**
+     * Record that the partial indexes of a run are written, computing their checksums
+     * @param run the run
+     * @param partialFiles the files of each partial index of the run
+     * @return true if the checkpoint is updated correctly
+     */
+    public boolean runWritten(int run, List<String[]> partialFiles) {
+        // the checksums are computed out of the lock, by the writer of the partial indexes
+        List<FileGroup> partials = new ArrayList<>(partialFiles.size());
+        for (String[] files : partialFiles) {
+            long checksum = FileUtils.checksum(files);
+            if (checksum < 0)
+                return false;
+            partials.add(new FileGroup(files, checksum));
+        }
+
+        synchronized (this) {
+            pendingRuns.computeIfAbsent(run, r -> new RunState()).partials = partials;
+            return commitRuns();
+        }
+    }
+
+    /**
+     * Commit the runs that are dispatched and written, in order, and save the checkpoint if any run was committed
+     * @return true if the checkpoint is saved correctly
+     */
+    private boolean commitRuns() {
+        boolean committed = false;
+        RunState state;
+        while ((state = pendingRuns.get(committedRuns)) != null && state.dispatched && state.partials != null) {
+            pendingRuns.remove(committedRuns);
+            committedPartials.add(state.partials);
+            inputDocs = state.inputDocs;
+            nextDocid = state.nextDocid;
+            totalDocLen = state.totalDocLen;
+            documentIndexSize = state.documentIndexSize;
+            committedRuns++;
+            committed = true;
+        }
+        return !committed || writeToDisk();
+    }
+
+    /**
+     * Record that SPIMI is complete and its partial indexes were numbered in docid order
+     * @param numbered the files of the partial indexes with their new names, in the order of the committed runs
+     * @return true if the checkpoint is saved correctly
+     */
+    public synchronized boolean spimiCompleted(List<String[]> numbered) {
+        int i = 0;
+        for (List<FileGroup> partials : committedPartials)
+            for (int p = 0; p < partials.size(); p++)
+                partials.set(p, new FileGroup(numbered.get(i++), partials.get(p).checksum()));
+
+        numIndexes = numbered.size();
+        return writeToDisk();
+    }
+
+    /**
+     * Fix a parameter of the build: the first execution records its value, and a resumed build uses it
+     * @param name the name of the parameter
+     * @param value the value chosen by this execution
+     * @return the value of the parameter for the build
+     */
+    public synchronized int fixParameter(String name, int value) {
+        Integer fixed = parameters.get(name);
+        if (fixed != null)
+            return fixed;
+
+        parameters.put(name, value);
+        return value;
+    }
+
+    /**
+     * @param unit the name of a unit of the merge
+     * @return true if the unit was completed and its files are intact
+     */
+    public synchronized boolean isCompleted(String unit) {
+        return completedValues.containsKey(unit);
+    }
+
+    /**
+     * @param unit the name of a completed unit of the merge
+     * @return the value recorded for the unit
+     */
+    public synchronized long getValue(String unit) {
+        return completedValues.get(unit);
+    }
+
+    /**
+     * Record a completed unit of the merge, computing the checksum of its files
+     * @param unit the name of the unit
+     * @param value the value to record, the size of the vocabulary written
+     * @param files the files written by the unit
+     * @return true if the checkpoint is saved correctly
+     */
+    public boolean completed(String unit, long value, String... files) {
+        long checksum = FileUtils.checksum(files);
+        if (checksum < 0)
+            return false;
+
+        synchronized (this) {
+            completedValues.put(unit, value);
+            completedFiles.put(unit, new FileGroup(files, checksum));
+            return writeToDisk();
+        }
+    }
+
+    /**
+     * Keep the units of the merge with a given prefix completed after their files are deleted, since they were
+     * merged in the next pass
+     * @param prefix the prefix of the names of the units
+     * @return true if the checkpoint is saved correctly
+     */
+    public synchronized boolean released(String prefix) {
+        for (Map.Entry<String, FileGroup> unit : completedFiles.entrySet())
+            if (unit.getKey().startsWith(prefix))
+                unit.setValue(new FileGroup(new String[0], 0));
+        return writeToDisk();
+    }
+
+    /**
+     * Read the checkpoint from disk
+     * @return true if the checkpoint belongs to this build
+     */
+    private boolean readFromDisk() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(path))) {
+            if (dis.readInt() != VERSION || !dis.readUTF().equals(key))
+                return false;
+
+            committedRuns = dis.readInt();
+            inputDocs = dis.readLong();
+            nextDocid = dis.readInt();
+            totalDocLen = dis.readLong();
+            documentIndexSize = dis.readLong();
+            for (int run = 0; run < committedRuns; run++) {
+                int numPartials = dis.readInt();
+                List<FileGroup> partials = new ArrayList<>(numPartials);
+                for (int p = 0; p < numPartials; p++)
+                    partials.add(readFileGroup(dis));
+                committedPartials.add(partials);
+            }
+            numIndexes = dis.readInt();
+
+            int numParameters = dis.readInt();
+            for (int i = 0; i < numParameters; i++)
+                parameters.put(dis.readUTF(), dis.readInt());
+
+            int numUnits = dis.readInt();
+            for (int i = 0; i < numUnits; i++) {
+                String unit = dis.readUTF();
+                completedValues.put(unit, dis.readLong());
+                completedFiles.put(unit, readFileGroup(dis));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write the checkpoint in a temporary file, synced to the disk, that replaces the old checkpoint in a single step
+     * @return true if the checkpoint is written correctly
+     */
+    private boolean writeToDisk() {
+        String tempPath = path + ".tmp";
+        try (FileOutputStream fos = new FileOutputStream(tempPath);
+             DataOutputStream dos = new DataOutputStream(fos)) {
+            dos.writeInt(VERSION);
+            dos.writeUTF(key);
+
+            dos.writeInt(committedRuns);
+            dos.writeLong(inputDocs);
+            dos.writeInt(nextDocid);
+            dos.writeLong(totalDocLen);
+            dos.writeLong(documentIndexSize);
+            for (List<FileGroup> partials : committedPartials) {
+                dos.writeInt(partials.size());
+                for (FileGroup partial : partials)
+                    writeFileGroup(dos, partial);
+            }
+            dos.writeInt(numIndexes);
+
+            dos.writeInt(parameters.size());
+            for (Map.Entry<String, Integer> parameter : parameters.entrySet()) {
+                dos.writeUTF(parameter.getKey());
+                dos.writeInt(parameter.getValue());
+            }
+
+            dos.writeInt(completedValues.size());
+            for (Map.Entry<String, Long> unit : completedValues.entrySet()) {
+                dos.writeUTF(unit.getKey());
+                dos.writeLong(unit.getValue());
+                writeFileGroup(dos, completedFiles.get(unit.getKey()));
+            }
+
+            dos.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Read a group of files and their checksum from the checkpoint
+     * @param dis the stream of the checkpoint
+     * @return the group of files
+     */
+    private static FileGroup readFileGroup(DataInputStream dis) throws IOException {
+        String[] paths = new String[dis.readInt()];
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = dis.readUTF();
+        return new FileGroup(paths, dis.readLong());
+    }
+
+    /**
+     * Write a group of files and their checksum in the checkpoint
+     * @param dos the stream of the checkpoint
+     * @param group the group of files
+     */
+    private static void writeFileGroup(DataOutputStream dos, FileGroup group) throws IOException {
+        dos.writeInt(group.paths().length);
+        for (String file : group.paths())
+            dos.writeUTF(file);
+        dos.writeLong(group.checksum());
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (completedValues.containsKey(FINAL_UNIT))
+            return "inverted index complete";
+        if (numIndexes >= 0)
+            return numIndexes + " partial indexes, " + completedValues.size() + " units of the merge complete";
+        return committedRuns + " runs committed, " + inputDocs + " documents consumed, next docid " + nextDocid;
+    }
+}
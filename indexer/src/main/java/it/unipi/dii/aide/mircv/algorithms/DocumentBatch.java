@@ -0,0 +1,61 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.ProcessedDocument;
+
+import java.util.ArrayList;
+
+/**
+ * Batch of documents with consecutive docids sent to an inversion worker.
+ * Each batch belongs to a run, that is a contiguous range of docids inverted by the same worker.
+ */
+public class DocumentBatch {
+    /**
+     * Run the batch belongs to
+     */
+    private final int run;
+
+    /**
+     * Docid of the first document of the batch
+     */
+    private final int firstDocid;
+
+    /**
+     * Documents of the batch, the i-th document has docid firstDocid + i
+     */
+    private final ArrayList<ProcessedDocument> documents;
+
+    /**
+     * True if the batch is the last one of its run
+     */
+    private final boolean lastOfRun;
+
+    /**
+     * Constructor of the batch
+     * @param run the run the batch belongs to
+     * @param firstDocid the docid of the first document of the batch
+     * @param documents the documents of the batch
+     * @param lastOfRun true if the batch is the last one of its run
+     */
+    public DocumentBatch(int run, int firstDocid, ArrayList<ProcessedDocument> documents, boolean lastOfRun) {
+        this.run = run;
+        this.firstDocid = firstDocid;
+        this.documents = documents;
+        this.lastOfRun = lastOfRun;
+    }
+
+    public int getRun() {
+        return run;
+    }
+
+    public int getFirstDocid() {
+        return firstDocid;
+    }
+
+    public ArrayList<ProcessedDocument> getDocuments() {
+        return documents;
+    }
+
+    public boolean isLastOfRun() {
+        return lastOfRun;
+    }
+}
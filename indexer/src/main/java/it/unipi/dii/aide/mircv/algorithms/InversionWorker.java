@@ -0,0 +1,241 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.ProcessedDocument;
+import it.unipi.dii.aide.mircv.utils.StageStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Worker of the SPIMI algorithm: inverts the runs of documents assigned to it with its own in-memory index
+ * and flushes them in its own partial indexes.
+ * A full in-memory index is written by a background writer thread while the worker fills a new one.
+ * A run is a contiguous range of docids, so the partial indexes of a run can be ordered by docid
+ * with respect to the partial indexes of the other runs.
+ */
+public class InversionWorker implements Runnable {
+    /**
+     * Number of batches that can be waiting in the queue of the worker
+     */
+    private static final int QUEUE_CAPACITY = 8;
+
+    /**
+     * Batch used to stop the worker
+     */
+    private static final DocumentBatch STOP = new DocumentBatch(-1, -1, null, false);
+
+    /**
+     * Batches of documents to invert
+     */
+    private final BlockingQueue<DocumentBatch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Number of partial indexes written for each run, shared between all the workers
+     */
+    private final ConcurrentHashMap<Integer, Integer> partialsPerRun;
+
+    /**
+     * Bytes that the in-memory index can use before being flushed, even if the run is not complete
+     */
+    private final long memoryBudget;
+
+    /**
+     * Statistics of the inversion stage, shared between all the workers
+     */
+    private final StageStatistics inversionStats;
+
+    /**
+     * Flag enabling debug mode
+     */
+    private final boolean debug;
+
+    /**
+     * Checkpoint of the build, told when all the partial indexes of a run are written; null if the build has no checkpoint
+     */
+    private final BuildCheckpoint checkpoint;
+
+    /**
+     * In-memory index of the current run
+     */
+    private InvertedIndexBuffer index = new InvertedIndexBuffer();
+
+    /**
+     * Number of partial indexes written for the current run
+     */
+    private int numPartials = 0;
+
+    /**
+     * Thread writing the full in-memory indexes to disk
+     */
+    private final ExecutorService writer;
+
+    /**
+     * Write of the last full in-memory index, null if no write was started
+     */
+    private Future<Boolean> pendingWrite = null;
+
+    /**
+     * Flag set if the worker failed to write a partial index
+     */
+    private volatile boolean failed = false;
+
+    /**
+     * Constructor of the worker
+     * @param partialsPerRun map where the worker records how many partial indexes it wrote for each run
+     * @param memoryBudget bytes that the in-memory index can use before being flushed
+     * @param inversionStats statistics of the inversion stage
+     * @param debug flag enabling debug mode
+     * @param checkpoint checkpoint of the build, null if none
+     */
+    public InversionWorker(ConcurrentHashMap<Integer, Integer> partialsPerRun, long memoryBudget, StageStatistics inversionStats,
+                           boolean debug, BuildCheckpoint checkpoint) {
+        this.partialsPerRun = partialsPerRun;
+        this.memoryBudget = memoryBudget;
+        this.inversionStats = inversionStats;
+        this.debug = debug;
+        this.checkpoint = checkpoint;
+        this.writer = Executors.newSingleThreadExecutor(r -> new Thread(r, "partial-index-writer"));
+    }
+
+    /**
+     * Send a batch of documents to the worker, blocking if the worker is lagging behind
+     * @param batch the batch to invert
+     */
+    public void submit(DocumentBatch batch) throws InterruptedException {
+        queue.put(batch);
+    }
+
+    /**
+     * Stop the worker once all the submitted batches are inverted
+     */
+    public void stop() throws InterruptedException {
+        queue.put(STOP);
+    }
+
+    /**
+     * @return true if the worker failed to write a partial index
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    @Override
+    public void run() {
+        try {
+            DocumentBatch batch;
+            while ((batch = queue.take()) != STOP) {
+                // after a failure keep consuming the batches, so that the dispatcher never blocks
+                if (failed)
+                    continue;
+
+                try {
+                    invert(batch);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+
+            // wait for the last partial index to be written
+            waitPendingWrite();
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    /**
+     * Add the documents of a batch to the in-memory index, flushing it when it is full or the run is complete
+     * @param batch the batch to invert
+     */
+    private void invert(DocumentBatch batch) throws InterruptedException {
+        long start = System.nanoTime();
+        int docid = batch.getFirstDocid();
+        for (ProcessedDocument document : batch.getDocuments()) {
+            index.addDocument(docid, document.getTokens());
+            docid++;
+
+            // the in-memory index is full: flush the run up to now in a partial index
+            if (index.getMemoryUsage() >= memoryBudget)
+                flush(batch.getRun());
+        }
+        inversionStats.record(batch.getDocuments().size(), System.nanoTime() - start);
+
+        if (batch.isLastOfRun()) {
+            flush(batch.getRun());
+            partialsPerRun.put(batch.getRun(), numPartials);
+            if (checkpoint != null)
+                commitRun(batch.getRun(), numPartials);
+            numPartials = 0;
+        }
+    }
+
+    /**
+     * Tell the checkpoint that the partial indexes of a run are written. The writer thread runs its tasks in order,
+     * so the run is committed right after the write of its last partial index, if that write succeeded
+     * @param run the run
+     * @param runPartials the number of partial indexes of the run
+     */
+    private void commitRun(int run, int runPartials) {
+        List<String[]> partialFiles = new ArrayList<>(runPartials);
+        for (int p = 0; p < runPartials; p++)
+            partialFiles.add(Spimi.partialFiles(Spimi.partialSuffix(run, p)));
+
+        Future<Boolean> lastWrite = pendingWrite;
+        pendingWrite = writer.submit(() -> {
+            if (lastWrite != null && !lastWrite.get())
+                return false;
+            if (checkpoint.runWritten(run, partialFiles))
+                return true;
+
+            System.out.println("Error while saving the checkpoint of run " + run);
+            return false;
+        });
+    }
+
+    /**
+     * Wait for the write of the last full in-memory index, so that at most one index is waiting to be written
+     */
+    private void waitPendingWrite() throws InterruptedException {
+        if (pendingWrite == null)
+            return;
+
+        try {
+            if (!pendingWrite.get())
+                failed = true;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+        pendingWrite = null;
+    }
+
+    /**
+     * Hand the in-memory index to the writer thread, that saves it in a new partial index of the run,
+     * and start filling a new in-memory index
+     * @param run the run the in-memory index belongs to
+     */
+    private void flush(int run) throws InterruptedException {
+        if (index.isEmpty())
+            return;
+
+        // the previous index must be written before handing a new one, to respect the memory budget
+        waitPendingWrite();
+
+        InvertedIndexBuffer fullIndex = index;
+        String suffix = Spimi.partialSuffix(run, numPartials);
+        pendingWrite = writer.submit(() -> {
+            if (Spimi.saveIndexToDisk(fullIndex, suffix, debug))
+                return true;
+
+            System.out.println("Error while writing the partial index " + suffix + " to disk");
+            return false;
+        });
+
+        numPartials++;
+        index = new InvertedIndexBuffer();
+    }
+}
@@ -0,0 +1,124 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * In-memory index built by an inversion worker, keeping track of the exact number of bytes used by its postings.
+ * The terms are mapped to dense term IDs by a TermDictionary, and the posting lists are indexed by term ID.
+ */
+public class InvertedIndexBuffer {
+    /**
+     * Bytes used by a PostingsBuffer object besides its arrays: header, two references and three ints
+     */
+    private static final int POSTINGS_OBJECT_SIZE = 32;
+
+    /**
+     * Dictionary mapping the terms to their IDs
+     */
+    private final TermDictionary dictionary = new TermDictionary();
+
+    /**
+     * Posting lists of the terms, indexed by term ID
+     */
+    private PostingsBuffer[] postingLists = new PostingsBuffer[1024];
+
+    /**
+     * Number of postings in the index
+     */
+    private long numPostings = 0;
+
+    /**
+     * Bytes used by the arrays of the postings
+     */
+    private long postingsMemory = 0;
+
+    /**
+     * Add the postings of a document to the index
+     * @param docid the docid of the document
+     * @param tokens the tokens of the document
+     */
+    public void addDocument(int docid, ArrayList<String> tokens) {
+        int documentLength = tokens.size();
+
+        // For each term in the document
+        for (String term : tokens) {
+            if (term.isBlank())
+                continue;
+
+            int termId = dictionary.getOrAdd(term);
+
+            // If the term is not present in the index
+            if (termId == postingLists.length)
+                postingLists = Arrays.copyOf(postingLists, postingLists.length * 2);
+            PostingsBuffer postings = postingLists[termId];
+            if (postings == null) {
+                postings = new PostingsBuffer();
+                postingLists[termId] = postings;
+                postingsMemory += PostingsBuffer.initialMemoryUsage();
+            }
+
+            // Update or add the posting
+            int previousSize = postings.size();
+            postingsMemory += postings.addOccurrence(docid, documentLength);
+            numPostings += postings.size() - previousSize;
+        }
+    }
+
+    /**
+     * Sort the terms, once for the whole index
+     * @return the term IDs of the index in the lexicographic order of their terms
+     */
+    public int[] getSortedTermIds() {
+        return dictionary.getSortedIds();
+    }
+
+    /**
+     * @param termId the ID of a term
+     * @return the term
+     */
+    public String getTerm(int termId) {
+        return dictionary.getTerm(termId);
+    }
+
+    /**
+     * @param termId the ID of a term
+     * @return the postings of the term
+     */
+    public PostingsBuffer getPostings(int termId) {
+        return postingLists[termId];
+    }
+
+    public boolean isEmpty() {
+        return dictionary.size() == 0;
+    }
+
+    /**
+     * @return the number of terms in the index
+     */
+    public int size() {
+        return dictionary.size();
+    }
+
+    public long getNumPostings() {
+        return numPostings;
+    }
+
+    /**
+     * @return the number of bytes used by the index
+     */
+    public long getMemoryUsage() {
+        return getDictionaryMemory() + postingsMemory;
+    }
+
+    /**
+     * @return the number of bytes used by the dictionary of the terms and by the references to their posting lists
+     */
+    public long getDictionaryMemory() {
+        return dictionary.getMemoryUsage() + (long) postingLists.length * 8 + (long) dictionary.size() * POSTINGS_OBJECT_SIZE;
+    }
+
+    public long getPostingsMemory() {
+        return postingsMemory;
+    }
+}
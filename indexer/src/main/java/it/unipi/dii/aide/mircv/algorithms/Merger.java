@@ -1,23 +1,31 @@
 package it.unipi.dii.aide.mircv.algorithms;
 
 import it.unipi.dii.aide.mircv.beans.BlockDescriptor;
-import it.unipi.dii.aide.mircv.beans.Posting;
-import it.unipi.dii.aide.mircv.beans.PostingList;
 import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
-import it.unipi.dii.aide.mircv.compression.UnaryCompressor;
-import it.unipi.dii.aide.mircv.compression.VariableByteCompressor;
 import it.unipi.dii.aide.mircv.config.CollectionSize;
 import it.unipi.dii.aide.mircv.config.ConfigurationParams;
-
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.Iterator;
+import it.unipi.dii.aide.mircv.utils.ChannelReader;
+import it.unipi.dii.aide.mircv.utils.ChannelWriter;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Class that implements the merge of the intermediate posting lists during the SPIMI-Indexing algorithm
+ * Class that implements the merge of the intermediate posting lists during the SPIMI-Indexing algorithm.
+ * The terms are split in lexicographic ranges merged in parallel by TermRangeMerger, and the resulting segments
+ * are concatenated into the inverted index
  */
 public class Merger {
 
@@ -31,11 +39,6 @@ public class Merger {
      */
     private static long freqsMemOffset;
 
-    /**
-     * number of intermediate indexes produced by SPIMI algorithm
-     */
-    private static int numIndexes;
-
     /**
      * Standard pathname for partial index documents files
      */
@@ -72,446 +75,524 @@ public class Merger {
     private static String PATH_TO_BLOCK_DESCRIPTORS = ConfigurationParams.getBlockDescriptorsPath();
 
     /**
-     * Array used to point to the next vocabulary entry to process for each partial index
+     * Number of terms sampled from each partial vocabulary for every range, to choose the bounds of the ranges
      */
-    private static VocabularyEntry[] nextTerms = null;
+    private static final int SAMPLES_PER_RANGE = 256;
 
     /**
-     * memory offsets of last read vocabulary entry
+     * Memory shared by the buffers of the readers of the partial indexes, over all the ranges
      */
-    private static long[] vocEntryMemOffset = null;
-
-    private static FileChannel[] docidChannels = null;
+    private static final long READ_BUFFERS_MEMORY = 64L * 1024 * 1024;
 
-    private static FileChannel[] frequencyChannels = null;
     /**
-     * Method that initializes all the data structures:
-     * - setting openIndexes to the total number of indexes produced by SPIMI
-     * - initializing all the intermediate inverted index structures
+     * Minimum size of the buffer of a reader of the partial indexes: a merge reading more partial indexes
+     * with smaller buffers would jump among the files at every read
      */
-    private static boolean initialize() {
+    private static final int MIN_READ_BUFFER_SIZE = 16 * 1024;
 
-        // initialization of array of next vocabulary entries tp be processed
-        nextTerms = new VocabularyEntry[numIndexes];
-
-        // initialization of next memory offset to be read for each partial vocabulary
-        vocEntryMemOffset = new long[numIndexes];
+    /**
+     * Number of files kept open for each partial index being merged: vocabulary, docids and frequencies
+     */
+    private static final int FILES_PER_PARTIAL_INDEX = 3;
 
-        // initialize the array of the file channels
-        docidChannels = new FileChannel[numIndexes];
-        frequencyChannels = new FileChannel[numIndexes];
+    /**
+     * File descriptors left to the rest of the process: output files, jars, standard streams
+     */
+    private static final int RESERVED_FILE_DESCRIPTORS = 64;
 
-        freqsMemOffset = 0;
-        docsMemOffset = 0;
+    /**
+     * Files of a partial index, or of an intermediate run in the same format
+     * @param vocabularyPath path of the partial vocabulary
+     * @param docidsPath path of the docids
+     * @param frequenciesPath path of the frequencies
+     */
+    record PartialIndex(String vocabularyPath, String docidsPath, String frequenciesPath) {}
 
-        try {
-            for (int i = 0; i < numIndexes; i++) {
-                nextTerms[i] = new VocabularyEntry();
-                vocEntryMemOffset[i] = 0;
+    /**
+     * Files of an inverted index written by the merge
+     * @param vocabularyPath path of the vocabulary
+     * @param docidsPath path of the docids
+     * @param frequenciesPath path of the frequencies
+     * @param blockDescriptorsPath path of the block descriptors
+     */
+    record IndexFiles(String vocabularyPath, String docidsPath, String frequenciesPath, String blockDescriptorsPath) {}
 
-                // read first entry of the vocabulary
-                long ret = nextTerms[i].readFromDisk(vocEntryMemOffset[i], PATH_TO_PARTIAL_VOCABULARIES + "_" + i);
+    /**
+     * @param i the number of a partial index
+     * @return the files of the partial index
+     */
+    private static PartialIndex getPartialIndex(int i) {
+        return new PartialIndex(PATH_TO_PARTIAL_VOCABULARIES + "_" + i,
+                PATH_TO_PARTIAL_INDEXES_DOCS + "_" + i,
+                PATH_TO_PARTIAL_INDEXES_FREQS + "_" + i);
+    }
 
-                if (ret == -1 || ret == 0) {
-                    // error encountered during vocabulary entry reading operation
-                    // or read ended
-                    nextTerms[i] = null;
-                }
-                docidChannels[i] = (FileChannel) Files.newByteChannel(Paths.get(PATH_TO_PARTIAL_INDEXES_DOCS+ "_" + i),
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.READ,
-                        StandardOpenOption.CREATE
-                );
-
-                frequencyChannels[i] = (FileChannel) Files.newByteChannel(Paths.get(PATH_TO_PARTIAL_INDEXES_FREQS+ "_" + i),
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.READ,
-                        StandardOpenOption.CREATE
-                );
-            }
-            return true;
-        }catch(Exception e){
-            cleanUp();
-            e.printStackTrace();
-            return false;
-        }
+    /**
+     * @param output the files of the merged index
+     * @param pass the number of the merge pass
+     * @param r the number of the run written by the pass
+     * @return the files of the intermediate run, next to the files of the merged index
+     */
+    private static PartialIndex getRun(IndexFiles output, int pass, int r) {
+        String suffix = "_run" + pass + "_" + r;
+        return new PartialIndex(output.vocabularyPath() + suffix,
+                output.docidsPath() + suffix,
+                output.frequenciesPath() + suffix);
     }
 
     /**
-     * Return the minimum term of the terms to be processed in the intermediate indexes
-     * @return the next term to process
+     * Choose the maximum number of partial indexes merged together (the fan-in), so that the merge threads
+     * do not run out of file descriptors and every reader gets a buffer of at least MIN_READ_BUFFER_SIZE bytes.
+     * It can be fixed with the mergeFanIn parameter of the configuration
+     * @param numThreads the number of merge threads, each one reading its own partial indexes
+     * @return the fan-in, at least 2
      */
-    private static String getMinTerm() {
-        String term = null;
+    private static int computeFanIn(int numThreads) {
+        if (ConfigurationParams.getMergeFanIn() > 0)
+            return Math.max(2, ConfigurationParams.getMergeFanIn());
 
-        for (int i = 0; i < numIndexes; i++) {
+        long fanIn = READ_BUFFERS_MEMORY / ((long) numThreads * FILES_PER_PARTIAL_INDEX * MIN_READ_BUFFER_SIZE);
 
-            // check if there are still posting lists to be processed at intermediate index 'i'
-            if (nextTerms[i] == null)
-                continue;
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof UnixOperatingSystemMXBean unixOs) {
+            long freeDescriptors = unixOs.getMaxFileDescriptorCount() - unixOs.getOpenFileDescriptorCount() - RESERVED_FILE_DESCRIPTORS;
+            fanIn = Math.min(fanIn, freeDescriptors / ((long) numThreads * FILES_PER_PARTIAL_INDEX));
+        }
+        return (int) Math.max(2, Math.min(fanIn, Integer.MAX_VALUE));
+    }
 
-            // next term to be processed at the intermediate index 'i'
-            String nextTerm = nextTerms[i].getTerm();
+    /**
+     * Compute the size of the buffer of each reader, sharing the memory of the read buffers among all the readers
+     * @param numMergers the number of mergers running together
+     * @param numInputs the number of partial indexes read by each merger
+     * @return the size of the buffer in bytes
+     */
+    private static int computeReadBufferSize(int numMergers, int numInputs) {
+        return (int) Math.max(MIN_READ_BUFFER_SIZE, Math.min(ChannelReader.DEFAULT_BUFFER_SIZE,
+                READ_BUFFERS_MEMORY / ((long) numMergers * Math.max(numInputs, 1) * FILES_PER_PARTIAL_INDEX)));
+    }
 
-            if (term == null) {
-                term = nextTerm;
-                continue;
+    /**
+     * Choose the bounds of the ranges of terms merged in parallel. Each partial vocabulary is sampled at regular
+     * intervals, and the bounds are the sampled terms splitting the sampled postings in parts of equal weight,
+     * so that the ranges have about the same number of postings to merge
+     * @param inputs the partial indexes to merge
+     * @param numRanges the number of ranges
+     * @return the null-padded bytes of the first term of every range but the first one, in increasing order;
+     * fewer than numRanges - 1 bounds if the vocabularies are too small to be split
+     */
+    private static ArrayList<byte[]> computeRangeBounds(PartialIndex[] inputs, int numRanges) throws IOException {
+        ArrayList<byte[]> samples = new ArrayList<>();
+        ArrayList<Long> weights = new ArrayList<>();
+        long totalWeight = 0;
+
+        for (PartialIndex input : inputs) {
+            try (PartialVocabularyReader reader = new PartialVocabularyReader(input.vocabularyPath(), 1)) {
+                long numEntries = reader.getNumEntries();
+                long stride = Math.max(1, numEntries / ((long) SAMPLES_PER_RANGE * numRanges));
+
+                for (long entry = 0; entry < numEntries; entry += stride) {
+                    byte[] term = new byte[VocabularyEntry.TERM_SIZE];
+                    int df = reader.readEntryAt(entry, term);
+                    if (term[0] == 0)
+                        break;
+
+                    // the sample stands for the next stride terms, each one with its postings and its entry
+                    long weight = stride * ((long) df + 1);
+                    samples.add(term);
+                    weights.add(weight);
+                    totalWeight += weight;
+                }
             }
+        }
 
-            if (nextTerm.compareTo(term) < 0)
-                term = nextTerm;
+        // sort the samples by term, keeping their weights
+        Integer[] order = new Integer[samples.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (i, j) -> Arrays.compareUnsigned(samples.get(i), samples.get(j)));
+
+        ArrayList<byte[]> bounds = new ArrayList<>();
+        long cumulativeWeight = 0;
+        for (int i : order) {
+            // a new range starts when the weight of the previous ones reaches its share
+            if (cumulativeWeight * numRanges >= totalWeight * (bounds.size() + 1)) {
+                byte[] bound = samples.get(i);
+                if (bounds.isEmpty() || Arrays.compareUnsigned(bounds.get(bounds.size() - 1), bound) < 0)
+                    bounds.add(bound);
+                if (bounds.size() == numRanges - 1)
+                    break;
+            }
+            cumulativeWeight += weights.get(i);
         }
-        return term;
+        return bounds;
     }
 
     /**
-     * method to process a term in a parallelized way across all the intermediate indexes:
-     * - create the final posting list
-     * - create the vocabulary entry for the term
-     * - update term statistics in the vocabulary entry (side effect)
-     *
-     * @param termToProcess: term to be processed
-     * @param vocabularyEntry: vocabulary entry for new term
-     * @return posting list of the processed term
+     * The effective merging pipeline:
+     * - if there are more partial indexes than the fan-in, merges them in groups into intermediate runs,
+     *   pass after pass, until they are few enough to be merged together
+     * - splits the terms in lexicographic ranges, one for each merge thread
+     * - merges each range in parallel into its own segment files
+     * - concatenates the segments into the inverted index, rebasing their offsets
+     * @param compressionMode flag deciding whether to compress posting lists or not
+     * @param numIndexes number of partial vocabularies and partial indexes created
+     * @return true if the merging is complete, false otherwise
      */
-    private static PostingList processTerm(String termToProcess, VocabularyEntry vocabularyEntry) {
-        // new posting list for the term
-        PostingList finalList = new PostingList();
-        finalList.setTerm(termToProcess);
+    public static boolean mergeIndexes(int numIndexes, boolean compressionMode, boolean debugMode) {
+        return mergeIndexes(numIndexes, compressionMode, debugMode, null);
+    }
 
-        // processing the term
-        for (int i = 0; i < numIndexes; i++) {
+    /**
+     * Merge the partial indexes saving a checkpoint every time an intermediate run or a range of terms is complete:
+     * a merge resumed from the checkpoint skips them
+     * @param compressionMode flag deciding whether to compress posting lists or not
+     * @param numIndexes number of partial vocabularies and partial indexes created
+     * @param checkpoint the checkpoint of the build, null to merge without checkpoints
+     * @return true if the merging is complete, false otherwise
+     */
+    public static boolean mergeIndexes(int numIndexes, boolean compressionMode, boolean debugMode, BuildCheckpoint checkpoint) {
+        // the debug files are written in term order, so in debug mode the terms are merged by a single thread
+        int numThreads = debugMode ? 1 : ConfigurationParams.getMergeThreads();
 
-            // Found the matching term
-            if (nextTerms[i] != null && nextTerms[i].getTerm().equals(termToProcess)) {
+        // a resumed merge splits the terms in the same ranges
+        if (checkpoint != null)
+            numThreads = checkpoint.fixParameter("mergeThreads", numThreads);
 
-                // retrieve posting list from partial inverted index file
-                PostingList intermediatePostingList = loadList(nextTerms[i], i);
-                if(intermediatePostingList == null)
-                    return null;
+        PartialIndex[] inputs = new PartialIndex[numIndexes];
+        for (int i = 0; i < numIndexes; i++)
+            inputs[i] = getPartialIndex(i);
 
-                // update max docLen
-                vocabularyEntry.updateBM25Statistics(nextTerms[i].getBM25Tf(), nextTerms[i].getBM25Dl());
+        IndexFiles output = new IndexFiles(PATH_TO_VOCABULARY, PATH_TO_INVERTED_INDEX_DOCS, PATH_TO_INVERTED_INDEX_FREQS, PATH_TO_BLOCK_DESCRIPTORS);
+        long vocSize = mergeIndexes(inputs, output, numThreads, compressionMode, debugMode, checkpoint);
+        if (vocSize < 0)
+            return false;
 
-                //update vocabulary statistics
-                vocabularyEntry.updateStatistics(intermediatePostingList);
+        return CollectionSize.updateVocabularySize(vocSize);
+    }
 
-                // Append the posting list to the final posting list of the term
-                finalList.appendPostings(intermediatePostingList.getPostings());
-            }
-        }
+    /**
+     * Merge a set of indexes in the partial index format, in docid order, into an inverted index.
+     * Used both to build the index from the partial indexes and to merge the segments of the index
+     * @param inputs the indexes to merge, in docid order
+     * @param output the files of the merged index
+     * @param numThreads the number of merge threads
+     * @param compressionMode flag deciding whether to compress posting lists or not
+     * @param debugMode flag deciding whether to write the debug files
+     * @param checkpoint the checkpoint of the build, null to merge without checkpoints
+     * @return the number of terms of the merged vocabulary, -1 if the merge failed
+     */
+    static long mergeIndexes(PartialIndex[] inputs, IndexFiles output, int numThreads, boolean compressionMode, boolean debugMode,
+                             BuildCheckpoint checkpoint) {
 
-        // Update the nextList array with the next term to process
-        moveVocabulariesToNextTerm(termToProcess);
+        freqsMemOffset = 0;
+        docsMemOffset = 0;
 
-        // writing to vocabulary the space occupancy and memory offset of the posting list into
-        vocabularyEntry.setMemoryOffset((int) docsMemOffset);
-        vocabularyEntry.setFrequencyOffset(freqsMemOffset);
+        // the inverted index was written before the interruption
+        if (checkpoint != null && checkpoint.isCompleted(BuildCheckpoint.FINAL_UNIT)) {
+            docsMemOffset = new File(output.docidsPath()).length();
+            freqsMemOffset = new File(output.frequenciesPath()).length();
+            return checkpoint.getValue(BuildCheckpoint.FINAL_UNIT);
+        }
 
+        int fanIn = computeFanIn(numThreads);
+        if (checkpoint != null)
+            fanIn = checkpoint.fixParameter("fanIn", fanIn);
+
+        // merge the partial indexes in runs until they can be merged in a single pass
+        int pass = 0;
+        for (; inputs.length > fanIn; pass++) {
+            PartialIndex[] runs = mergeIntermediatePass(inputs, output, fanIn, numThreads, pass, checkpoint);
+            if (runs == null)
+                return -1;
+            if (pass > 0)
+                removeRuns(inputs, checkpoint, pass - 1);
+            inputs = runs;
+        }
 
-        // compute the final idf
-        vocabularyEntry.computeIdf();
-        // compute the term upper bounds
-        vocabularyEntry.computeUpperBounds();
+        long vocSize = mergeFinalPass(inputs, output, numThreads, compressionMode, debugMode, checkpoint);
+        if (pass > 0 && vocSize >= 0)
+            removeRuns(inputs, checkpoint, pass - 1);
+        return vocSize;
+    }
 
-        return finalList;
+    /**
+     * @param pass the number of a merge pass
+     * @param r the number of a run written by the pass
+     * @return the name of the run in the checkpoint
+     */
+    private static String getRunUnit(int pass, int r) {
+        return "pass" + pass + "_run" + r;
     }
 
     /**
-     * Method to read the next term in these vocabularies in which we had the last processed term
-     * @param processedTerm: last processed term, it is used to find which vocabularies must be read
+     * Wrap a merger in a task that records in the checkpoint the files it wrote, once it completes
+     * @param merger the merger
+     * @param checkpoint the checkpoint, null if none
+     * @param unit the name of the merger in the checkpoint
+     * @param files the files written by the merger
+     * @return the task
      */
-    private static void moveVocabulariesToNextTerm(String processedTerm) {
+    private static Callable<Boolean> checkpointed(TermRangeMerger merger, BuildCheckpoint checkpoint, String unit, String... files) {
+        if (checkpoint == null)
+            return merger;
 
-        // for each intermediate vocabulary
-        for(int i=0; i<numIndexes; i++){
-            // check if the last processed term was present in the i-th vocabulary
-            if(nextTerms[i] != null && nextTerms[i].getTerm().equals(processedTerm)) {
-                // last processed term was present
+        return () -> {
+            if (!merger.call())
+                return false;
+            if (checkpoint.completed(unit, merger.getVocSize(), files))
+                return true;
 
-                // update next memory offset to be read from the i-th vocabulary
-                vocEntryMemOffset[i] += VocabularyEntry.ENTRY_SIZE;
+            System.out.println("Error while saving the checkpoint of " + unit);
+            return false;
+        };
+    }
 
-                // read next vocabulary entry from the i-th vocabulary
-                long ret = nextTerms[i].readFromDisk(vocEntryMemOffset[i], PATH_TO_PARTIAL_VOCABULARIES+ "_" +i);
+    /**
+     * Merge groups of fanIn consecutive partial indexes into intermediate runs, in parallel.
+     * The groups are consecutive, so the runs are still in docid order
+     * @param inputs the partial indexes to merge
+     * @param output the files of the merged index, next to which the runs are written
+     * @param fanIn the number of partial indexes merged in each run
+     * @param numThreads the number of merge threads
+     * @param pass the number of the pass
+     * @param checkpoint the checkpoint of the build, null if none: the runs it records as complete are not merged again
+     * @return the runs, null if the merge failed
+     */
+    private static PartialIndex[] mergeIntermediatePass(PartialIndex[] inputs, IndexFiles output, int fanIn, int numThreads, int pass,
+                                                        BuildCheckpoint checkpoint) {
+        int numRuns = (inputs.length + fanIn - 1) / fanIn;
+        int numMergers = Math.min(numThreads, numRuns);
+        int readBufferSize = computeReadBufferSize(numMergers, fanIn);
+
+        System.out.println("Merge pass " + pass + ": merging " + inputs.length + " partial indexes in " + numRuns + " runs");
+
+        PartialIndex[] runs = new PartialIndex[numRuns];
+        List<Callable<Boolean>> mergers = new ArrayList<>();
+        for (int r = 0; r < numRuns; r++) {
+            runs[r] = getRun(output, pass, r);
+            if (checkpoint != null && checkpoint.isCompleted(getRunUnit(pass, r)))
+                continue;
 
-                // check if errors occurred while reading the vocabulary entry
-                if(ret == -1 || ret == 0){
-                    // read ended or an error occurred
-                    nextTerms[i] = null;
-                }
-            }
+            PartialIndex[] group = Arrays.copyOfRange(inputs, r * fanIn, Math.min(inputs.length, (r + 1) * fanIn));
+            TermRangeMerger merger = new TermRangeMerger(null, null, group, true, false, false, null, readBufferSize,
+                    runs[r].docidsPath(), runs[r].frequenciesPath(), null, runs[r].vocabularyPath());
+            mergers.add(checkpointed(merger, checkpoint, getRunUnit(pass, r),
+                    runs[r].vocabularyPath(), runs[r].docidsPath(), runs[r].frequenciesPath()));
         }
-    }
-
 
+        return runMergers(mergers, numMergers) ? runs : null;
+    }
 
     /**
-     * The effective merging pipeline:
-     * - finds the minimum term between the indexes
-     * - creates the whole posting list and the vocabulary entry for that term
-     * - stores them in memory
+     * Merge the partial indexes into the inverted index, splitting the terms in a range for each merge thread
+     * @param inputs the partial indexes to merge
+     * @param output the files of the merged index
+     * @param numThreads the number of merge threads
      * @param compressionMode flag deciding whether to compress posting lists or not
-     * @param numIndexes number of partial vocabularies and partial indexes created
-     * @return true if the merging is complete, false otherwise
+     * @param debugMode flag deciding whether to write the debug files
+     * @param checkpoint the checkpoint of the build, null if none: the ranges it records as complete are not merged again
+     * @return the number of terms of the merged vocabulary, -1 if the merge failed
      */
-    public static boolean mergeIndexes(int numIndexes, boolean compressionMode, boolean debugMode) {
-
-        Merger.numIndexes = numIndexes;
+    private static long mergeFinalPass(PartialIndex[] inputs, IndexFiles output, int numThreads, boolean compressionMode, boolean debugMode,
+                                       BuildCheckpoint checkpoint) {
+        String[] outputFiles = {output.vocabularyPath(), output.docidsPath(), output.frequenciesPath(), output.blockDescriptorsPath()};
 
-        // initialization operations
-        if(!initialize())
-            return false;
+        // the blocks are compressed by a pool shared by the ranges, while the merge threads keep reading postings
+        int compressionThreads = ConfigurationParams.getCompressionThreads();
+        ExecutorService encoders = (compressionMode && compressionThreads > 1) ? Executors.newFixedThreadPool(compressionThreads) : null;
 
-        //size of the vocabulary
-        long vocSize = 0;
+        try {
+            ArrayList<byte[]> bounds = (numThreads > 1) ? computeRangeBounds(inputs, numThreads) : new ArrayList<>();
+            int numRanges = bounds.size() + 1;
+            int readBufferSize = computeReadBufferSize(numRanges, inputs.length);
+
+            if (numRanges == 1) {
+                // a single range is written directly to the inverted index
+                TermRangeMerger merger = new TermRangeMerger(null, null, inputs, false, compressionMode, debugMode,
+                        encoders, readBufferSize, output.docidsPath(), output.frequenciesPath(),
+                        output.blockDescriptorsPath(), output.vocabularyPath());
+                if (!checkpointed(merger, checkpoint, BuildCheckpoint.FINAL_UNIT, outputFiles).call())
+                    return -1;
+
+                docsMemOffset = merger.getDocsMemOffset();
+                freqsMemOffset = merger.getFreqsMemOffset();
+                return merger.getVocSize();
+            }
 
-        // next memory offset where to write the next vocabulary entry
-        long vocMemOffset = 0;
-
-        // open file channels for vocabulary writes, docid and frequency writes, and block descriptor writes
-        try(FileChannel vocabularyChan = (FileChannel) Files.newByteChannel(
-                Paths.get(PATH_TO_VOCABULARY),
-                StandardOpenOption.WRITE,
-                StandardOpenOption.READ,
-                StandardOpenOption.CREATE);
-            FileChannel docidChan = (FileChannel) Files.newByteChannel(
-                    Paths.get(PATH_TO_INVERTED_INDEX_DOCS),
-                    StandardOpenOption.WRITE,
-                    StandardOpenOption.READ,
-                    StandardOpenOption.CREATE);
-            FileChannel frequencyChan = (FileChannel) Files.newByteChannel(
-                    Paths.get(PATH_TO_INVERTED_INDEX_FREQS),
-                    StandardOpenOption.WRITE,
-                    StandardOpenOption.READ,
-                    StandardOpenOption.CREATE);
-            FileChannel descriptorChan = (FileChannel) Files.newByteChannel(
-                    Paths.get(PATH_TO_BLOCK_DESCRIPTORS),
-                    StandardOpenOption.WRITE,
-                    StandardOpenOption.READ,
-                    StandardOpenOption.CREATE)
-        ) {
-            // open all the indexes in parallel and start merging their posting lists
-            while (true) {
-                // find next term to be processed (the minimum in lexicographical order)
-                String termToProcess = getMinTerm();
+            System.out.println("Merging " + inputs.length + " partial indexes in " + numRanges + " ranges of terms");
+
+            // merge every range in its own segment
+            TermRangeMerger[] mergers = new TermRangeMerger[numRanges];
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int k = 0; k < numRanges; k++) {
+                if (checkpoint != null && checkpoint.isCompleted(getRangeUnit(k, numRanges)))
+                    continue;
+
+                mergers[k] = new TermRangeMerger(
+                        (k == 0) ? null : bounds.get(k - 1),
+                        (k == numRanges - 1) ? null : bounds.get(k),
+                        inputs, false, compressionMode, false, encoders, readBufferSize,
+                        getSegmentPath(output.docidsPath(), k), getSegmentPath(output.frequenciesPath(), k),
+                        getSegmentPath(output.blockDescriptorsPath(), k), getSegmentPath(output.vocabularyPath(), k));
+                tasks.add(checkpointed(mergers[k], checkpoint, getRangeUnit(k, numRanges),
+                        getSegmentPath(output.vocabularyPath(), k), getSegmentPath(output.docidsPath(), k),
+                        getSegmentPath(output.frequenciesPath(), k), getSegmentPath(output.blockDescriptorsPath(), k)));
+            }
+            if (!runMergers(tasks, numRanges))
+                return -1;
 
-                if (termToProcess == null)
-                    break;
+            long[] vocSizes = new long[numRanges];
+            for (int k = 0; k < numRanges; k++)
+                vocSizes[k] = (mergers[k] != null) ? mergers[k].getVocSize() : checkpoint.getValue(getRangeUnit(k, numRanges));
 
-                // new vocabulary entry for the processed term
-                VocabularyEntry vocabularyEntry = new VocabularyEntry(termToProcess);
+            long vocSize = concatenateSegments(vocSizes, output);
+            if (vocSize >= 0 && checkpoint != null && !checkpoint.completed(BuildCheckpoint.FINAL_UNIT, vocSize, outputFiles))
+                return -1;
 
-                // merge the posting lists for the term to be processed
-                PostingList mergedPostingList = processTerm(termToProcess, vocabularyEntry);
+            removeSegments(output, numRanges);
+            return vocSize;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            if (encoders != null)
+                encoders.shutdown();
+        }
+    }
 
-                if(mergedPostingList == null){
-                    throw new Exception("ERROR: the merged posting list for the term " + termToProcess + " is null");
-                }
+    /**
+     * @param k the number of a range of terms
+     * @param numRanges the number of ranges
+     * @return the name of the range in the checkpoint
+     */
+    private static String getRangeUnit(int k, int numRanges) {
+        return "range" + k + "of" + numRanges;
+    }
 
-                // compute information about block descriptors for the posting list to be written
+    /**
+     * Run a set of mergers on a pool of threads
+     * @param mergers the mergers
+     * @param numThreads the number of threads
+     * @return true if all the mergers completed their merge
+     */
+    private static boolean runMergers(List<Callable<Boolean>> mergers, int numThreads) {
+        if (mergers.isEmpty())
+            return true;
 
-                vocabularyEntry.computeBlocksInformation();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            boolean success = true;
+            List<Future<Boolean>> results = executor.invokeAll(mergers);
+            for (Future<Boolean> result : results)
+                success &= result.get();
+            return success;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-                // compute maximal number of postings that can be stored in a block
-                int maxNumPostings = vocabularyEntry.getMaxNumberOfPostingsInBlock();
+    /**
+     * Remove the files of intermediate runs, once they are merged by the next pass
+     * @param runs the runs
+     * @param checkpoint the checkpoint of the build, where the runs stay complete without their files; null if none
+     * @param pass the number of the pass that wrote the runs
+     */
+    private static void removeRuns(PartialIndex[] runs, BuildCheckpoint checkpoint, int pass) {
+        if (checkpoint != null)
+            checkpoint.released("pass" + pass + "_");
+
+        for (PartialIndex run : runs) {
+            FileUtils.removeFile(run.vocabularyPath());
+            FileUtils.removeFile(run.docidsPath());
+            FileUtils.removeFile(run.frequenciesPath());
+        }
+    }
 
-                // create iterator over posting list to be written
-                Iterator<Posting> plIterator = mergedPostingList.getPostings().iterator();
+    /**
+     * @param path the path of a file of the inverted index
+     * @param k the number of the segment
+     * @return the path of the file of the segment
+     */
+    private static String getSegmentPath(String path, int k) {
+        return path + "_segment_" + k;
+    }
 
-                int numBlocks = vocabularyEntry.getNumBlocks();
+    /**
+     * Concatenate the segments written by the range mergers into the inverted index, in the order of their ranges.
+     * The docids and frequencies are copied as they are, while the offsets in the block descriptors and in the
+     * vocabulary entries are rebased on the position of their segment in the concatenated files
+     * @param vocSizes the number of terms of each segment, in the order of their ranges
+     * @param output the files of the merged index
+     * @return the number of terms of the merged vocabulary, -1 if the segments cannot be concatenated
+     */
+    private static long concatenateSegments(long[] vocSizes, IndexFiles output) {
+        long[] docBases = new long[vocSizes.length];
+        long[] freqBases = new long[vocSizes.length];
+        long[] blockBases = new long[vocSizes.length];
+        long vocSize = 0;
 
-                // save posting list on disk writing each block
-                for(int i=0; i< numBlocks; i++){
-                    // create a new block descriptor and update its information
+        try (ChannelWriter docidWriter = new ChannelWriter(output.docidsPath());
+             ChannelWriter frequencyWriter = new ChannelWriter(output.frequenciesPath());
+             ChannelWriter descriptorWriter = new ChannelWriter(output.blockDescriptorsPath());
+             ChannelWriter vocabularyWriter = new ChannelWriter(output.vocabularyPath())
+        ) {
+            for (int k = 0; k < vocSizes.length; k++) {
+                // the posting lists are copied without rebasing
+                docBases[k] = docidWriter.getPosition();
+                freqBases[k] = frequencyWriter.getPosition();
+                docidWriter.transferFrom(getSegmentPath(output.docidsPath(), k));
+                frequencyWriter.transferFrom(getSegmentPath(output.frequenciesPath(), k));
+
+                // the block descriptors point to the posting lists
+                blockBases[k] = descriptorWriter.getPosition();
+                try (ChannelReader descriptorReader = new ChannelReader(getSegmentPath(output.blockDescriptorsPath(), k))) {
                     BlockDescriptor blockDescriptor = new BlockDescriptor();
-                    blockDescriptor.setDocidOffset(docsMemOffset);
-                    blockDescriptor.setFreqOffset(freqsMemOffset);
-
-                    // number of postings written in the block
-                    int postingsInBlock = 0;
-
-                    int alreadyWrittenPostings = i*maxNumPostings;
-
-                    // number of postings to be written in the current block
-                    int nPostingsToBeWritten = (Math.min((mergedPostingList.getPostings().size() - alreadyWrittenPostings), maxNumPostings));
-
-                    if(compressionMode){
-                        // arrays where to store docids and frequencies to be written in current block
-                        int[] docids = new int[nPostingsToBeWritten];
-                        int[] freqs = new int[nPostingsToBeWritten];
-
-                        // initialize docids and freqs arrays
-                        while(true){
-                            // get next posting to be written to disk
-                            Posting currPosting = plIterator.next();
-                            docids[postingsInBlock] = currPosting.getDocid();
-                            freqs[postingsInBlock] = currPosting.getFrequency();
-
-                            postingsInBlock++;
-
-                            if (postingsInBlock == nPostingsToBeWritten){
-
-                                byte[] compressedDocs = VariableByteCompressor.integerArrayCompression(docids);
-                                byte[] compressedFreqs = UnaryCompressor.integerArrayCompression(freqs);
-
-                                try{
-                                    // instantiation of MappedByteBuffer for integer list of docids and for integer list of freqs
-                                    MappedByteBuffer docsBuffer = docidChan.map(FileChannel.MapMode.READ_WRITE, docsMemOffset, compressedDocs.length);
-                                    MappedByteBuffer freqsBuffer = frequencyChan.map(FileChannel.MapMode.READ_WRITE, freqsMemOffset, compressedFreqs.length);
-
-                                    // write compressed posting lists to disk
-                                    docsBuffer.put(compressedDocs);
-                                    freqsBuffer.put(compressedFreqs);
-
-                                    // update the size of the block
-                                    blockDescriptor.setDocidSize(compressedDocs.length);
-                                    blockDescriptor.setFreqSize(compressedFreqs.length);
-
-                                    // update the max docid of the block
-                                    blockDescriptor.setMaxDocid(currPosting.getDocid());
-
-                                    // update the number of postings in the block
-                                    blockDescriptor.setNumPostings(postingsInBlock);
-
-                                    // write the block descriptor on disk
-                                    blockDescriptor.saveBlockDescriptorOnDisk(descriptorChan);
-
-                                    docsMemOffset+=compressedDocs.length;
-                                    freqsMemOffset+=compressedFreqs.length;
-                                    break;
-
-                                } catch (Exception e) {
-                                    cleanUp();
-                                    e.printStackTrace();
-                                    return false;
-                                }
-                            }
-                        }
-                    } else {
-                        // posting list must not be compressed
-
-                        // set docs and freqs num bytes as (number of postings)*4
-                        blockDescriptor.setDocidSize(nPostingsToBeWritten*4);
-                        blockDescriptor.setFreqSize(nPostingsToBeWritten*4);
-
-                        // write postings to block
-                        try {
-                            // instantiation of MappedByteBuffer for integer list of docids and for integer list of freqs
-                            MappedByteBuffer docsBuffer = docidChan.map(FileChannel.MapMode.READ_WRITE, docsMemOffset, nPostingsToBeWritten* 4L);
-                            MappedByteBuffer freqsBuffer = frequencyChan.map(FileChannel.MapMode.READ_WRITE, freqsMemOffset, nPostingsToBeWritten* 4L);
-
-                            if (docsBuffer != null && freqsBuffer != null) {
-                                while (true) {
-                                    // get next posting to be written to disk
-                                    Posting currPosting = plIterator.next();
-
-                                    // encode docid and freq
-                                    docsBuffer.putInt(currPosting.getDocid());
-                                    freqsBuffer.putInt(currPosting.getFrequency());
-
-                                    // increment counter of number of postings written in the block
-                                    postingsInBlock++;
-
-                                    // check if currPosting is the last posting to be written in the current block
-                                    if (postingsInBlock == nPostingsToBeWritten) {
-                                        // update the max docid of the block
-                                        blockDescriptor.setMaxDocid(currPosting.getDocid());
-
-                                        // update the number of postings in the block
-                                        blockDescriptor.setNumPostings(postingsInBlock);
-
-                                        // write the block descriptor on disk
-                                        blockDescriptor.saveBlockDescriptorOnDisk(descriptorChan);
-                                        docsMemOffset+=nPostingsToBeWritten*4L;
-                                        freqsMemOffset+=nPostingsToBeWritten*4L;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                        catch (Exception e){
-                            cleanUp();
-                            e.printStackTrace();
-                        }
+                    while (descriptorReader.getPosition() < descriptorReader.size()) {
+                        blockDescriptor.readFromBuffer(descriptorReader.require(BlockDescriptor.BLOCK_DESCRIPTOR_ENTRY_BYTES));
+                        blockDescriptor.setDocidOffset(blockDescriptor.getDocidOffset() + docBases[k]);
+                        blockDescriptor.setFreqOffset(blockDescriptor.getFreqOffset() + freqBases[k]);
+                        blockDescriptor.writeToBuffer(descriptorWriter.reserve(BlockDescriptor.BLOCK_DESCRIPTOR_ENTRY_BYTES));
                     }
                 }
-                // save vocabulary entry on disk
-                vocMemOffset = vocabularyEntry.writeEntryToDisk(vocMemOffset, vocabularyChan);
-                vocSize++;
 
-                if(debugMode){
-                    mergedPostingList.debugSaveToDisk("debugDOCIDS.txt", "debugFREQS.txt", maxNumPostings);
-                    vocabularyEntry.debugSaveToDisk("debugVOCABULARY.txt");
+                // the vocabulary entries point to the posting lists and to the block descriptors
+                try (ChannelReader vocabularyReader = new ChannelReader(getSegmentPath(output.vocabularyPath(), k))) {
+                    VocabularyEntry vocabularyEntry = new VocabularyEntry();
+                    while (vocabularyReader.getPosition() < vocabularyReader.size()) {
+                        vocabularyEntry.readFromBuffer(vocabularyReader.require((int) VocabularyEntry.ENTRY_SIZE));
+                        vocabularyEntry.setMemoryOffset(vocabularyEntry.getDocidOffset() + docBases[k]);
+                        vocabularyEntry.setFrequencyOffset(vocabularyEntry.getFrequencyOffset() + freqBases[k]);
+                        vocabularyEntry.setBlockOffset(vocabularyEntry.getBlockOffset() + blockBases[k]);
+                        vocabularyEntry.writeToBuffer(vocabularyWriter.reserve((int) VocabularyEntry.ENTRY_SIZE));
+                    }
                 }
+                vocSize += vocSizes[k];
             }
 
-            cleanUp();
-            CollectionSize.updateVocabularySize(vocSize);
-            return true;
-        }catch(Exception e){
+            docsMemOffset = docidWriter.getPosition();
+            freqsMemOffset = frequencyWriter.getPosition();
+            return vocSize;
+        } catch (IOException e) {
             e.printStackTrace();
-            return false;
+            return -1;
         }
     }
 
     /**
-     * method to clean up the files:
-     * - remove partial indexes
-     * - remove partial vocabularies
+     * Remove the files of the segments
+     * @param output the files of the merged index
+     * @param numSegments the number of segments
      */
-    private static void cleanUp() {
-        try{
-            for(int i = 0; i < numIndexes; i++){
-                if(docidChannels[i] != null){
-                    docidChannels[i].close();
-                }
-                if (frequencyChannels[i] != null) {
-                    frequencyChannels[i].close();
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-
-    /**
-     * loads a partial posting list
-     * @param term  the term of the partial posting list
-     * @param index the partial index from which the list is read
-     * @return the partial posting list
-     */
-    private static PostingList loadList(VocabularyEntry term, int index) {
-        PostingList newList;
-
-        try {
-            // instantiation of MappedByteBuffer for integer list of docids
-            MappedByteBuffer docBuffer = docidChannels[index].map(
-                    FileChannel.MapMode.READ_ONLY,
-                    term.getDocidOffset(),
-                    term.getDocidSize()
-            );
-
-            // instantiation of MappedByteBuffer for integer list of frequencies
-            MappedByteBuffer freqBuffer = frequencyChannels[index].map(
-                    FileChannel.MapMode.READ_ONLY,
-                    term.getFrequencyOffset(),
-                    term.getFrequencySize()
-            );
-
-            // create the posting list for the term
-            newList = new PostingList(term.getTerm());
-
-            for (int i = 0; i < term.getDf(); i++) {
-                Posting posting = new Posting(docBuffer.getInt(), freqBuffer.getInt());
-                newList.getPostings().add(posting);
-            }
-            return newList;
-        } catch (Exception e) {
-            cleanUp();
-            e.printStackTrace();
-            return null;
+    private static void removeSegments(IndexFiles output, int numSegments) {
+        for (int k = 0; k < numSegments; k++) {
+            FileUtils.removeFile(getSegmentPath(output.docidsPath(), k));
+            FileUtils.removeFile(getSegmentPath(output.frequenciesPath(), k));
+            FileUtils.removeFile(getSegmentPath(output.blockDescriptorsPath(), k));
+            FileUtils.removeFile(getSegmentPath(output.vocabularyPath(), k));
         }
     }
 
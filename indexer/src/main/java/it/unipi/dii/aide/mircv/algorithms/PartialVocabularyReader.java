@@ -0,0 +1,278 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sequential reader of a partial vocabulary, used by the merge: the file is kept open and read ahead
+ * in large blocks, and the entries are decoded straight out of the block.
+ * The term is kept as its null-padded bytes and compared as bytes, so a String is created only
+ * for the terms that are actually processed.
+ */
+public class PartialVocabularyReader implements AutoCloseable {
+    /**
+     * Default number of entries read from the file at a time
+     */
+    public static final int DEFAULT_ENTRIES_PER_READ = 1024;
+
+    /**
+     * Size of the term in an entry
+     */
+    private static final int TERM_SIZE = VocabularyEntry.TERM_SIZE;
+
+    /**
+     * Channel of the partial vocabulary
+     */
+    private final FileChannel channel;
+
+    /**
+     * Block of entries read from the file and not yet decoded
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Bytes of the term of the current entry, padded with zeros
+     */
+    private final byte[] termBytes = new byte[TERM_SIZE];
+
+    /**
+     * Term of the current entry, created the first time it is requested
+     */
+    private String term = null;
+
+    /**
+     * Document frequency of the current entry
+     */
+    private int df;
+
+    /**
+     * Maximum term frequency of the current entry
+     */
+    private int maxTf;
+
+    /**
+     * BM25 document length of the current entry
+     */
+    private int BM25Dl;
+
+    /**
+     * BM25 term frequency of the current entry
+     */
+    private int BM25Tf;
+
+    /**
+     * Offset of the docids of the current entry
+     */
+    private long docidOffset;
+
+    /**
+     * Offset of the frequencies of the current entry
+     */
+    private long frequencyOffset;
+
+    /**
+     * Size of the docids of the current entry
+     */
+    private int docidSize;
+
+    /**
+     * Size of the frequencies of the current entry
+     */
+    private int frequencySize;
+
+    /**
+     * Open a partial vocabulary, positioned before its first entry
+     * @param path the path of the partial vocabulary
+     */
+    public PartialVocabularyReader(String path) throws IOException {
+        this(path, DEFAULT_ENTRIES_PER_READ);
+    }
+
+    /**
+     * Open a partial vocabulary, positioned before its first entry
+     * @param path the path of the partial vocabulary
+     * @param entriesPerRead the number of entries read from the file at a time
+     */
+    public PartialVocabularyReader(String path, int entriesPerRead) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        buffer = ByteBuffer.allocate((int) VocabularyEntry.ENTRY_SIZE * Math.max(1, entriesPerRead));
+        buffer.limit(0);
+    }
+
+    /**
+     * @return the number of entries of the vocabulary
+     */
+    public long getNumEntries() throws IOException {
+        return channel.size() / VocabularyEntry.ENTRY_SIZE;
+    }
+
+    /**
+     * Read the term and the document frequency of an entry, without moving the reader
+     * @param entry the number of the entry
+     * @param bytes the array where to store the null-padded bytes of the term
+     * @return the document frequency of the entry
+     */
+    public int readEntryAt(long entry, byte[] bytes) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(TERM_SIZE + Integer.BYTES);
+        long position = entry * VocabularyEntry.ENTRY_SIZE;
+        while (head.hasRemaining() && channel.read(head, position + head.position()) > 0);
+        head.flip();
+        head.get(bytes);
+        return head.getInt();
+    }
+
+    /**
+     * Move the reader before the first entry whose term is not smaller than the given one,
+     * with a binary search over the fixed-size entries
+     * @param bytes the null-padded bytes of the term
+     */
+    public void seek(byte[] bytes) throws IOException {
+        byte[] current = new byte[TERM_SIZE];
+        long low = 0;
+        long high = getNumEntries();
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            readEntryAt(middle, current);
+
+            // an empty term marks the end of the entries, so it comes after every term
+            if (current[0] != 0 && Arrays.compareUnsigned(current, bytes) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        channel.position(low * VocabularyEntry.ENTRY_SIZE);
+        buffer.limit(0);
+    }
+
+    /**
+     * Compare the term of the current entry with a term
+     * @param bytes the null-padded bytes of the term
+     * @return a negative number, zero or a positive number if the term of the current entry is smaller, equal or bigger
+     */
+    public int compareTerm(byte[] bytes) {
+        return Arrays.compareUnsigned(termBytes, bytes);
+    }
+
+    /**
+     * Move to the next entry of the vocabulary
+     * @return true if there is a next entry, false if the vocabulary is over
+     */
+    public boolean next() throws IOException {
+        if (buffer.remaining() < VocabularyEntry.ENTRY_SIZE && !fill())
+            return false;
+
+        buffer.get(termBytes);
+        term = null;
+
+        df = buffer.getInt();
+        buffer.getDouble(); // idf
+        maxTf = buffer.getInt();
+        BM25Dl = buffer.getInt();
+        BM25Tf = buffer.getInt();
+        buffer.getDouble(); // maxBM25
+        buffer.getDouble(); // maxTFIDF
+        docidOffset = buffer.getLong();
+        frequencyOffset = buffer.getLong();
+        docidSize = buffer.getInt();
+        frequencySize = buffer.getInt();
+        buffer.getInt(); // numBlocks
+        buffer.getLong(); // blockOffset
+
+        // an empty term marks the end of the entries
+        return termBytes[0] != 0;
+    }
+
+    /**
+     * Read the next block of entries
+     * @return true if a whole entry is available
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+        while (buffer.hasRemaining() && channel.read(buffer) > 0);
+        buffer.flip();
+        return buffer.remaining() >= VocabularyEntry.ENTRY_SIZE;
+    }
+
+    /**
+     * Compare the terms of the current entries of two readers, as unsigned bytes:
+     * the padding zeros make a prefix come first, as in String.compareTo for ASCII terms
+     * @param other the other reader
+     * @return a negative number, zero or a positive number if the term of this reader is smaller, equal or bigger
+     */
+    public int compareTerm(PartialVocabularyReader other) {
+        return Arrays.compareUnsigned(termBytes, other.termBytes);
+    }
+
+    /**
+     * @param bytes the null-padded bytes of a term
+     * @return true if the current entry has the term
+     */
+    public boolean hasTerm(byte[] bytes) {
+        return Arrays.equals(termBytes, bytes);
+    }
+
+    /**
+     * @return the null-padded bytes of the term of the current entry
+     */
+    public byte[] getTermBytes() {
+        return termBytes;
+    }
+
+    /**
+     * @return the term of the current entry
+     */
+    public String getTerm() {
+        if (term == null) {
+            int length = 0;
+            while (length < TERM_SIZE && termBytes[length] != 0)
+                length++;
+            term = new String(termBytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return term;
+    }
+
+    public int getDf() {
+        return df;
+    }
+
+    public int getMaxTf() {
+        return maxTf;
+    }
+
+    public int getBM25Dl() {
+        return BM25Dl;
+    }
+
+    public int getBM25Tf() {
+        return BM25Tf;
+    }
+
+    public long getDocidOffset() {
+        return docidOffset;
+    }
+
+    public long getFrequencyOffset() {
+        return frequencyOffset;
+    }
+
+    public int getDocidSize() {
+        return docidSize;
+    }
+
+    public int getFrequencySize() {
+        return frequencySize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
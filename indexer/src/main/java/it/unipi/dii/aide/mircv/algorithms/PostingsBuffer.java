@@ -0,0 +1,168 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.Posting;
+import it.unipi.dii.aide.mircv.beans.PostingList;
+
+/**
+ * Posting list of a term built during the inversion, stored in growable arrays of primitive ints
+ * instead of a list of Posting objects
+ */
+public class PostingsBuffer {
+    /**
+     * Initial capacity of the arrays: most of the terms appear in very few documents
+     */
+    private static final int INITIAL_CAPACITY = 2;
+
+    /**
+     * Bytes used by an int array besides its elements (object header and length)
+     */
+    static final int ARRAY_OVERHEAD = 16;
+
+    /**
+     * Docids of the postings
+     */
+    private int[] docids = new int[INITIAL_CAPACITY];
+
+    /**
+     * Frequencies of the postings
+     */
+    private int[] frequencies = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of postings in the buffer
+     */
+    private int size = 0;
+
+    /**
+     * variable used for computing the max doc length to insert in the vocabulary to compute the BM25 term upper bound
+     */
+    private int BM25Dl = 1;
+
+    /**
+     * The term frequency for the upper bound for BM25
+     */
+    private int BM25tf = 0;
+
+    /**
+     * Add an occurrence of the term in a document: if the document is the last one added its frequency is incremented,
+     * else a new posting with frequency 1 is appended
+     * @param docid the docid of the document
+     * @param documentLength the length of the document
+     * @return the number of bytes allocated to store the occurrence
+     */
+    public long addOccurrence(int docid, int documentLength) {
+        long allocated = 0;
+
+        if (size == 0 || docids[size - 1] != docid) {
+            // The document has not been processed
+            if (size == docids.length)
+                allocated = grow();
+
+            docids[size] = docid;
+            frequencies[size] = 0;
+            size++;
+        }
+        int frequency = ++frequencies[size - 1];
+
+        // the BM25 parameters depend only on the posting, so they do not change with the partitioning in runs
+        updateBM25Params(documentLength, frequency);
+        return allocated;
+    }
+
+    /**
+     * Grow the arrays by 50%
+     * @return the number of bytes added to the arrays
+     */
+    private long grow() {
+        int newCapacity = docids.length + (docids.length >> 1) + 1;
+        long allocated = 2L * (newCapacity - docids.length) * Integer.BYTES;
+
+        int[] newDocids = new int[newCapacity];
+        int[] newFrequencies = new int[newCapacity];
+        System.arraycopy(docids, 0, newDocids, 0, size);
+        System.arraycopy(frequencies, 0, newFrequencies, 0, size);
+        docids = newDocids;
+        frequencies = newFrequencies;
+
+        return allocated;
+    }
+
+    /**
+     * Update the max document length
+     * @param length the document length
+     * @param tf     the term frequency
+     */
+    private void updateBM25Params(int length, int tf) {
+        double currentRatio = (double) this.BM25tf / (double) (this.BM25Dl + this.BM25tf);
+        double newRatio = (double) tf / (double) (length + tf);
+        if (newRatio > currentRatio) {
+            this.BM25Dl = length;
+            this.BM25tf = tf;
+        }
+    }
+
+    /**
+     * @return the number of bytes used by a new buffer
+     */
+    public static long initialMemoryUsage() {
+        return 2L * (ARRAY_OVERHEAD + INITIAL_CAPACITY * Integer.BYTES);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getDocid(int i) {
+        return docids[i];
+    }
+
+    public int getFrequency(int i) {
+        return frequencies[i];
+    }
+
+    /**
+     * @return the array of the docids, valid up to size()
+     */
+    public int[] getDocids() {
+        return docids;
+    }
+
+    /**
+     * @return the array of the frequencies, valid up to size()
+     */
+    public int[] getFrequencies() {
+        return frequencies;
+    }
+
+    /**
+     * @return the max frequency of the term in the documents of the buffer
+     */
+    public int getMaxFrequency() {
+        int maxTf = 0;
+        for (int i = 0; i < size; i++)
+            maxTf = Math.max(maxTf, frequencies[i]);
+        return maxTf;
+    }
+
+    public int getBM25Dl() {
+        return BM25Dl;
+    }
+
+    public int getBM25tf() {
+        return BM25tf;
+    }
+
+    /**
+     * Convert the buffer to a posting list, used to write the debug files
+     * @param term the term of the posting list
+     * @return the posting list
+     */
+    public PostingList toPostingList(String term) {
+        PostingList list = new PostingList(term);
+        for (int i = 0; i < size; i++)
+            list.getPostings().add(new Posting(docids[i], frequencies[i]));
+        list.setBM25Dl(BM25Dl);
+        list.setBM25tf(BM25tf);
+        return list;
+    }
+}
@@ -0,0 +1,179 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.ProcessedDocument;
+import it.unipi.dii.aide.mircv.beans.TextDocument;
+import it.unipi.dii.aide.mircv.input.CollectionSource;
+import it.unipi.dii.aide.mircv.preprocess.Preprocesser;
+import it.unipi.dii.aide.mircv.utils.StageStatistics;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * Pipeline that reads the collection and preprocesses its documents in parallel:
+ * - the reader threads of the collection source read the lines of the collection in batches
+ * - a submitter thread hands the batches of lines to the workers
+ * - a pool of workers turns each batch of lines into a batch of processed documents
+ * - the consumer (the inversion stage of SPIMI) gets the processed documents in the same order of the collection
+ */
+public class PreprocessingPipeline implements AutoCloseable {
+    /**
+     * Number of batches that can be waiting for each worker before the reader blocks
+     */
+    private static final int BATCHES_PER_WORKER = 4;
+
+    /**
+     * Batch used to signal that the whole collection has been read
+     */
+    private static final ArrayList<ProcessedDocument> END_OF_COLLECTION = new ArrayList<>();
+
+    /**
+     * Source of the lines of the collection
+     */
+    private final CollectionSource source;
+
+    /**
+     * Pool of the preprocessing workers
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Batches submitted to the workers, in the same order of the collection
+     */
+    private final BlockingQueue<Future<ArrayList<ProcessedDocument>>> batches;
+
+    /**
+     * Thread submitting the batches of lines to the workers
+     */
+    private final Thread submitterThread;
+
+    /**
+     * Statistics of the preprocessing stage
+     */
+    private final StageStatistics preprocessingStats;
+
+    /**
+     * Batch currently consumed
+     */
+    private ArrayList<ProcessedDocument> currentBatch = null;
+
+    /**
+     * Position of the next document to return in the current batch
+     */
+    private int nextInBatch = 0;
+
+    /**
+     * Constructor of the pipeline
+     * @param source source of the lines of the collection, in the format [pid] \t [text] for each line
+     * @param numWorkers number of preprocessing workers
+     */
+    public PreprocessingPipeline(CollectionSource source, int numWorkers) {
+        this.source = source;
+        this.workers = Executors.newFixedThreadPool(numWorkers);
+        this.batches = new ArrayBlockingQueue<>(numWorkers * BATCHES_PER_WORKER);
+        this.preprocessingStats = new StageStatistics("Preprocessing", numWorkers);
+        this.submitterThread = new Thread(this::submitCollection, "batch-submitter");
+        this.submitterThread.setDaemon(true);
+    }
+
+    /**
+     * Start reading and preprocessing the collection
+     */
+    public void start() {
+        source.start();
+        submitterThread.start();
+    }
+
+    /**
+     * Body of the submitter thread: takes the batches of lines read by the source and submits them to the workers
+     */
+    private void submitCollection() {
+        try {
+            ArrayList<String> lines;
+            while ((lines = source.nextBatch()) != null)
+                submit(lines);
+
+            // signal the end of the collection
+            batches.put(CompletableFuture.completedFuture(END_OF_COLLECTION));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // the error is delivered to the consumer when it reaches this batch
+            try {
+                batches.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Submit a batch of lines to the workers, blocking if too many batches are waiting to be consumed
+     * @param lines the lines of the batch
+     */
+    private void submit(ArrayList<String> lines) throws InterruptedException {
+        batches.put(workers.submit(() -> preprocessBatch(lines)));
+    }
+
+    /**
+     * Body of a worker: preprocess a batch of lines
+     * @param lines the lines to preprocess
+     * @return the processed documents, in the same order of the lines
+     */
+    private ArrayList<ProcessedDocument> preprocessBatch(ArrayList<String> lines) {
+        long start = System.nanoTime();
+        ArrayList<ProcessedDocument> processed = new ArrayList<>(lines.size());
+
+        for (String line : lines) {
+            // Split the line into pid and text
+            String[] split = line.split("\t");
+
+            // Create a new document
+            TextDocument document = new TextDocument(split[0], split[1].replaceAll("[^\\x00-\\x7F]", ""));
+
+            // Perform text preprocessing on the document
+            processed.add(Preprocesser.preprocessDocument(document));
+        }
+        preprocessingStats.record(lines.size(), System.nanoTime() - start);
+        return processed;
+    }
+
+    /**
+     * Return the next processed document in the order of the collection
+     * @return the next processed document, null if all the documents were processed
+     * @throws Exception if an error occurred while reading or preprocessing the collection
+     */
+    public ProcessedDocument next() throws Exception {
+        while (currentBatch == null || nextInBatch == currentBatch.size()) {
+            if (currentBatch == END_OF_COLLECTION)
+                return null;
+
+            try {
+                currentBatch = batches.take().get();
+            } catch (ExecutionException e) {
+                // propagate the error raised by the reader or by the worker
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+            nextInBatch = 0;
+        }
+        return currentBatch.get(nextInBatch++);
+    }
+
+    public StageStatistics getReaderStats() {
+        return source.getReaderStats();
+    }
+
+    public StageStatistics getPreprocessingStats() {
+        return preprocessingStats;
+    }
+
+    /**
+     * Stop the readers, the submitter and the workers
+     */
+    @Override
+    public void close() {
+        source.close();
+        submitterThread.interrupt();
+        workers.shutdownNow();
+    }
+}
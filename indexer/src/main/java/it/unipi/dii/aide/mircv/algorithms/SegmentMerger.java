@@ -0,0 +1,334 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.BlockDescriptor;
+import it.unipi.dii.aide.mircv.beans.DeletedDocuments;
+import it.unipi.dii.aide.mircv.beans.DocumentIndexEntry;
+import it.unipi.dii.aide.mircv.beans.Segment;
+import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
+import it.unipi.dii.aide.mircv.compression.DocidGaps;
+import it.unipi.dii.aide.mircv.config.ConfigurationParams;
+import it.unipi.dii.aide.mircv.config.Flags;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
+import it.unipi.dii.aide.mircv.utils.ChannelReader;
+import it.unipi.dii.aide.mircv.utils.ChannelWriter;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Tiered merge policy of the segments of the index, run in background while the queries are processed.
+ * A segment belongs to the tier given by the order of magnitude of its number of documents, in base
+ * segmentMergeFactor: as soon as segmentMergeFactor adjacent segments are in the same tier, they are merged
+ * in a new segment of the next tier. Every document is then merged O(log n) times, and the number of
+ * segments stays logarithmic in the size of the index. The postings of the deleted documents are removed by the merge.
+ * The merged segment replaces its inputs in the manifest in a single step, so the queries never wait for a merge
+ */
+public class SegmentMerger {
+    /**
+     * Milliseconds between two checks of the segments by the background merger
+     */
+    private static final long POLL_INTERVAL = 10000;
+
+    /**
+     * Thread of the background merges, null if not started
+     */
+    private static Thread mergerThread = null;
+
+    /**
+     * Start the background merges of the segments, unless they are disabled by a segmentMergeFactor of 1
+     */
+    public static synchronized void startBackgroundMerges() {
+        if (mergerThread != null || ConfigurationParams.getSegmentMergeFactor() < 2)
+            return;
+
+        mergerThread = new Thread(SegmentMerger::mergeLoop, "segment-merger");
+        mergerThread.setDaemon(true);
+        mergerThread.start();
+    }
+
+    /**
+     * Loop of the background merger: merge the segments as long as there is something to merge,
+     * then wait for new segments
+     */
+    private static void mergeLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                while (mergeNext())
+                    ;
+                Thread.sleep(POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Merge the first group of segments selected by the merge policy
+     * @return true if a group of segments was merged, false if there is nothing to merge or the merge failed
+     */
+    public static boolean mergeNext() {
+        List<Segment> segments = SegmentManifest.readSegments();
+        if (segments == null)
+            return false;
+
+        List<Segment> inputs = findMerge(segments, ConfigurationParams.getSegmentMergeFactor());
+        if (inputs == null)
+            return false;
+
+        return mergeSegments(inputs);
+    }
+
+    /**
+     * Find the first window of mergeFactor adjacent segments in the same tier
+     * @param segments the live segments, in docid order
+     * @param mergeFactor the number of segments of a tier merged together
+     * @return the segments to merge, null if no tier is full
+     */
+    static List<Segment> findMerge(List<Segment> segments, int mergeFactor) {
+        if (mergeFactor < 2)
+            return null;
+
+        int start = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            // a window ends at the end of the list or at the first segment of another tier
+            if (i == segments.size() || getTier(segments.get(i), mergeFactor) != getTier(segments.get(start), mergeFactor)) {
+                if (i - start >= mergeFactor)
+                    return segments.subList(start, start + mergeFactor);
+                start = i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param segment a segment
+     * @param mergeFactor the number of segments of a tier merged together
+     * @return the tier of the segment, the order of magnitude of its number of live documents in base mergeFactor:
+     * a segment with many deleted documents moves to a lower tier, where it is merged sooner
+     */
+    private static int getTier(Segment segment, int mergeFactor) {
+        return (int) Math.floor(Math.log(Math.max(1, segment.getNumLiveDocs())) / Math.log(mergeFactor));
+    }
+
+    /**
+     * Merge adjacent segments in a new segment, replacing them in the manifest.
+     * The segments are read as partial indexes by the merge: an uncompressed segment is already in that format,
+     * while the posting lists of a compressed segment, or of a segment with deleted documents, are copied first
+     * in temporary files, decompressing them and dropping the postings of the deleted documents
+     * @param inputs the segments to merge, adjacent and in docid order
+     * @return true if the segments are merged
+     */
+    public static boolean mergeSegments(List<Segment> inputs) {
+        String name = SegmentManifest.createSegmentDirectory();
+        if (name == null)
+            return false;
+
+        System.out.println("Merging segments " + inputs + " in " + name);
+        long start = System.currentTimeMillis();
+
+        boolean compressionMode = Flags.isCompressionEnabled();
+        int numDocs = 0;
+        for (Segment input : inputs)
+            numDocs += input.getNumDocs();
+
+        // the merged segment, with the size of its vocabulary still unknown; its deleted documents are set when it replaces the inputs
+        Segment merged = new Segment(name, inputs.get(0).getFirstDocid(), numDocs, 0, 0, 0);
+
+        // the documents deleted when the merge starts are removed from the merged segment
+        DeletedDocuments[] deletedDocuments = new DeletedDocuments[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            deletedDocuments[i] = DeletedDocuments.loadFromDisk(inputs.get(i));
+            if (deletedDocuments[i] == null) {
+                FileUtils.deleteDirectory(merged.getDirectory());
+                return false;
+            }
+        }
+
+        Merger.PartialIndex[] partials = new Merger.PartialIndex[inputs.size()];
+        boolean[] copied = new boolean[inputs.size()];
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                copied[i] = compressionMode || !deletedDocuments[i].isEmpty();
+                partials[i] = copied[i] ? copySegment(inputs.get(i), merged.getDirectory() + "/input_" + i, compressionMode, deletedDocuments[i])
+                        : asPartialIndex(inputs.get(i));
+            }
+
+            Merger.IndexFiles output = new Merger.IndexFiles(merged.getVocabularyPath(), merged.getDocidsPath(),
+                    merged.getFrequenciesPath(), merged.getBlockDescriptorsPath());
+            long vocSize = Merger.mergeIndexes(partials, output, 1, compressionMode, false, null);
+            if (vocSize < 0) {
+                System.out.println("Error while merging the segments");
+                FileUtils.deleteDirectory(merged.getDirectory());
+                return false;
+            }
+
+            // the documents of the segments are already in docid order
+            try (ChannelWriter documentIndexWriter = new ChannelWriter(merged.getDocumentIndexPath())) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    if (deletedDocuments[i].isEmpty())
+                        documentIndexWriter.transferFrom(inputs.get(i).getDocumentIndexPath());
+                    else
+                        copyDocumentIndex(inputs.get(i), deletedDocuments[i], documentIndexWriter);
+                }
+            }
+
+            // the flags of the index are published with the merged segment, as they are on disk
+            Files.copy(Paths.get(Flags.getFlagsPath(inputs.get(0))), Paths.get(merged.getFlagsPath()));
+
+            merged = new Segment(name, merged.getFirstDocid(), numDocs, 0, 0, vocSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            FileUtils.deleteDirectory(merged.getDirectory());
+            return false;
+        } finally {
+            for (int i = 0; i < inputs.size(); i++)
+                if (copied[i])
+                    removePartialIndex(partials[i]);
+        }
+
+        if (!SegmentManifest.replaceSegments(inputs, merged)) {
+            FileUtils.deleteDirectory(merged.getDirectory());
+            return false;
+        }
+
+        System.out.println("Segments merged in " + (System.currentTimeMillis() - start) + " ms");
+        return true;
+    }
+
+    /**
+     * @param segment an uncompressed segment
+     * @return the files of the segment, read as a partial index: the postings of a term are contiguous ints
+     */
+    private static Merger.PartialIndex asPartialIndex(Segment segment) {
+        return new Merger.PartialIndex(segment.getVocabularyPath(), segment.getDocidsPath(), segment.getFrequenciesPath());
+    }
+
+    /**
+     * Copy the posting lists of a segment in a partial index, decompressing them if the index is compressed and
+     * dropping the postings of the deleted documents. The statistics used for the term upper bounds are kept:
+     * they can only overestimate the scores of the remaining postings.
+     * The vocabulary, the block descriptors and the posting lists are all in term order, so every file is read sequentially
+     * @param segment the segment
+     * @param path the prefix of the files of the partial index
+     * @param compressionMode true if the segment is compressed
+     * @param deletedDocuments the deleted documents of the segment
+     * @return the files of the partial index
+     */
+    private static Merger.PartialIndex copySegment(Segment segment, String path, boolean compressionMode,
+                                                   DeletedDocuments deletedDocuments) throws IOException {
+        Merger.PartialIndex partial = new Merger.PartialIndex(path + "_vocabulary", path + "_docids", path + "_freqs");
+
+        try (ChannelReader vocabularyReader = new ChannelReader(segment.getVocabularyPath());
+             ChannelReader descriptorReader = new ChannelReader(segment.getBlockDescriptorsPath());
+             ChannelReader docidReader = new ChannelReader(segment.getDocidsPath());
+             ChannelReader frequencyReader = new ChannelReader(segment.getFrequenciesPath());
+             ChannelWriter vocabularyWriter = new ChannelWriter(partial.vocabularyPath());
+             ChannelWriter docidWriter = new ChannelWriter(partial.docidsPath());
+             ChannelWriter frequencyWriter = new ChannelWriter(partial.frequenciesPath())
+        ) {
+            VocabularyEntry vocabularyEntry = new VocabularyEntry();
+            BlockDescriptor blockDescriptor = new BlockDescriptor();
+
+            // scratch space of the blocks, grown to the largest block
+            int[] docids = new int[0];
+            int[] freqs = new int[0];
+            byte[] compressedDocids = new byte[0];
+            byte[] compressedFreqs = new byte[0];
+
+            for (long i = 0; i < segment.getVocabularySize(); i++) {
+                vocabularyEntry.readFromBuffer(vocabularyReader.require((int) VocabularyEntry.ENTRY_SIZE));
+
+                // the entry of the partial index points to the copied postings
+                vocabularyEntry.setMemoryOffset(docidWriter.getPosition());
+                vocabularyEntry.setFrequencyOffset(frequencyWriter.getPosition());
+                int df = 0;
+
+                descriptorReader.seek(vocabularyEntry.getBlockOffset());
+                int previousMaxDocid = 0;
+                for (int b = 0; b < vocabularyEntry.getNumBlocks(); b++) {
+                    blockDescriptor.readFromBuffer(descriptorReader.require(BlockDescriptor.BLOCK_DESCRIPTOR_ENTRY_BYTES));
+
+                    int numPostings = blockDescriptor.getNumPostings();
+                    if (docids.length < numPostings) {
+                        docids = new int[numPostings];
+                        freqs = new int[numPostings];
+                    }
+                    docidReader.seek(blockDescriptor.getDocidOffset());
+                    frequencyReader.seek(blockDescriptor.getFreqOffset());
+                    if (compressionMode) {
+                        if (compressedDocids.length < blockDescriptor.getDocidSize())
+                            compressedDocids = new byte[blockDescriptor.getDocidSize()];
+                        if (compressedFreqs.length < blockDescriptor.getFreqSize())
+                            compressedFreqs = new byte[blockDescriptor.getFreqSize()];
+                        docidReader.readBytes(compressedDocids, 0, blockDescriptor.getDocidSize());
+                        frequencyReader.readBytes(compressedFreqs, 0, blockDescriptor.getFreqSize());
+                        Flags.getDocidCodec().decode(compressedDocids, 0, blockDescriptor.getDocidSize(), docids, numPostings);
+                        Flags.getFrequencyCodec().decode(compressedFreqs, 0, blockDescriptor.getFreqSize(), freqs, numPostings);
+                        if (Flags.getFormatVersion() >= Flags.DOCID_GAPS_FORMAT)
+                            DocidGaps.fromGaps(docids, numPostings, previousMaxDocid);
+                    } else {
+                        docidReader.readInts(docids, 0, numPostings);
+                        frequencyReader.readInts(freqs, 0, numPostings);
+                    }
+                    previousMaxDocid = blockDescriptor.getMaxDocid();
+
+                    // keep only the postings of the documents that are not deleted
+                    int kept = 0;
+                    for (int p = 0; p < numPostings; p++) {
+                        if (deletedDocuments.isDeleted(docids[p]))
+                            continue;
+                        docids[kept] = docids[p];
+                        freqs[kept] = freqs[p];
+                        kept++;
+                    }
+                    docidWriter.writeInts(docids, 0, kept);
+                    frequencyWriter.writeInts(freqs, 0, kept);
+                    df += kept;
+                }
+
+                // a term appearing only in deleted documents leaves the vocabulary
+                if (df == 0)
+                    continue;
+
+                vocabularyEntry.setDf(df);
+                vocabularyEntry.setDocidSize((int) (docidWriter.getPosition() - vocabularyEntry.getDocidOffset()));
+                vocabularyEntry.setFrequencySize((int) (frequencyWriter.getPosition() - vocabularyEntry.getFrequencyOffset()));
+                vocabularyEntry.writeToBuffer(vocabularyWriter.reserve((int) VocabularyEntry.ENTRY_SIZE));
+            }
+        }
+        return partial;
+    }
+
+    /**
+     * Copy the document index of a segment, dropping the entries of the deleted documents
+     * @param segment the segment
+     * @param deletedDocuments the deleted documents of the segment
+     * @param documentIndexWriter the writer of the document index of the merged segment
+     */
+    private static void copyDocumentIndex(Segment segment, DeletedDocuments deletedDocuments, ChannelWriter documentIndexWriter) throws IOException {
+        try (ChannelReader reader = new ChannelReader(segment.getDocumentIndexPath())) {
+            DocumentIndexEntry entry = new DocumentIndexEntry();
+            while (reader.getPosition() < reader.size()) {
+                entry.readFromBuffer(reader.require(DocumentIndexEntry.ENTRY_SIZE));
+                if (!deletedDocuments.isDeleted(entry.getDocid()))
+                    entry.writeToBuffer(documentIndexWriter.reserve(DocumentIndexEntry.ENTRY_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Remove the files of a temporary partial index
+     * @param partial the partial index, null if it was not created
+     */
+    private static void removePartialIndex(Merger.PartialIndex partial) {
+        if (partial == null)
+            return;
+
+        FileUtils.removeFile(partial.vocabularyPath());
+        FileUtils.removeFile(partial.docidsPath());
+        FileUtils.removeFile(partial.frequenciesPath());
+    }
+}
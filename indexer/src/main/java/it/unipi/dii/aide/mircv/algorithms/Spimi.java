@@ -3,24 +3,20 @@ package it.unipi.dii.aide.mircv.algorithms;
 import it.unipi.dii.aide.mircv.beans.*;
 import it.unipi.dii.aide.mircv.config.CollectionSize;
 import it.unipi.dii.aide.mircv.config.ConfigurationParams;
+import it.unipi.dii.aide.mircv.config.Flags;
+import it.unipi.dii.aide.mircv.input.CollectionSource;
 import it.unipi.dii.aide.mircv.preprocess.Preprocesser;
+import it.unipi.dii.aide.mircv.utils.ChannelWriter;
 import it.unipi.dii.aide.mircv.utils.FileUtils;
-
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import it.unipi.dii.aide.mircv.utils.StageStatistics;
 
 import java.io.*;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Spimi {
     // Path to the file on Disk storing processed collections
@@ -50,43 +46,79 @@ public class Spimi {
     // Counter for the partial indexes created
     private static int numIndex = 0;
 
-    /*
-    counts the number of partial indexes to write
+    /**
+     * Number of documents sent to an inversion worker at a time
      */
-    private static long numPostings = 0;
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Estimated bytes used by a posting in the in-memory index: 8 bytes for docid and frequency,
+     * plus the slack of the arrays and the terms of the dictionary
+     */
+    private static final int POSTING_SIZE_ESTIMATE = 12;
 
 
     /**
      * @param compressed  flag for compressed reading
-     * @return buffer reader
-     * initializes the buffer from which the entries are read
+     * @return source of the lines of the collection
+     * opens the collection, plain or compressed according to the flag: the format is recognized from the extension
      * */
-    private static BufferedReader initializeBuffer(boolean compressed) throws IOException{
-            if (compressed) {
-                TarArchiveInputStream tarIn = new TarArchiveInputStream(new GzipCompressorInputStream(new FileInputStream(PATH_TO_COMPRESSED_COLLECTION)));
-                tarIn.getNextTarEntry();
-                return new BufferedReader(new InputStreamReader(tarIn, StandardCharsets.UTF_8));
-        }
-        return Files.newBufferedReader(Paths.get(PATH_TO_COLLECTION), StandardCharsets.UTF_8);
+    private static CollectionSource openCollection(boolean compressed) throws IOException {
+        CollectionSource source = new CollectionSource(compressed ? PATH_TO_COMPRESSED_COLLECTION : PATH_TO_COLLECTION,
+                ConfigurationParams.getReaderThreads());
+        System.out.println("Reading a " + source.getFormat() + " collection with " + source.getNumReaders() + " reader threads");
+        return source;
     }
 
     /**
      * deletes directories containing partial data structures and document Index file
+     * @param documentIndexPath path of the document index being written
      */
-    private static void rollback(){
+    private static void rollback(String documentIndexPath){
         FileUtils.deleteDirectory(ConfigurationParams.getDocidsDir());
         FileUtils.deleteDirectory(ConfigurationParams.getFrequencyDir());
         FileUtils.deleteDirectory(ConfigurationParams.getPartialVocabularyDir());
-        FileUtils.removeFile(ConfigurationParams.getDocumentIndexPath());
+        FileUtils.removeFile(documentIndexPath);
+    }
+
+    /**
+     * Compute the suffix of the files of a partial index written while inverting a run
+     * @param run the run inverted
+     * @param partial the number of the partial index in the run
+     * @return the suffix of the files
+     */
+    static String partialSuffix(int run, int partial) {
+        return "_" + run + "_" + partial;
+    }
+
+    /**
+     * @param suffix the suffix of the files of a partial index
+     * @return the paths of the docids, frequencies and vocabulary of the partial index
+     */
+    static String[] partialFiles(String suffix) {
+        return new String[] {PATH_TO_PARTIAL_DOCID + suffix, PATH_TO_PARTIAL_FREQUENCIES + suffix, PATH_TO_PARTIAL_VOCABULARY + suffix};
+    }
+
+    /**
+     * Describe the collection to index, so that a build resumes only on the same collection
+     * @param compressed flag for compressed reading
+     * @return the path, the size and the time of the last change of the collection
+     */
+    public static String describeCollection(boolean compressed) {
+        File collection = new File(compressed ? PATH_TO_COMPRESSED_COLLECTION : PATH_TO_COLLECTION);
+        return collection.getPath() + ":" + collection.length() + ":" + collection.lastModified();
     }
 
     /**
      * writes the partial index on file
      * @param index: partial index that must be saved onto file
-     * @return
+     * @param suffix: suffix of the files of the partial index
+     * @param debugMode: flag enabling debug mode
+     * @return true if the partial index was written correctly
      */
-    private static boolean saveIndexToDisk(HashMap<String, PostingList> index, boolean debugMode) {
-        System.out.println("Saving index:" + numIndex +  " of size: " +index.size()+ " to disk");
+    static boolean saveIndexToDisk(InvertedIndexBuffer index, String suffix, boolean debugMode) {
+        System.out.println("Saving index:" + suffix +  " of size: " +index.size()+ " to disk (dictionary: " +
+                index.getDictionaryMemory() + " bytes, postings: " + index.getPostingsMemory() + " bytes)");
 
         // If index is empty, then there is nothing to write.
         if (index.isEmpty()) {
@@ -94,71 +126,42 @@ public class Spimi {
             return true;
         }
 
-        // Sort the index in lexicographic order
-        index = index.entrySet()
-                .stream()
-                .sorted(Map.Entry.comparingByKey())
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (e1, e2) -> e1, LinkedHashMap::new));
+        // Sort the terms of the index in lexicographic order
+        int[] termIds = index.getSortedTermIds();
+        long numPostings = index.getNumPostings();
 
-        // Try to open a file channel of the inverted index
+        // Write the files through large direct buffers, so that their size is not limited to 2GB as a mapped buffer
         try (
-                FileChannel docsFChannel = (FileChannel) Files.newByteChannel(
-                        Paths.get(PATH_TO_PARTIAL_DOCID + "_" + numIndex),
-                        StandardOpenOption.READ,
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE);
-                FileChannel freqFChannel = (FileChannel) Files.newByteChannel(
-                        Paths.get(PATH_TO_PARTIAL_FREQUENCIES + "_" + numIndex),
-                        StandardOpenOption.READ,
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE);
-                FileChannel vocabFChannel = (FileChannel) Files.newByteChannel(
-                        Paths.get(PATH_TO_PARTIAL_VOCABULARY + "_" + numIndex),
-                        StandardOpenOption.READ,
-                        StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE);
+                ChannelWriter docsWriter = new ChannelWriter(PATH_TO_PARTIAL_DOCID + suffix);
+                ChannelWriter freqsWriter = new ChannelWriter(PATH_TO_PARTIAL_FREQUENCIES + suffix);
+                ChannelWriter vocabWriter = new ChannelWriter(PATH_TO_PARTIAL_VOCABULARY + suffix)
         ) {
-            // Write the index to disk
-            MappedByteBuffer docsBuffer = docsFChannel.map(FileChannel.MapMode.READ_WRITE, 0, numPostings * 4L);
-
-            MappedByteBuffer freqsBuffer = freqFChannel.map(FileChannel.MapMode.READ_WRITE, 0, numPostings * 4L);
-
-            long vocOffset = 0;
-            // Check if mappedBytesBuffers are correctly instantiated
-            if (docsBuffer != null || freqsBuffer != null) {
-                for (PostingList list : index.values()) {
-                    //create vocabulary entry
-                    VocabularyEntry vocEntry = new VocabularyEntry(list.getTerm());
-                    vocEntry.setMemoryOffset(docsBuffer.position());
-                    vocEntry.setFrequencyOffset(docsBuffer.position());
-
-                    // write postings to file
-                    for (Posting posting : list.getPostings()) {
-                        // encode docid
-                        docsBuffer.putInt(posting.getDocid());
-                        // encode freq
-                        freqsBuffer.putInt(posting.getFrequency());
-                    }
-                    vocEntry.updateStatistics(list);
-                    vocEntry.setBM25Dl(list.getBM25Dl());
-                    vocEntry.setBM25Tf(list.getBM25tf());
-                    vocEntry.setDocidSize((int) (numPostings*4));
-                    vocEntry.setFrequencySize((int) (numPostings*4));
-
-                    vocOffset = vocEntry.writeEntryToDisk(vocOffset, vocabFChannel);
-                    if(debugMode){
-                        list.debugSaveToDisk("partialDOCIDS_"+numIndex+".txt", "partialFREQS_"+numIndex+".txt", (int) numPostings);
-                        vocEntry.debugSaveToDisk("partialVOC_"+numIndex+".txt");
-                    }
+            for (int termId : termIds) {
+                String term = index.getTerm(termId);
+                PostingsBuffer postings = index.getPostings(termId);
+
+                //create vocabulary entry
+                VocabularyEntry vocEntry = new VocabularyEntry(term);
+                vocEntry.setMemoryOffset(docsWriter.getPosition());
+                vocEntry.setFrequencyOffset(docsWriter.getPosition());
+
+                // write postings to file
+                docsWriter.writeInts(postings.getDocids(), 0, postings.size());
+                freqsWriter.writeInts(postings.getFrequencies(), 0, postings.size());
+
+                vocEntry.setDf(postings.size());
+                vocEntry.setMaxTf(postings.getMaxFrequency());
+                vocEntry.setBM25Dl(postings.getBM25Dl());
+                vocEntry.setBM25Tf(postings.getBM25tf());
+                vocEntry.setDocidSize(postings.size() * 4);
+                vocEntry.setFrequencySize(postings.size() * 4);
+
+                vocEntry.writeToBuffer(vocabWriter.reserve((int) VocabularyEntry.ENTRY_SIZE));
+                if(debugMode){
+                    postings.toPostingList(term).debugSaveToDisk("partialDOCIDS"+suffix+".txt", "partialFREQS"+suffix+".txt", (int) numPostings);
+                    vocEntry.debugSaveToDisk("partialVOC"+suffix+".txt");
                 }
             }
-
-            // Update the number of indexes
-            numIndex++;
-            numPostings = 0;
             return true;
         } catch (InvalidPathException e) {
             System.out.println("Invalid path exception " + e.getMessage());
@@ -170,145 +173,281 @@ public class Spimi {
     }
 
     /**
-     * Function that searches for a given docid in a posting list
-     * If the document already exists, updates the frequency for that document
-     * Else it creates a new pair of (docid, freq) with freq = 1 and added to postingList
-     * @param docid: docid of a document
-     * @param postingList: postingList of a given term
+     * Give to the partial indexes of all the runs a global number, following the order of their docids,
+     * so that they can be merged by concatenating their posting lists
+     * @param partialsPerRun number of partial indexes written for each run
+     * @param numRuns number of runs
+     * @param numbered list where the files of the partial indexes are added with their new names, in the new order
+     * @return the number of partial indexes, -1 if an error occurred
      */
-    private static void updateOrAddPosting(int docid, PostingList postingList){
-        if(postingList.getPostings().size() > 0) {
-            // Last document inserted
-            Posting lastPosting = postingList.getPostings().get(postingList.getPostings().size() - 1);
-            if (docid == lastPosting.getDocid()) {
-                lastPosting.setFrequency(lastPosting.getFrequency() + 1);
-                return;
+    private static int renumberPartialIndexes(ConcurrentHashMap<Integer, Integer> partialsPerRun, int numRuns, List<String[]> numbered) {
+        int numPartials = 0;
+
+        for (int run = 0; run < numRuns; run++) {
+            for (int partial = 0; partial < partialsPerRun.getOrDefault(run, 0); partial++) {
+                String[] files = partialFiles(partialSuffix(run, partial));
+                String[] renamed = partialFiles("_" + numPartials);
+                try {
+                    for (int i = 0; i < files.length; i++)
+                        Files.move(Paths.get(files[i]), Paths.get(renamed[i]));
+                } catch (IOException e) {
+                    System.out.println("IO exception " + e.getMessage());
+                    return -1;
+                }
+                numbered.add(renamed);
+                numPartials++;
             }
         }
-        // The document has not been processed
-        postingList.getPostings().add(new Posting(docid, 1));
+        return numPartials;
+    }
+
+    /**
+     * Save in the checkpoint the state of the build at the end of a run, before its last batch is dispatched.
+     * The document index is written up to the end of the run, so that a resumed build can go on from there
+     * @param checkpoint the checkpoint, null if the build has no checkpoint
+     * @param run the run
+     * @param inputDocs the documents of the collection consumed
+     * @param docid the docid of the first document after the run
+     * @param docsLen the sum of the length of the documents up to the end of the run
+     * @param documentIndexWriter the writer of the document index
+     * @return true if the checkpoint is saved correctly
+     */
+    private static boolean checkpointRun(BuildCheckpoint checkpoint, int run, long inputDocs, int docid, long docsLen,
+                                         ChannelWriter documentIndexWriter) throws IOException {
+        if (checkpoint == null)
+            return true;
 
-        // Increment the number of postings
-        numPostings++;
+        documentIndexWriter.flush();
+        return checkpoint.runDispatched(run, inputDocs, docid, docsLen, documentIndexWriter.getPosition());
     }
 
     /**
-     * Function that executes the SPIMI algorithm
+     * Function that executes the SPIMI algorithm.
+     * The documents are split in runs of consecutive docids, inverted in parallel by independent workers
      * @param compressedReadingEnable flag enabling reading from compressed file and stemming if true
      * @param debug flag enabling debug mode
      * @return the number of indexes created
      */
     public static int executeSpimi(boolean compressedReadingEnable, boolean debug) {
-        numIndex = 0;
-        DocumentIndexEntry.resetOffset();
-
-        try(BufferedReader reader = initializeBuffer(compressedReadingEnable)) {
-            boolean allDocumentsProcessed = false; // flag to check if all documents are processed
-
-            int docid = 1; // assignment for doc ids in incremental value
-            int docsLen = 0; // length of the documents
-            boolean writeSuccess; // flag to check if the write was successful
-
-            // Build the index until memory is available with memory threshold
-            long MEMORY_THRESHOLD = Runtime.getRuntime().totalMemory() * 20 / 100; // 20% of total memory
-
-            String[] split;
-            while(!allDocumentsProcessed) {
-                HashMap<String, PostingList> index = new HashMap<>(); // create a new index
-
-                while(Runtime.getRuntime().freeMemory() > MEMORY_THRESHOLD){
-                    String line;
-
-                    // If we reach the end of the file
-                    if((line = reader.readLine()) == null){
-                        System.out.println("All documents were processed");
-                        allDocumentsProcessed = true;
-                        break;
-                    }
+        return executeSpimi(compressedReadingEnable, debug, 1, ConfigurationParams.getDocumentIndexPath());
+    }
 
-                    // If the line is empty, process next line
-                    if (line.isBlank())
-                        continue;
+    /**
+     * Function that executes the SPIMI algorithm on documents added to an existing index:
+     * their docids follow the docids of the documents already indexed
+     * @param compressedReadingEnable flag enabling reading from compressed file and stemming if true
+     * @param debug flag enabling debug mode
+     * @param firstDocid the docid of the first document
+     * @param documentIndexPath the path of the document index of the documents
+     * @return the number of indexes created
+     */
+    public static int executeSpimi(boolean compressedReadingEnable, boolean debug, int firstDocid, String documentIndexPath) {
+        return executeSpimi(compressedReadingEnable, debug, firstDocid, documentIndexPath, null);
+    }
 
-                    // Split the line into pid and tokens
-                    split = line.split("\t");
+    /**
+     * Function that executes the SPIMI algorithm, saving a checkpoint every time a run is written.
+     * If the checkpoint was loaded from an interrupted build, the documents of the committed runs are skipped,
+     * and the build goes on from the first docid and the first run after them.
+     * After an error the partial indexes of the committed runs are kept, so that the build can resume
+     * @param compressedReadingEnable flag enabling reading from compressed file and stemming if true
+     * @param debug flag enabling debug mode
+     * @param firstDocid the docid of the first document
+     * @param documentIndexPath the path of the document index of the documents
+     * @param checkpoint the checkpoint of the build, null to build without checkpoints
+     * @return the number of indexes created
+     */
+    public static int executeSpimi(boolean compressedReadingEnable, boolean debug, int firstDocid, String documentIndexPath,
+                                   BuildCheckpoint checkpoint) {
+        numIndex = 0;
+        DocumentIndexEntry.resetOffset();
 
-                    // Create a new document
-                    TextDocument document = new TextDocument(split[0], split[1].replaceAll("[^\\x00-\\x7F]", ""));
+        // the partial indexes were all written before the interruption
+        if (checkpoint != null && checkpoint.isSpimiCompleted()) {
+            if(!CollectionSize.updateCollectionSize(checkpoint.getNextDocid() - firstDocid) || !CollectionSize.updateTotalDocLen(checkpoint.getTotalDocLen())){
+                System.out.println("Error while updating the collection size");
+                return 0;
+            }
+            numIndex = checkpoint.getNumIndexes();
+            return numIndex;
+        }
 
-                    // Perform text preprocessing on the document
-                    ProcessedDocument processedDocument = Preprocesser.preprocessDocument(document);
+        // the runs committed before the interruption
+        int firstRun = (checkpoint != null) ? checkpoint.getCommittedRuns() : 0;
 
-                    // Check If the body is empty
-                    if(processedDocument.getTokens().isEmpty())
-                        continue;
+        // Statistics of the dispatching stage, assigning docids and writing the document index
+        StageStatistics dispatchStats = new StageStatistics("Dispatch", 1);
 
-                    // Update the number of documents
-                    int documentLength = processedDocument.getTokens().size();
+        // Number of partial indexes written by the workers for each run
+        ConcurrentHashMap<Integer, Integer> partialsPerRun = new ConcurrentHashMap<>();
+        for (int run = 0; run < firstRun; run++)
+            partialsPerRun.put(run, checkpoint.getNumPartials(run));
 
-                    DocumentIndexEntry documentIndexEntry = new DocumentIndexEntry(
-                            processedDocument.getPid(),
-                            docid,
-                            documentLength
-                    );
+        // Start the inversion workers
+        int numWorkers = ConfigurationParams.getInversionThreads();
 
-                    // update with length of the new docs
-                    docsLen += documentIndexEntry.getDocLen();
+        // Memory available to the in-memory index of each worker: if it is full the index is flushed even if its run is not complete.
+        // Each worker can have a full index being written in background while it fills a new one
+        long memoryBudget = ConfigurationParams.getIndexMemory() / (2L * numWorkers);
 
-                    // Add the document to the index
-                    documentIndexEntry.writeToDisk();
+        StageStatistics inversionStats = new StageStatistics("Inversion", numWorkers);
+        InversionWorker[] workers = new InversionWorker[numWorkers];
+        Thread[] workerThreads = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new InversionWorker(partialsPerRun, memoryBudget, inversionStats, debug, checkpoint);
+            workerThreads[i] = new Thread(workers[i], "inversion-worker-" + i);
+            workerThreads[i].start();
+        }
 
-                    // Check if debug flag
-                    if(debug)
-                        documentIndexEntry.debugWriteToDisk("debugDocIndex.txt");
+        // Max number of postings of a run, so that usually a run fills the in-memory index of its worker once
+        long maxPostingsPerRun = memoryBudget / POSTING_SIZE_ESTIMATE;
+
+        try(CollectionSource source = openCollection(compressedReadingEnable);
+            PreprocessingPipeline pipeline = new PreprocessingPipeline(source, ConfigurationParams.getPreprocessingThreads());
+            ChannelWriter documentIndexWriter = (firstRun > 0) ? new ChannelWriter(documentIndexPath, checkpoint.getDocumentIndexSize())
+                    : new ChannelWriter(documentIndexPath)) {
+
+            int docid = firstDocid; // assignment for doc ids in incremental value
+            long docsLen = 0; // length of the documents
+            long inputDocs = 0; // documents of the collection consumed, including the empty ones
+
+            if (firstRun > 0) {
+                // go on after the committed runs
+                docid = checkpoint.getNextDocid();
+                docsLen = checkpoint.getTotalDocLen();
+                inputDocs = checkpoint.getInputDocs();
+                source.skip(inputDocs);
+                System.out.println("Skipping the " + inputDocs + " documents of the " + firstRun + " runs already indexed");
+            }
 
-                    // For each term in the document
-                    for (String term : processedDocument.getTokens()) {
-                        if(term.isBlank())
-                            continue;
+            int run = firstRun; // run that is being dispatched
+            long runPostings = 0; // upper bound of the postings of the run: each token gives at most a posting
+            int batchFirstDocid = docid; // docid of the first document of the batch
+            ArrayList<ProcessedDocument> batch = new ArrayList<>(BATCH_SIZE);
 
-                        PostingList postingList;
+            // Start reading and preprocessing the documents in background
+            pipeline.start();
 
-                        // If the term is not present in the index
-                        if (!index.containsKey(term)) {
-                            postingList = new PostingList(term);
-                            index.put(term, postingList);
-                        } else {
-                            // Get the posting list
-                            postingList = index.get(term);
-                        }
+            while(true) {
+                // Get the next document, preprocessed in the same order of the collection
+                ProcessedDocument processedDocument = pipeline.next();
 
-                        // Update or add the posting
-                        updateOrAddPosting(docid, postingList);
-                        postingList.updateBM25Params(documentLength, postingList.getPostings().size());
+                // If we reach the end of the file
+                if(processedDocument == null){
+                    System.out.println("All documents were processed");
+                    break;
+                }
+                long start = System.nanoTime();
+                inputDocs++;
+
+                // Check If the body is empty
+                if(processedDocument.getTokens().isEmpty())
+                    continue;
+
+                // Update the number of documents
+                int documentLength = processedDocument.getTokens().size();
+
+                DocumentIndexEntry documentIndexEntry = new DocumentIndexEntry(
+                        processedDocument.getPid(),
+                        docid,
+                        documentLength
+                );
+
+                // update with length of the new docs
+                docsLen += documentIndexEntry.getDocLen();
+
+                // Add the document to the index
+                documentIndexEntry.writeToBuffer(documentIndexWriter.reserve(DocumentIndexEntry.ENTRY_SIZE));
+
+                // Check if debug flag
+                if(debug)
+                    documentIndexEntry.debugWriteToDisk("debugDocIndex.txt");
+
+                // Add the document to the run of the current worker
+                batch.add(processedDocument);
+                runPostings += documentLength;
+                docid++;
+                if((docid % 1000000) == 0)
+                    System.out.println("Processed " + docid + " documents");
+
+                // Send the batch to the worker of the run, moving to the next worker if the run is complete
+                boolean runComplete = runPostings >= maxPostingsPerRun;
+                if(batch.size() == BATCH_SIZE || runComplete) {
+                    if(runComplete && !checkpointRun(checkpoint, run, inputDocs, docid, docsLen, documentIndexWriter))
+                        throw new IOException("Error while saving the checkpoint of run " + run);
+                    workers[run % numWorkers].submit(new DocumentBatch(run, batchFirstDocid, batch, runComplete));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                    batchFirstDocid = docid;
+
+                    if(runComplete) {
+                        run++;
+                        runPostings = 0;
                     }
-                    docid++;
-                    if((docid % 1000000) == 0)
-                        System.out.println("Processed " + docid + " documents");
                 }
+                dispatchStats.record(1, System.nanoTime() - start);
+            }
 
-                // Either if there is no memory available or all documents were read, flush partial index onto disk
-                writeSuccess = saveIndexToDisk(index, debug);
+            // Send the last batch, completing the last run
+            if(runPostings > 0) {
+                if(!checkpointRun(checkpoint, run, inputDocs, docid, docsLen, documentIndexWriter))
+                    throw new IOException("Error while saving the checkpoint of run " + run);
+                workers[run % numWorkers].submit(new DocumentBatch(run, batchFirstDocid, batch, true));
+                run++;
+            }
 
-                // If the write was not successful, rollback
-                if(!writeSuccess){
+            // Wait for the workers to write the last partial indexes
+            for (int i = 0; i < numWorkers; i++) {
+                workers[i].stop();
+                workerThreads[i].join();
+            }
+
+            // If the write was not successful, rollback: with a checkpoint, the committed runs are kept for the next attempt
+            for (InversionWorker worker : workers) {
+                if(worker.hasFailed()){
                     System.out.println("Error while writing the index to disk");
-                    rollback();
+                    if(checkpoint == null)
+                        rollback(documentIndexPath);
                     return -1;
                 }
-                index.clear();
             }
+
+            // Number the partial indexes following the order of their docids
+            List<String[]> numbered = new ArrayList<>();
+            numIndex = renumberPartialIndexes(partialsPerRun, run, numbered);
+            if(numIndex == -1){
+                System.out.println("Error while renaming the partial indexes");
+                rollback(documentIndexPath);
+                return -1;
+            }
+
+            // Report the throughput of each stage to find the bottleneck of the indexing
+            System.out.println(pipeline.getReaderStats());
+            System.out.println(pipeline.getPreprocessingStats());
+            System.out.println(dispatchStats);
+            System.out.println(inversionStats);
+            if (Flags.isStemStopRemovalEnabled())
+                System.out.println(Preprocesser.getStemCache());
+
             // Update the number of indexes and save to disk
-            if(!CollectionSize.updateCollectionSize(docid -1) || !CollectionSize.updateTotalDocLen(docsLen)){
+            if(!CollectionSize.updateCollectionSize(docid - firstDocid) || !CollectionSize.updateTotalDocLen(docsLen)){
                 System.out.println("Error while updating the collection size");
                 return 0;
             }
 
+            if(checkpoint != null && !checkpoint.spimiCompleted(numbered)){
+                System.out.println("Error while saving the checkpoint");
+                return 0;
+            }
+
             return numIndex;
 
         } catch (Exception e) {
             e.printStackTrace();
             return 0;
+        } finally {
+            // Stop the workers still alive after an error
+            for (Thread workerThread : workerThreads)
+                workerThread.interrupt();
         }
     }
-}
\ No newline at end of file
+}
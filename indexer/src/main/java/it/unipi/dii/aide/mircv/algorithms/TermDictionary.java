@@ -0,0 +1,332 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dictionary of the terms of an in-memory index, mapping each term to a dense int term ID (0, 1, 2, ...).
+ * The terms are interned as UTF-8 bytes in a single growing array, and the hash table is an open-addressing
+ * table of term IDs with linear probing, so a lookup hashes and compares the characters of the token only once
+ * and allocates nothing when the term is already in the dictionary.
+ */
+public class TermDictionary {
+    /**
+     * Initial number of slots of the hash table
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Initial size of the array of the bytes of the terms
+     */
+    private static final int INITIAL_BYTES = 16 * 1024;
+
+    /**
+     * Number of terms above which the terms are sorted in parallel
+     */
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 14;
+
+    /**
+     * Slots of the hash table: term ID + 1, 0 if the slot is empty
+     */
+    private int[] table = new int[INITIAL_CAPACITY];
+
+    /**
+     * Hashes of the terms, indexed by term ID, to rehash without reading the bytes again
+     */
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+
+    /**
+     * Offsets of the terms in the array of bytes, indexed by term ID: term i goes from offsets[i] to offsets[i+1]
+     */
+    private int[] offsets = new int[INITIAL_CAPACITY / 2 + 1];
+
+    /**
+     * Bytes of the terms, one after the other
+     */
+    private byte[] bytes = new byte[INITIAL_BYTES];
+
+    /**
+     * Number of terms in the dictionary
+     */
+    private int size = 0;
+
+    /**
+     * Get the ID of a term, adding the term to the dictionary if not present
+     * @param term the term
+     * @return the ID of the term
+     */
+    public int getOrAdd(String term) {
+        // hash the term as its UTF-8 bytes; the tokens are ASCII, so their chars are their bytes
+        int hash = 0;
+        boolean ascii = true;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            ascii &= c < 0x80;
+            hash = 31 * hash + (byte) c;
+        }
+        if (!ascii)
+            return getOrAdd(term.getBytes(StandardCharsets.UTF_8));
+
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        int id;
+        while ((id = table[slot] - 1) >= 0) {
+            if (hashes[id] == hash && equalsAscii(id, term))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+
+        // the term is not present: append its bytes
+        ensureBytes(term.length());
+        int offset = offsets[size];
+        for (int i = 0; i < term.length(); i++)
+            bytes[offset + i] = (byte) term.charAt(i);
+
+        return add(slot, hash, offset + term.length());
+    }
+
+    /**
+     * Get the ID of a term given as UTF-8 bytes, adding the term to the dictionary if not present
+     * @param termBytes the bytes of the term
+     * @return the ID of the term
+     */
+    private int getOrAdd(byte[] termBytes) {
+        int hash = 0;
+        for (byte b : termBytes)
+            hash = 31 * hash + b;
+
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        int id;
+        while ((id = table[slot] - 1) >= 0) {
+            if (hashes[id] == hash && Arrays.equals(bytes, offsets[id], offsets[id + 1], termBytes, 0, termBytes.length))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+
+        ensureBytes(termBytes.length);
+        System.arraycopy(termBytes, 0, bytes, offsets[size], termBytes.length);
+
+        return add(slot, hash, offsets[size] + termBytes.length);
+    }
+
+    /**
+     * Register a new term, whose bytes were already appended
+     * @param slot the empty slot of the table for the term
+     * @param hash the hash of the term
+     * @param end the offset following the last byte of the term
+     * @return the ID of the term
+     */
+    private int add(int slot, int hash, int end) {
+        int id = size++;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            offsets = Arrays.copyOf(offsets, hashes.length + 1);
+        }
+        offsets[id + 1] = end;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+
+        // keep the table at most half full
+        if (size * 2 > table.length)
+            rehash();
+
+        return id;
+    }
+
+    /**
+     * Double the hash table
+     */
+    private void rehash() {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (newTable[slot] != 0)
+                slot = (slot + 1) & mask;
+            newTable[slot] = id + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Make room for the bytes of a new term
+     * @param length the number of bytes of the term
+     */
+    private void ensureBytes(int length) {
+        int needed = offsets[size] + length;
+        if (needed > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+    }
+
+    /**
+     * Compare a term of the dictionary with an ASCII string
+     * @param id the ID of the term
+     * @param term the string
+     * @return true if the term is equal to the string
+     */
+    private boolean equalsAscii(int id, String term) {
+        int offset = offsets[id];
+        if (offsets[id + 1] - offset != term.length())
+            return false;
+
+        for (int i = 0; i < term.length(); i++)
+            if (bytes[offset + i] != (byte) term.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Spread the high bits of the hash over the low ones, used to compute the slots
+     * @param hash the hash
+     * @return the spread hash
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param id the ID of a term
+     * @return the term
+     */
+    public String getTerm(int id) {
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare two terms by their bytes, considered unsigned: for UTF-8 this is the order of the code points,
+     * the same of String.compareTo for the ASCII tokens of the collection
+     * @param id1 the ID of the first term
+     * @param id2 the ID of the second term
+     * @return a negative number, zero or a positive number if the first term is smaller, equal or bigger
+     */
+    public int compare(int id1, int id2) {
+        return Arrays.compareUnsigned(bytes, offsets[id1], offsets[id1 + 1], bytes, offsets[id2], offsets[id2 + 1]);
+    }
+
+    /**
+     * Sort the term IDs in the lexicographic order of their terms, in parallel for large dictionaries
+     * @return the term IDs sorted by term
+     */
+    public int[] getSortedIds() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++)
+            ids[i] = i;
+
+        if (size < PARALLEL_SORT_THRESHOLD)
+            sort(ids, 0, size - 1);
+        else
+            ForkJoinPool.commonPool().invoke(new SortTask(ids, 0, size - 1));
+        return ids;
+    }
+
+    /**
+     * Task sorting a range of term IDs: after the partition the two parts are sorted in parallel,
+     * until they are small enough to be sorted sequentially
+     */
+    private class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] ids;
+        private final int low;
+        private final int high;
+
+        SortTask(int[] ids, int low, int high) {
+            this.ids = ids;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low < PARALLEL_SORT_THRESHOLD) {
+                sort(ids, low, high);
+                return;
+            }
+
+            long bounds = partition(ids, low, high);
+            invokeAll(new SortTask(ids, low, (int) bounds), new SortTask(ids, (int) (bounds >>> 32), high));
+        }
+    }
+
+    /**
+     * Quicksort of a range of term IDs, with insertion sort for small ranges
+     * @param ids the term IDs
+     * @param low the first position of the range
+     * @param high the last position of the range
+     */
+    private void sort(int[] ids, int low, int high) {
+        while (high - low > 16) {
+            long bounds = partition(ids, low, high);
+            int j = (int) bounds;
+            int i = (int) (bounds >>> 32);
+
+            // recurse on the smaller part, loop on the bigger one
+            if (j - low < high - i) {
+                sort(ids, low, j);
+                low = i;
+            } else {
+                sort(ids, i, high);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++) {
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= low && compare(ids[j], id) > 0) {
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            ids[j + 1] = id;
+        }
+    }
+
+    /**
+     * Partition a range of term IDs around the median of its first, middle and last term
+     * @param ids the term IDs
+     * @param low the first position of the range
+     * @param high the last position of the range
+     * @return the last position of the left part in the low 32 bits, the first position of the right part in the high 32 bits
+     */
+    private long partition(int[] ids, int low, int high) {
+        // move the median of three in the middle and use it as pivot
+        int middle = (low + high) >>> 1;
+        if (compare(ids[middle], ids[low]) < 0) swap(ids, middle, low);
+        if (compare(ids[high], ids[low]) < 0) swap(ids, high, low);
+        if (compare(ids[high], ids[middle]) < 0) swap(ids, high, middle);
+        int pivot = ids[middle];
+
+        int i = low;
+        int j = high;
+        while (i <= j) {
+            while (compare(ids[i], pivot) < 0) i++;
+            while (compare(ids[j], pivot) > 0) j--;
+            if (i <= j)
+                swap(ids, i++, j--);
+        }
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
+
+    private static void swap(int[] ids, int i, int j) {
+        int tmp = ids[i];
+        ids[i] = ids[j];
+        ids[j] = tmp;
+    }
+
+    /**
+     * @return the number of terms in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes used by the arrays of the dictionary
+     */
+    public long getMemoryUsage() {
+        return (long) (table.length + hashes.length + offsets.length) * Integer.BYTES + bytes.length;
+    }
+}
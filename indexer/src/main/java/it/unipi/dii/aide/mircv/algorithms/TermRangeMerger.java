@@ -0,0 +1,496 @@
+package it.unipi.dii.aide.mircv.algorithms;
+
+import it.unipi.dii.aide.mircv.beans.Posting;
+import it.unipi.dii.aide.mircv.beans.PostingList;
+import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
+import it.unipi.dii.aide.mircv.utils.ChannelReader;
+import it.unipi.dii.aide.mircv.utils.ChannelWriter;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Merge of the partial indexes restricted to a lexicographic range of terms: the posting lists and the vocabulary
+ * entries of the terms in the range are written to their own files, with offsets starting from 0.
+ * The ranges are disjoint, so several range mergers can run in parallel on the same partial indexes.
+ * An intermediate merge writes a run in the format of the partial indexes, to be merged again in a later pass.
+ */
+class TermRangeMerger implements Callable<Boolean> {
+
+    /**
+     * Null-padded bytes of the first term of the range, null if the range starts from the first term
+     */
+    private final byte[] lowerBound;
+
+    /**
+     * Null-padded bytes of the first term after the range, null if the range ends with the last term
+     */
+    private final byte[] upperBound;
+
+    /**
+     * Files of the partial indexes to merge, in docid order
+     */
+    private final Merger.PartialIndex[] inputs;
+
+    /**
+     * Number of partial indexes to merge
+     */
+    private final int numIndexes;
+
+    /**
+     * Flag telling whether the merge writes an intermediate run instead of the inverted index
+     */
+    private final boolean intermediate;
+
+    /**
+     * Flag deciding whether to compress posting lists or not
+     */
+    private final boolean compressionMode;
+
+    /**
+     * Flag deciding whether to write the debug files
+     */
+    private final boolean debugMode;
+
+    /**
+     * Pool of the workers compressing the blocks, null to compress them in the thread of the merger
+     */
+    private final ExecutorService encoders;
+
+    /**
+     * Size of the buffer of each reader of the partial indexes, in bytes
+     */
+    private final int readBufferSize;
+
+    /**
+     * Paths of the docids, frequencies, block descriptors and vocabulary written by the merger
+     */
+    private final String docidsPath;
+    private final String frequenciesPath;
+    private final String blockDescriptorsPath;
+    private final String vocabularyPath;
+
+    /**
+     * Readers of the partial vocabularies, pointing to the next vocabulary entry to process for each partial index
+     */
+    private PartialVocabularyReader[] nextTerms = null;
+
+    /**
+     * Null-padded bytes of the term being processed
+     */
+    private final byte[] termToProcessBytes = new byte[VocabularyEntry.TERM_SIZE];
+
+    /**
+     * Min-heap of the partial indexes that still have terms of the range to process, ordered by their next term
+     * and, for the same term, by their number, so that the posting lists are concatenated in docid order
+     */
+    private PriorityQueue<Integer> nextTermsHeap = null;
+
+    /**
+     * Readers of the docids of the partial indexes: the partial posting lists are read in the order
+     * in which they were written, so each file is read sequentially
+     */
+    private ChannelReader[] docidReaders = null;
+
+    /**
+     * Readers of the frequencies of the partial indexes
+     */
+    private ChannelReader[] frequencyReaders = null;
+
+    /**
+     * Partial indexes holding the posting lists of the term being processed, in docid order
+     */
+    private final int[] termLists;
+
+    /**
+     * Number of postings of each partial posting list of the term being processed
+     */
+    private final int[] termListSizes;
+
+    /**
+     * Number of partial posting lists of the term being processed
+     */
+    private int numTermLists = 0;
+
+    /**
+     * Partial posting list of the term from which the next postings are read
+     */
+    private int currentList = 0;
+
+    /**
+     * Postings still to read from the current partial posting list
+     */
+    private int remainingInList = 0;
+
+    /**
+     * Number of postings copied at a time when writing an intermediate run
+     */
+    private static final int COPY_CHUNK_SIZE = 4096;
+
+    /**
+     * Next free memory offset in the docids file
+     */
+    private long docsMemOffset = 0;
+
+    /**
+     * Next free memory offset in the freqs file
+     */
+    private long freqsMemOffset = 0;
+
+    /**
+     * Number of vocabulary entries written
+     */
+    private long vocSize = 0;
+
+    /**
+     * @param lowerBound null-padded bytes of the first term of the range, null for no lower bound
+     * @param upperBound null-padded bytes of the first term after the range, null for no upper bound
+     * @param inputs files of the partial indexes to merge, in docid order
+     * @param intermediate true to write an intermediate run, with no compression and no block descriptors
+     * @param compressionMode flag deciding whether to compress posting lists or not
+     * @param debugMode flag deciding whether to write the debug files
+     * @param encoders pool of the workers compressing the blocks, null to compress them in the thread of the merger
+     * @param readBufferSize size of the buffer of each reader of the partial indexes, in bytes
+     * @param outputPaths paths of the docids, frequencies, block descriptors and vocabulary to write;
+     *                    the path of the block descriptors is ignored for an intermediate run
+     */
+    TermRangeMerger(byte[] lowerBound, byte[] upperBound, Merger.PartialIndex[] inputs, boolean intermediate,
+                    boolean compressionMode, boolean debugMode, ExecutorService encoders, int readBufferSize,
+                    String... outputPaths) {
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.inputs = inputs;
+        this.numIndexes = inputs.length;
+        this.termLists = new int[numIndexes];
+        this.termListSizes = new int[numIndexes];
+        this.intermediate = intermediate;
+        this.compressionMode = compressionMode;
+        this.debugMode = debugMode;
+        this.encoders = encoders;
+        this.readBufferSize = readBufferSize;
+        this.docidsPath = outputPaths[0];
+        this.frequenciesPath = outputPaths[1];
+        this.blockDescriptorsPath = outputPaths[2];
+        this.vocabularyPath = outputPaths[3];
+    }
+
+    /**
+     * Method that initializes all the data structures:
+     * - opening the readers of the partial indexes
+     * - moving the readers of the partial vocabularies to the first term of the range
+     */
+    private boolean initialize() {
+
+        // initialization of array of readers of the partial vocabularies
+        nextTerms = new PartialVocabularyReader[numIndexes];
+
+        // initialization of the heap of the partial indexes
+        nextTermsHeap = new PriorityQueue<>(Math.max(numIndexes, 1), (i, j) -> {
+            int comparison = nextTerms[i].compareTerm(nextTerms[j]);
+            return (comparison != 0) ? comparison : Integer.compare(i, j);
+        });
+
+        // initialize the array of the readers of the partial indexes
+        docidReaders = new ChannelReader[numIndexes];
+        frequencyReaders = new ChannelReader[numIndexes];
+
+        try {
+            for (int i = 0; i < numIndexes; i++) {
+                nextTerms[i] = new PartialVocabularyReader(inputs[i].vocabularyPath(),
+                        readBufferSize / (int) VocabularyEntry.ENTRY_SIZE);
+                if (lowerBound != null)
+                    nextTerms[i].seek(lowerBound);
+
+                // read first entry of the range
+                moveVocabularyToNextTerm(i);
+
+                docidReaders[i] = new ChannelReader(inputs[i].docidsPath(), readBufferSize);
+                frequencyReaders[i] = new ChannelReader(inputs[i].frequenciesPath(), readBufferSize);
+            }
+            return true;
+        }catch(Exception e){
+            cleanUp();
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Return the minimum term of the terms to be processed in the intermediate indexes
+     * @return the next term to process
+     */
+    private String getMinTerm() {
+        // the top of the heap is the partial index with the minimum next term
+        Integer index = nextTermsHeap.peek();
+        return (index == null) ? null : nextTerms[index].getTerm();
+    }
+
+    /**
+     * method to process a term across all the intermediate indexes, using only their vocabulary entries:
+     * - compute the term statistics of the vocabulary entry (side effect)
+     * - position the readers of the partial indexes at the partial posting lists of the term,
+     *   whose postings are then streamed block by block by readPostings
+     *
+     * @param vocabularyEntry: vocabulary entry for new term
+     */
+    private void processTerm(VocabularyEntry vocabularyEntry) throws IOException {
+        System.arraycopy(nextTerms[nextTermsHeap.peek()].getTermBytes(), 0, termToProcessBytes, 0, termToProcessBytes.length);
+        numTermLists = 0;
+
+        // processing the term: the partial indexes containing it are at the top of the heap, in increasing order
+        while (!nextTermsHeap.isEmpty() && nextTerms[nextTermsHeap.peek()].hasTerm(termToProcessBytes)) {
+            int i = nextTermsHeap.poll();
+            PartialVocabularyReader partialEntry = nextTerms[i];
+
+            // move the readers to the partial posting list: they are already there, unless some bytes were skipped
+            docidReaders[i].seek(partialEntry.getDocidOffset());
+            frequencyReaders[i].seek(partialEntry.getFrequencyOffset());
+            termLists[numTermLists] = i;
+            termListSizes[numTermLists] = partialEntry.getDf();
+            numTermLists++;
+
+            // update max docLen
+            vocabularyEntry.updateBM25Statistics(partialEntry.getBM25Tf(), partialEntry.getBM25Dl());
+
+            //update vocabulary statistics
+            vocabularyEntry.updateStatistics(partialEntry.getDf(), partialEntry.getMaxTf());
+
+            // Update the heap with the next term to process in the partial index
+            moveVocabularyToNextTerm(i);
+        }
+
+        currentList = 0;
+        remainingInList = termListSizes[0];
+
+        // compute the final idf
+        vocabularyEntry.computeIdf();
+        // compute the term upper bounds
+        vocabularyEntry.computeUpperBounds();
+    }
+
+    /**
+     * Read the next postings of the term being processed, going through its partial posting lists in docid order
+     * @param docids the array where to store the docids
+     * @param freqs the array where to store the frequencies
+     * @param count the number of postings to read
+     */
+    private void readPostings(int[] docids, int[] freqs, int count) throws IOException {
+        int read = 0;
+        while (read < count) {
+            while (remainingInList == 0)
+                remainingInList = termListSizes[++currentList];
+
+            int chunk = Math.min(count - read, remainingInList);
+            docidReaders[termLists[currentList]].readInts(docids, read, chunk);
+            frequencyReaders[termLists[currentList]].readInts(freqs, read, chunk);
+            read += chunk;
+            remainingInList -= chunk;
+        }
+    }
+
+    /**
+     * Method to read the next term of a vocabulary, putting the vocabulary back in the heap if the term is in the range
+     * @param i: the partial vocabulary to read
+     */
+    private void moveVocabularyToNextTerm(int i) throws IOException {
+        // read next vocabulary entry from the i-th vocabulary, if the read is not ended
+        if (nextTerms[i].next() && (upperBound == null || nextTerms[i].compareTerm(upperBound) < 0))
+            nextTermsHeap.add(i);
+    }
+
+    /**
+     * The effective merging pipeline:
+     * - finds the minimum term of the range between the indexes
+     * - computes the vocabulary entry for that term
+     * - streams its postings to the output
+     * @return true if the merging is complete, false otherwise
+     */
+    @Override
+    public Boolean call() {
+
+        // initialization operations
+        if(!initialize())
+            return false;
+
+        try {
+            if (intermediate)
+                mergeIntoRun();
+            else
+                mergeIntoIndex();
+
+            cleanUp();
+            return true;
+        }catch(Exception e){
+            cleanUp();
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Merge the terms of the range into the inverted index: the merger reads the postings in blocks,
+     * which are encoded and written by a BlockWriter while the merger goes on reading
+     */
+    private void mergeIntoIndex() throws IOException, InterruptedException {
+        BlockWriter blockWriter = new BlockWriter(compressionMode, encoders,
+                docidsPath, frequenciesPath, blockDescriptorsPath, vocabularyPath);
+
+        try (blockWriter) {
+            String termToProcess;
+            // find next term to be processed (the minimum in lexicographical order)
+            while ((termToProcess = getMinTerm()) != null) {
+                // new vocabulary entry for the processed term
+                VocabularyEntry vocabularyEntry = new VocabularyEntry(termToProcess);
+
+                // compute the statistics of the term from the partial vocabularies
+                processTerm(vocabularyEntry);
+
+                // the postings written, kept only to write the debug files
+                PostingList debugList = debugMode ? new PostingList(termToProcess) : null;
+
+                // stream the postings of the term from the partial indexes to the writer
+                sendBlocks(vocabularyEntry, blockWriter, debugList);
+                vocSize++;
+            }
+        }
+
+        docsMemOffset = blockWriter.getDocsMemOffset();
+        freqsMemOffset = blockWriter.getFreqsMemOffset();
+    }
+
+    /**
+     * Merge the terms of the range into an intermediate run, in the format of the partial indexes
+     */
+    private void mergeIntoRun() throws IOException {
+        try(ChannelWriter vocabularyWriter = new ChannelWriter(vocabularyPath);
+            ChannelWriter docidWriter = new ChannelWriter(docidsPath);
+            ChannelWriter frequencyWriter = new ChannelWriter(frequenciesPath)
+        ) {
+            String termToProcess;
+            while ((termToProcess = getMinTerm()) != null) {
+                VocabularyEntry vocabularyEntry = new VocabularyEntry(termToProcess);
+                processTerm(vocabularyEntry);
+
+                writeIntermediateList(vocabularyEntry, docidWriter, frequencyWriter);
+
+                // save vocabulary entry on disk
+                vocabularyEntry.writeToBuffer(vocabularyWriter.reserve((int) VocabularyEntry.ENTRY_SIZE));
+                vocSize++;
+            }
+
+            docsMemOffset = docidWriter.getPosition();
+            freqsMemOffset = frequencyWriter.getPosition();
+        }
+    }
+
+    /**
+     * Split the posting list of the term in blocks and send them to the block writer.
+     * The postings are streamed from the partial indexes one block at a time, so only the blocks
+     * waiting in the pipeline are kept in memory
+     * @param vocabularyEntry the vocabulary entry of the term, where the block information is stored
+     * @param blockWriter the writer of the blocks
+     * @param debugList the list where to append the postings written, null if not in debug mode
+     */
+    private void sendBlocks(VocabularyEntry vocabularyEntry, BlockWriter blockWriter, PostingList debugList)
+            throws IOException, InterruptedException {
+        // compute information about block descriptors for the posting list to be written
+        vocabularyEntry.computeBlocksInformation();
+
+        // compute maximal number of postings that can be stored in a block
+        int maxNumPostings = vocabularyEntry.getMaxNumberOfPostingsInBlock();
+
+        int numBlocks = vocabularyEntry.getNumBlocks();
+
+        for(int i=0; i< numBlocks; i++){
+            int alreadyWrittenPostings = i*maxNumPostings;
+
+            // number of postings to be written in the current block
+            int nPostingsToBeWritten = (Math.min((vocabularyEntry.getDf() - alreadyWrittenPostings), maxNumPostings));
+
+            // arrays where to store docids and frequencies to be written in current block
+            int[] docids = new int[nPostingsToBeWritten];
+            int[] freqs = new int[nPostingsToBeWritten];
+
+            // read the postings of the block from the partial indexes
+            readPostings(docids, freqs, nPostingsToBeWritten);
+
+            if (debugList != null)
+                for (int j = 0; j < nPostingsToBeWritten; j++)
+                    debugList.getPostings().add(new Posting(docids[j], freqs[j]));
+
+            blockWriter.addBlock(vocabularyEntry, docids, freqs, i == 0, i == numBlocks - 1, debugList);
+        }
+    }
+
+    /**
+     * Write the posting list of the term in an intermediate run, as the uncompressed ints of a partial index.
+     * The postings are copied from the partial indexes in chunks of COPY_CHUNK_SIZE postings
+     * @param vocabularyEntry the vocabulary entry of the term
+     * @param docidWriter the writer of the docids
+     * @param frequencyWriter the writer of the frequencies
+     */
+    private void writeIntermediateList(VocabularyEntry vocabularyEntry, ChannelWriter docidWriter,
+                                       ChannelWriter frequencyWriter) throws IOException {
+        vocabularyEntry.setMemoryOffset(docidWriter.getPosition());
+        vocabularyEntry.setFrequencyOffset(frequencyWriter.getPosition());
+
+        int[] docids = new int[Math.min(COPY_CHUNK_SIZE, vocabularyEntry.getDf())];
+        int[] freqs = new int[docids.length];
+
+        for (int copied = 0; copied < vocabularyEntry.getDf(); copied += docids.length) {
+            int chunk = Math.min(docids.length, vocabularyEntry.getDf() - copied);
+            readPostings(docids, freqs, chunk);
+            docidWriter.writeInts(docids, 0, chunk);
+            frequencyWriter.writeInts(freqs, 0, chunk);
+        }
+
+        // the total size of the posting list on disk
+        vocabularyEntry.setDocidSize((int) (docidWriter.getPosition() - vocabularyEntry.getDocidOffset()));
+        vocabularyEntry.setFrequencySize((int) (frequencyWriter.getPosition() - vocabularyEntry.getFrequencyOffset()));
+    }
+
+    /**
+     * method to close the readers of the partial indexes
+     */
+    private void cleanUp() {
+        try{
+            for(int i = 0; i < numIndexes; i++){
+                if(nextTerms[i] != null){
+                    nextTerms[i].close();
+                }
+                if(docidReaders[i] != null){
+                    docidReaders[i].close();
+                }
+                if (frequencyReaders[i] != null) {
+                    frequencyReaders[i].close();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * @return the number of bytes written in the docids file
+     */
+    long getDocsMemOffset() {
+        return docsMemOffset;
+    }
+
+    /**
+     * @return the number of bytes written in the freqs file
+     */
+    long getFreqsMemOffset() {
+        return freqsMemOffset;
+    }
+
+    /**
+     * @return the number of vocabulary entries written
+     */
+    long getVocSize() {
+        return vocSize;
+    }
+}
@@ -0,0 +1,120 @@
+package it.unipi.dii.aide.mircv.input;
+
+import it.unipi.dii.aide.mircv.utils.StageStatistics;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Reader of a chunk of the collection, executed in its own thread: decompresses and splits in lines its chunk
+ * and puts them, in batches, in a bounded ring buffer consumed by the CollectionSource
+ */
+class ChunkReader implements Runnable {
+    /**
+     * Batch used to signal that the whole chunk has been read
+     */
+    static final ArrayList<String> END_OF_CHUNK = new ArrayList<>();
+
+    /**
+     * Size of the buffer of the reader of the lines: 1MB
+     */
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Opens the stream of the chunk, called in the reader thread so that also the setup of the decompression runs there
+     */
+    private final Callable<InputStream> opener;
+
+    /**
+     * Number of lines in a batch
+     */
+    private final int batchSize;
+
+    /**
+     * Ring buffer of the batches of lines read and not yet consumed
+     */
+    private final BlockingQueue<ArrayList<String>> buffer;
+
+    /**
+     * Statistics of the reader stage, shared between all the readers
+     */
+    private final StageStatistics readerStats;
+
+    /**
+     * Error raised while reading the chunk, null if there was no error
+     */
+    private volatile Exception error = null;
+
+    /**
+     * Constructor of the reader
+     * @param opener opens the stream of the chunk
+     * @param batchSize number of lines in a batch
+     * @param bufferCapacity number of batches that can be waiting in the ring buffer before the reader blocks
+     * @param readerStats statistics of the reader stage
+     */
+    ChunkReader(Callable<InputStream> opener, int batchSize, int bufferCapacity, StageStatistics readerStats) {
+        this.opener = opener;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.readerStats = readerStats;
+    }
+
+    @Override
+    public void run() {
+        try {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(opener.call(), StandardCharsets.UTF_8), READ_BUFFER_SIZE)) {
+                ArrayList<String> lines = new ArrayList<>(batchSize);
+                long start = System.nanoTime();
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    // If the line is empty, process next line
+                    if (line.isBlank())
+                        continue;
+
+                    lines.add(line);
+                    if (lines.size() == batchSize) {
+                        readerStats.record(lines.size(), System.nanoTime() - start);
+                        buffer.put(lines);
+                        lines = new ArrayList<>(batchSize);
+                        start = System.nanoTime();
+                    }
+                }
+                readerStats.record(lines.size(), System.nanoTime() - start);
+
+                if (!lines.isEmpty())
+                    buffer.put(lines);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // the error is delivered to the consumer when it reaches the end of the chunk
+                error = e;
+            }
+            buffer.put(END_OF_CHUNK);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Take the next batch of lines of the chunk, blocking until it is read
+     * @return the next batch of lines, END_OF_CHUNK if the whole chunk was read
+     */
+    ArrayList<String> take() throws InterruptedException {
+        return buffer.take();
+    }
+
+    /**
+     * @return the error raised while reading the chunk, null if there was no error
+     */
+    Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,80 @@
+package it.unipi.dii.aide.mircv.input;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Formats of the collection supported by the indexer, recognized by the extension of the file:
+ * - a plain TSV file, in the format [pid] \t [text] for each line
+ * - a tar archive compressed with gzip, xz or zstd, whose first file is the TSV collection
+ */
+public enum CollectionFormat {
+    TSV,
+    TAR_GZ(".tar.gz", ".tgz"),
+    TAR_XZ(".tar.xz", ".txz"),
+    TAR_ZSTD(".tar.zst", ".tzst");
+
+    /**
+     * Extensions of the files in the format
+     */
+    private final String[] extensions;
+
+    CollectionFormat(String... extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * Recognize the format of a collection from its path
+     * @param path the path of the collection
+     * @return the format of the collection, TSV if the extension is not one of the archives
+     */
+    public static CollectionFormat fromPath(String path) {
+        String lowerPath = path.toLowerCase();
+        for (CollectionFormat format : values())
+            for (String extension : format.extensions)
+                if (lowerPath.endsWith(extension))
+                    return format;
+
+        return TSV;
+    }
+
+    /**
+     * A compressed stream can only be read from the beginning, while a plain file can be split in chunks
+     * read in parallel
+     * @return true if the collection can be split in chunks
+     */
+    public boolean isSplittable() {
+        return this == TSV;
+    }
+
+    /**
+     * Open the TSV content of a collection in this format
+     * @param in the stream of the file of the collection
+     * @return the stream of the TSV lines of the collection
+     */
+    public InputStream open(InputStream in) throws IOException {
+        InputStream decompressed = switch (this) {
+            case TSV -> null;
+            case TAR_GZ -> new GzipCompressorInputStream(in);
+            case TAR_XZ -> new XZCompressorInputStream(in);
+            case TAR_ZSTD -> new ZstdCompressorInputStream(in);
+        };
+        if (decompressed == null)
+            return in;
+
+        // position the archive at the first regular file
+        TarArchiveInputStream tarIn = new TarArchiveInputStream(decompressed);
+        TarArchiveEntry entry;
+        while ((entry = tarIn.getNextTarEntry()) != null)
+            if (entry.isFile())
+                return tarIn;
+
+        throw new IOException("The archive of the collection does not contain any file");
+    }
+}
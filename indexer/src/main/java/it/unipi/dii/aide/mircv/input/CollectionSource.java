@@ -0,0 +1,287 @@
+package it.unipi.dii.aide.mircv.input;
+
+import it.unipi.dii.aide.mircv.utils.StageStatistics;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Source of the lines of the collection, read in background by dedicated reader threads.
+ * A plain collection is split in chunks of whole lines read in parallel, one reader each,
+ * while a compressed collection is decompressed by a single reader.
+ * The batches of lines are returned in the same order of the collection, so that the docids follow it.
+ */
+public class CollectionSource implements AutoCloseable {
+    /**
+     * Number of lines in a batch
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    /**
+     * Number of batches that each reader can read ahead of the consumer
+     */
+    private static final int BATCHES_PER_READER = 16;
+
+    /**
+     * Minimum size of a chunk of a plain collection: smaller chunks are not worth a thread
+     */
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Format of the collection
+     */
+    private final CollectionFormat format;
+
+    /**
+     * Readers of the chunks, in the order of the collection
+     */
+    private final ChunkReader[] readers;
+
+    /**
+     * Threads of the readers
+     */
+    private final Thread[] readerThreads;
+
+    /**
+     * Statistics of the reader stage
+     */
+    private final StageStatistics readerStats;
+
+    /**
+     * Chunk currently consumed
+     */
+    private int currentChunk = 0;
+
+    /**
+     * Number of lines still to skip at the beginning of the collection
+     */
+    private long linesToSkip = 0;
+
+    /**
+     * Constructor of the source
+     * @param path path of the collection, whose format is recognized from the extension
+     * @param numReaders maximum number of readers, used only if the collection can be split in chunks
+     */
+    public CollectionSource(String path, int numReaders) throws IOException {
+        Path collection = Paths.get(path);
+        this.format = CollectionFormat.fromPath(path);
+
+        if (format.isSplittable()) {
+            long[] bounds = computeChunks(collection, numReaders);
+            readers = new ChunkReader[bounds.length - 1];
+            readerStats = new StageStatistics("Reader", readers.length);
+
+            for (int i = 0; i < readers.length; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                readers[i] = new ChunkReader(() -> openRange(collection, start, end), BATCH_SIZE, BATCHES_PER_READER, readerStats);
+            }
+        } else {
+            // fail immediately if the collection does not exist
+            if (!Files.exists(collection))
+                throw new IOException("The collection " + path + " does not exist");
+
+            readers = new ChunkReader[1];
+            readerStats = new StageStatistics("Reader (" + format + ")", 1);
+            readers[0] = new ChunkReader(() -> format.open(new FileInputStream(path)), BATCH_SIZE, BATCHES_PER_READER, readerStats);
+        }
+
+        readerThreads = new Thread[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            readerThreads[i] = new Thread(readers[i], "collection-reader-" + i);
+            readerThreads[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Split a plain collection in chunks of similar size, each one starting at the beginning of a line
+     * @param collection the path of the collection
+     * @param numChunks the maximum number of chunks
+     * @return the bounds of the chunks: chunk i goes from bounds[i] (included) to bounds[i+1] (excluded)
+     */
+    private static long[] computeChunks(Path collection, int numChunks) throws IOException {
+        long size = Files.size(collection);
+        numChunks = (int) Math.max(1, Math.min(numChunks, size / MIN_CHUNK_SIZE));
+
+        long[] bounds = new long[numChunks + 1];
+        bounds[numChunks] = size;
+
+        try (FileChannel channel = FileChannel.open(collection, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            for (int i = 1; i < numChunks; i++)
+                bounds[i] = nextLineStart(channel, Math.max(size * i / numChunks, bounds[i - 1]), size, buffer);
+        }
+        return bounds;
+    }
+
+    /**
+     * Find the first line starting at or after a position of the file.
+     * The lines are UTF-8 encoded, so a newline byte never belongs to a multibyte character
+     * @param channel the channel of the file
+     * @param position the position
+     * @param size the size of the file
+     * @param buffer buffer used to scan the file
+     * @return the position of the beginning of the line, the size of the file if there are no more lines
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer buffer) throws IOException {
+        if (position == 0)
+            return 0;
+
+        // a line starts at the position if the previous byte is a newline
+        long scanned = position - 1;
+        while (scanned < size) {
+            buffer.clear();
+            int read = channel.read(buffer, scanned);
+            if (read <= 0)
+                break;
+
+            for (int i = 0; i < read; i++)
+                if (buffer.get(i) == '\n')
+                    return scanned + i + 1;
+            scanned += read;
+        }
+        return size;
+    }
+
+    /**
+     * Open a range of a file
+     * @param file the path of the file
+     * @param start the first byte of the range
+     * @param end the byte following the range
+     * @return the stream of the bytes of the range
+     */
+    private static InputStream openRange(Path file, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(start);
+        return new RangeInputStream(Channels.newInputStream(channel), end - start);
+    }
+
+    /**
+     * Start the readers
+     */
+    public void start() {
+        for (Thread thread : readerThreads)
+            thread.start();
+    }
+
+    /**
+     * Skip the first lines of the collection, already indexed before an interruption. The lines are still read,
+     * since the position of a line is not known without reading the ones before it, but they are not returned
+     * @param numLines the number of non-blank lines to skip
+     */
+    public void skip(long numLines) {
+        linesToSkip = numLines;
+    }
+
+    /**
+     * Return the next batch of lines in the order of the collection, blocking until it is read
+     * @return the next batch of non-blank lines, null if the whole collection was read
+     * @throws Exception if an error occurred while reading the collection
+     */
+    public ArrayList<String> nextBatch() throws Exception {
+        while (currentChunk < readers.length) {
+            ArrayList<String> lines = readers[currentChunk].take();
+            if (lines != ChunkReader.END_OF_CHUNK) {
+                if (linesToSkip == 0)
+                    return lines;
+
+                // drop the lines to skip, returning what follows them
+                if (lines.size() <= linesToSkip) {
+                    linesToSkip -= lines.size();
+                    continue;
+                }
+                ArrayList<String> remaining = new ArrayList<>(lines.subList((int) linesToSkip, lines.size()));
+                linesToSkip = 0;
+                return remaining;
+            }
+
+            if (readers[currentChunk].getError() != null)
+                throw readers[currentChunk].getError();
+            currentChunk++;
+        }
+        return null;
+    }
+
+    public CollectionFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the number of readers of the collection
+     */
+    public int getNumReaders() {
+        return readers.length;
+    }
+
+    public StageStatistics getReaderStats() {
+        return readerStats;
+    }
+
+    /**
+     * Stop the readers
+     */
+    @Override
+    public void close() {
+        for (Thread thread : readerThreads)
+            thread.interrupt();
+    }
+
+    /**
+     * Stream returning only a given number of bytes of the underlying stream
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        /**
+         * Number of bytes of the range not yet read
+         */
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+
+            int b = super.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0)
+                remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package it.unipi.dii.aide.mircv.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class used to measure the throughput of a stage of the indexing pipeline
+ */
+public class StageStatistics {
+    /**
+     * Name of the stage
+     */
+    private final String name;
+
+    /**
+     * Number of threads executing the stage
+     */
+    private final int parallelism;
+
+    /**
+     * Number of documents processed by the stage
+     */
+    private final AtomicLong processedDocuments = new AtomicLong(0);
+
+    /**
+     * Time spent working by all the threads of the stage, in nanoseconds
+     */
+    private final AtomicLong busyTime = new AtomicLong(0);
+
+    /**
+     * Constructor of the statistics of a stage
+     * @param name name of the stage
+     * @param parallelism number of threads executing the stage
+     */
+    public StageStatistics(String name, int parallelism) {
+        this.name = name;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Record the work done by a thread of the stage
+     * @param numDocuments number of documents processed
+     * @param elapsedNanos time spent to process them
+     */
+    public void record(long numDocuments, long elapsedNanos) {
+        processedDocuments.addAndGet(numDocuments);
+        busyTime.addAndGet(elapsedNanos);
+    }
+
+    public long getProcessedDocuments() {
+        return processedDocuments.get();
+    }
+
+    /**
+     * Compute the throughput the stage would sustain if it was never waiting for the other stages
+     * @return the number of documents per second processed by the stage
+     */
+    public double getThroughput() {
+        // time spent by the stage, considering that its threads work in parallel
+        double seconds = busyTime.get() / (1e9 * parallelism);
+
+        if (seconds == 0)
+            return 0;
+
+        return processedDocuments.get() / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return name + " stage (" + parallelism + " threads): " + processedDocuments.get() + " documents, " + String.format("%.0f", getThroughput()) + " docs/s";
+    }
+}
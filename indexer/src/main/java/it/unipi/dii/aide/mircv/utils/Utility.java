@@ -8,34 +8,33 @@ import it.unipi.dii.aide.mircv.utils.FileUtils;
 import static  it.unipi.dii.aide.mircv.utils.FileUtils.*;
 
 public class Utility {
-    /**
-     * Path of the document index
-     */
-    private static final String DOC_INDEX_PATH = ConfigurationParams.getDocumentIndexPath();
-    private static final String VOCABULARY_PATH = ConfigurationParams.getVocabularyPath();
     private static final String PARTIAL_INDEX_DOCIDS = ConfigurationParams.getDocidsDir();
     private static final String PARTIAL_INDEX_FREQS = ConfigurationParams.getFrequencyDir();
-    private static final String INVERTED_INDEX_DOCIDS = ConfigurationParams.getInvertedIndexDocs();
-    private static final String INVERTED_INDEX_FREQS = ConfigurationParams.getInvertedIndexFreqs();
     private static final String PARTIAL_VOCABULARY_PATH = ConfigurationParams.getPartialVocabularyDir();
-    private static final String BLOCK_DESCRIPTORS_PATH = ConfigurationParams.getBlockDescriptorsPath();
 
 
     /**
-     * deletes the older version of the inverted index and possible intermediate indexes,
-     * and creates new folders for the partial indexes
+     * deletes what is left of an interrupted build and possible intermediate indexes,
+     * and creates the staging directory of the new index and new folders for the partial indexes.
+     * The index being queried is kept: it is replaced only when the new one is complete
+     * @param buildDirectory the staging directory of the new index
      */
-    public static void initializeFiles() {
-        removeFile(DOC_INDEX_PATH);
-        removeFile(VOCABULARY_PATH);
-        removeFile(INVERTED_INDEX_DOCIDS);
-        removeFile(INVERTED_INDEX_FREQS);
-        removeFile(BLOCK_DESCRIPTORS_PATH);
+    public static void initializeFiles(String buildDirectory) {
+        deleteDirectory(buildDirectory);
+        createDirectory(buildDirectory);
+        deleteDirectory("data/debug");
+
+        initializePartialFiles();
+    }
 
+    /**
+     * deletes possible intermediate indexes and creates new folders for the partial indexes,
+     * keeping the inverted index: used when new documents are added to the index
+     */
+    public static void initializePartialFiles() {
         deleteDirectory(PARTIAL_INDEX_DOCIDS);
         deleteDirectory(PARTIAL_INDEX_FREQS);
         deleteDirectory(PARTIAL_VOCABULARY_PATH);
-        deleteDirectory("data/debug");
 
         // create the directories for the partial indexes
         createDirectory(ConfigurationParams.getDocidsDir());
@@ -46,6 +45,19 @@ public class Utility {
             Preprocesser.readStopwords();
     }
 
+    /**
+     * prepares the folders of the partial indexes to resume an interrupted build, keeping the partial indexes
+     * already written
+     */
+    public static void resumePartialFiles() {
+        createDirectory(ConfigurationParams.getDocidsDir());
+        createDirectory(ConfigurationParams.getFrequencyDir());
+        createDirectory(ConfigurationParams.getPartialVocabularyDir());
+
+        if(Flags.isStemStopRemovalEnabled())
+            Preprocesser.readStopwords();
+    }
+
     /**
      * Deletes the folders of the partial indexes when the indexing is done
      */
@@ -0,0 +1,134 @@
+package compressionTests;
+
+import it.unipi.dii.aide.mircv.compression.BinaryPackingCodec;
+import it.unipi.dii.aide.mircv.compression.PForDeltaCodec;
+import it.unipi.dii.aide.mircv.compression.PostingCodec;
+import it.unipi.dii.aide.mircv.compression.VariableByteCodec;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark of the decoding of the docid gaps of long posting lists: blocks of gaps of terms with different
+ * document frequencies are encoded once, in a direct buffer as the mapped files read by the queries, then
+ * decoded many times by variable byte, PForDelta and the binary packing codec, with its scalar unpacker and,
+ * if the JVM is run with --add-modules jdk.incubator.vector, with its vectorized one.
+ * Every round is preceded by warm-up rounds, so the decoders are measured after the JIT compilation;
+ * the outputs of all the decoders are checked to be equal to the encoded gaps.
+ */
+public class BinaryPackingBenchmark {
+    private static final String STATS_PATH = "data/benchmark/binaryPackingStats.txt";
+    private static final int COLLECTION_SIZE = 8841823;
+    private static final int POSTINGS_PER_ROUND = 1 << 22;
+    private static final int[] BLOCK_SIZES = {128, 1024, 4096};
+    private static final int[] DOCUMENT_FREQUENCIES = {100000, 1000000};
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    /**
+     * Generate a block of gaps of a term, with the geometric distribution of a term occurring at random
+     * @param random the generator
+     * @param size the number of gaps
+     * @param df the document frequency of the term
+     * @return the block
+     */
+    private static int[] generateBlock(Random random, int size, int df) {
+        double p = (double) df / COLLECTION_SIZE;
+        int[] gaps = new int[size];
+        for (int i = 0; i < size; i++)
+            gaps[i] = 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+        return gaps;
+    }
+
+    /**
+     * Decode all the blocks with a codec
+     * @param codec the codec
+     * @param input the encoded blocks, one after the other
+     * @param blockBytes the number of bytes of every block
+     * @param blockSize the number of gaps of every block
+     * @param output the array where to decode
+     * @return a checksum of the output, so that the decoding is not optimized away
+     */
+    private static long decodeAll(PostingCodec codec, ByteBuffer input, int[] blockBytes, int blockSize, int[] output) {
+        long checksum = 0;
+        input.position(0);
+        for (int numBytes : blockBytes) {
+            codec.decode(input, numBytes, output, blockSize);
+            checksum += output[blockSize - 1];
+        }
+        return checksum;
+    }
+
+    /**
+     * Main method to run the benchmark
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        FileUtils.createDirectory("data/benchmark");
+
+        List<PostingCodec> codecs = new ArrayList<>(List.of(new VariableByteCodec(), new PForDeltaCodec(), new BinaryPackingCodec(false)));
+        if (BinaryPackingCodec.isVectorApiAvailable())
+            codecs.add(new BinaryPackingCodec(true));
+        else
+            System.out.println("Vector API not available: run with --add-modules jdk.incubator.vector to measure the vectorized unpacker");
+
+        try (BufferedWriter statsBuffer = new BufferedWriter(new FileWriter(STATS_PATH, true))) {
+            statsBuffer.write("df\tblock size\tcodec\tbytes/posting\tM postings/s\n");
+
+            for (int df : DOCUMENT_FREQUENCIES) {
+                for (int blockSize : BLOCK_SIZES) {
+                    int numBlocks = POSTINGS_PER_ROUND / blockSize;
+                    int[][] blocks = new int[numBlocks][];
+                    for (int b = 0; b < numBlocks; b++)
+                        blocks[b] = generateBlock(random, blockSize, df);
+
+                    int[] output = new int[blockSize];
+                    for (PostingCodec codec : codecs) {
+                        String name = codec.getName() + ((codec instanceof BinaryPackingCodec bp) ? (bp.isVectorized() ? " (vector)" : " (scalar)") : "");
+
+                        // the blocks are encoded and checked once, then copied in a direct buffer
+                        byte[][] encoded = new byte[numBlocks][];
+                        int[] blockBytes = new int[numBlocks];
+                        int totalBytes = 0;
+                        for (int b = 0; b < numBlocks; b++) {
+                            encoded[b] = codec.encode(blocks[b], blockSize);
+                            blockBytes[b] = encoded[b].length;
+                            totalBytes += blockBytes[b];
+
+                            codec.decode(ByteBuffer.wrap(encoded[b]), encoded[b].length, output, blockSize);
+                            if (!Arrays.equals(output, blocks[b])) {
+                                System.out.println("The decoder of " + name + " does not decode a block to the same gaps");
+                                return;
+                            }
+                        }
+                        ByteBuffer input = ByteBuffer.allocateDirect(totalBytes);
+                        for (byte[] block : encoded)
+                            input.put(block);
+
+                        long checksum = 0;
+                        for (int r = 0; r < WARMUP_ROUNDS; r++)
+                            checksum += decodeAll(codec, input, blockBytes, blockSize, output);
+
+                        long start = System.nanoTime();
+                        for (int r = 0; r < MEASURED_ROUNDS; r++)
+                            checksum += decodeAll(codec, input, blockBytes, blockSize, output);
+                        long time = System.nanoTime() - start;
+
+                        double postings = (double) numBlocks * blockSize;
+                        double rate = (postings * MEASURED_ROUNDS / 1e6) / (time / 1e9);
+                        System.out.printf("df %d, blocks of %d gaps, %s: %.3f bytes/posting, %.1f M postings/s (checksum %d)%n",
+                                df, blockSize, name, totalBytes / postings, rate, checksum);
+                        statsBuffer.write(String.format("%d\t%d\t%s\t%.3f\t%.1f%n", df, blockSize, name, totalBytes / postings, rate));
+                    }
+                }
+            }
+        }
+    }
+}
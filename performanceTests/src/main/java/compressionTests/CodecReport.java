@@ -0,0 +1,241 @@
+package compressionTests;
+
+import it.unipi.dii.aide.mircv.beans.Segment;
+import it.unipi.dii.aide.mircv.compression.DocidGaps;
+import it.unipi.dii.aide.mircv.compression.PostingCodec;
+import it.unipi.dii.aide.mircv.compression.PostingCodecs;
+import it.unipi.dii.aide.mircv.compression.UnaryCodec;
+import it.unipi.dii.aide.mircv.config.Flags;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Report of the size and of the decoding speed of every posting codec (see PostingCodecs) on the postings of
+ * the index: every block of every segment is decoded with the codecs of the index, then its docid gaps and its
+ * frequencies are encoded with every codec, checking that they decode back to the same values.
+ * The sizes are measured on the whole index; the speeds on the blocks holding the first SAMPLE_POSTINGS
+ * postings, copied in direct buffers as the mapped files read by the queries and decoded many times after
+ * warm-up rounds, so the decoders are measured after the JIT compilation.
+ * The label given as argument (e.g. the name of the collection) is written in the report.
+ */
+public class CodecReport {
+    private static final String REPORT_PATH = "data/benchmark/codecReport.tsv";
+    private static final int SAMPLE_POSTINGS = 1 << 22;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * Measures of a codec on one of the two streams of the postings
+     */
+    private static class StreamStats {
+        /**
+         * Total encoded bytes, and flag set if the codec cannot encode some block of the stream
+         */
+        long bytes = 0;
+        boolean unsupported = false;
+
+        /**
+         * Encoded blocks of the sample
+         */
+        final List<byte[]> sample = new ArrayList<>();
+
+        /**
+         * Decoding speed of the sample, in millions of postings per second
+         */
+        double rate = 0;
+    }
+
+    /**
+     * The codecs and their measures on the docids and on the frequencies
+     */
+    private static final List<PostingCodec> codecs = new ArrayList<>(PostingCodecs.getAll());
+    private static final StreamStats[] docidStats = new StreamStats[codecs.size()];
+    private static final StreamStats[] freqStats = new StreamStats[codecs.size()];
+
+    /**
+     * Number of postings of the index, and sizes of the blocks of the sample
+     */
+    private static long numPostings = 0;
+    private static int samplePostings = 0;
+    private static final List<Integer> sampleBlockSizes = new ArrayList<>();
+
+    /**
+     * Encode a stream of a block with a codec, check it and add it to the measures
+     * @param codec the codec
+     * @param stats the measures of the codec on the stream
+     * @param values the values of the stream
+     * @param n the number of values
+     * @param inSample true if the block is part of the sample
+     */
+    private static void measureStream(PostingCodec codec, StreamStats stats, int[] values, int n, boolean inSample) {
+        if (stats.unsupported)
+            return;
+
+        byte[] encoded;
+        try {
+            encoded = codec.encode(values, n);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Codec " + codec.getName() + ": " + e.getMessage());
+            stats.unsupported = true;
+            return;
+        }
+
+        int[] decoded = new int[n];
+        codec.decode(ByteBuffer.wrap(encoded), encoded.length, decoded, n);
+        if (!Arrays.equals(decoded, 0, n, values, 0, n))
+            throw new IllegalStateException("Codec " + codec.getName() + " does not decode a block to the same values");
+
+        stats.bytes += encoded.length;
+        if (inSample)
+            stats.sample.add(encoded);
+    }
+
+    /**
+     * Encode a block with every codec
+     * @param docids the docids of the block, replaced by their gaps
+     * @param freqs the frequencies of the block
+     * @param n the number of postings of the block
+     * @param previousMaxDocid the max docid of the previous block of the term, 0 for the first block
+     */
+    private static void measureBlock(int[] docids, int[] freqs, int n, int previousMaxDocid) {
+        DocidGaps.toGaps(docids, previousMaxDocid);
+
+        boolean inSample = samplePostings < SAMPLE_POSTINGS;
+        for (int c = 0; c < codecs.size(); c++) {
+            measureStream(codecs.get(c), docidStats[c], docids, n, inSample);
+            measureStream(codecs.get(c), freqStats[c], freqs, n, inSample);
+        }
+
+        if (inSample) {
+            sampleBlockSizes.add(n);
+            samplePostings += n;
+        }
+        numPostings += n;
+    }
+
+    /**
+     * Decode all the blocks of the sample of a stream
+     * @param codec the codec
+     * @param input the encoded blocks of the sample, one after the other
+     * @param blockBytes the number of bytes of every block
+     * @param output the array where to decode, as large as the largest block
+     * @return a checksum of the output, so that the decoding is not optimized away
+     */
+    private static long decodeSample(PostingCodec codec, ByteBuffer input, int[] blockBytes, int[] output) {
+        long checksum = 0;
+        input.position(0);
+        for (int b = 0; b < blockBytes.length; b++) {
+            int n = sampleBlockSizes.get(b);
+            codec.decode(input, blockBytes[b], output, n);
+            checksum += output[n - 1];
+        }
+        return checksum;
+    }
+
+    /**
+     * Measure the decoding speed of the sample of a stream
+     * @param codec the codec
+     * @param stats the measures of the codec on the stream
+     * @param output the array where to decode, as large as the largest block
+     * @return a checksum of the output
+     */
+    private static long measureSpeed(PostingCodec codec, StreamStats stats, int[] output) {
+        if (stats.unsupported || stats.sample.isEmpty())
+            return 0;
+
+        // the blocks are copied in a direct buffer, as the blocks read by the queries from the mapped files
+        int[] blockBytes = new int[stats.sample.size()];
+        int totalBytes = 0;
+        for (int b = 0; b < blockBytes.length; b++) {
+            blockBytes[b] = stats.sample.get(b).length;
+            totalBytes += blockBytes[b];
+        }
+        ByteBuffer input = ByteBuffer.allocateDirect(Math.max(1, totalBytes));
+        for (byte[] block : stats.sample)
+            input.put(block);
+        stats.sample.clear();
+
+        long checksum = 0;
+        for (int r = 0; r < WARMUP_ROUNDS; r++)
+            checksum += decodeSample(codec, input, blockBytes, output);
+
+        long start = System.nanoTime();
+        for (int r = 0; r < MEASURED_ROUNDS; r++)
+            checksum += decodeSample(codec, input, blockBytes, output);
+        long time = System.nanoTime() - start;
+
+        stats.rate = ((double) samplePostings * MEASURED_ROUNDS / 1e6) / (time / 1e9);
+        return checksum;
+    }
+
+    /**
+     * @param stats the measures of a codec on a stream
+     * @return the bytes per posting, formatted
+     */
+    private static String perPosting(StreamStats stats) {
+        return stats.unsupported ? "n/a" : String.format("%.3f", (double) stats.bytes / Math.max(1, numPostings));
+    }
+
+    /**
+     * @param stats the measures of a codec on a stream
+     * @return the decoding speed, formatted
+     */
+    private static String rate(StreamStats stats) {
+        return stats.unsupported ? "n/a" : String.format("%.1f", stats.rate);
+    }
+
+    /**
+     * Main method to run the report
+     */
+    public static void main(String[] args) throws IOException {
+        String label = (args.length > 0) ? args[0] : "collection";
+
+        if (!SegmentManifest.load() || SegmentManifest.getSegments().isEmpty() || !Flags.initializeFlags()) {
+            System.out.println("No index to measure: build it first");
+            return;
+        }
+
+        for (int c = 0; c < codecs.size(); c++) {
+            docidStats[c] = new StreamStats();
+            freqStats[c] = new StreamStats();
+        }
+        // unary codes would take a bit per docid of the collection for the gaps of the rare terms
+        docidStats[codecs.indexOf(PostingCodecs.get(UnaryCodec.NAME))].unsupported = true;
+        for (Segment segment : SegmentManifest.getSegments())
+            CompressionReport.visitBlocks(segment, CodecReport::measureBlock);
+
+        int maxBlockSize = 1;
+        for (int size : sampleBlockSizes)
+            maxBlockSize = Math.max(maxBlockSize, size);
+        int[] output = new int[maxBlockSize];
+        long checksum = 0;
+        for (int c = 0; c < codecs.size(); c++) {
+            checksum += measureSpeed(codecs.get(c), docidStats[c], output);
+            checksum += measureSpeed(codecs.get(c), freqStats[c], output);
+        }
+
+        System.out.println("Postings: " + numPostings + ", " + samplePostings + " decoded to measure the speed (checksum " + checksum + ")");
+        System.out.println("Index built with docid codec " + Flags.getDocidCodec().getName()
+                + " and frequency codec " + Flags.getFrequencyCodec().getName());
+
+        FileUtils.createDirectory("data/benchmark");
+        try (BufferedWriter statsBuffer = new BufferedWriter(new FileWriter(REPORT_PATH, true))) {
+            statsBuffer.write("collection\tcodec\tdocid gaps (B/posting)\tdocid gaps (M postings/s)\tfreqs (B/posting)\tfreqs (M postings/s)\n");
+            for (int c = 0; c < codecs.size(); c++) {
+                String name = codecs.get(c).getName();
+                System.out.printf("%-10s docid gaps %s B/posting, %s M postings/s; freqs %s B/posting, %s M postings/s%n", name,
+                        perPosting(docidStats[c]), rate(docidStats[c]), perPosting(freqStats[c]), rate(freqStats[c]));
+                statsBuffer.write(label + "\t" + name + "\t" + perPosting(docidStats[c]) + "\t" + rate(docidStats[c]) + "\t"
+                        + perPosting(freqStats[c]) + "\t" + rate(freqStats[c]) + "\n");
+            }
+        }
+    }
+}
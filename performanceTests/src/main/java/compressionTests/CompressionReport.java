@@ -0,0 +1,154 @@
+package compressionTests;
+
+import it.unipi.dii.aide.mircv.beans.BlockDescriptor;
+import it.unipi.dii.aide.mircv.beans.Segment;
+import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
+import it.unipi.dii.aide.mircv.compression.DocidGaps;
+import it.unipi.dii.aide.mircv.compression.UnaryCompressor;
+import it.unipi.dii.aide.mircv.compression.VariableByteCompressor;
+import it.unipi.dii.aide.mircv.config.Flags;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
+import it.unipi.dii.aide.mircv.utils.ChannelReader;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Report of the space taken by the postings of the index: every block of every segment is decoded, and its
+ * docids are encoded again with variable byte both as absolute docids and as gaps (see DocidGaps), so the
+ * two formats are compared on the same index whatever the format it was built with.
+ * The frequencies are measured as unary codes. The index must be built first, with or without compression and
+ * with any codec; the label given as argument (e.g. the name of the collection) is written in the report.
+ * The other codecs are compared by CodecReport.
+ */
+public class CompressionReport {
+    private static final String REPORT_PATH = "data/benchmark/compressionReport.tsv";
+
+    /**
+     * Totals of the report
+     */
+    private static long numPostings = 0;
+    private static long absoluteDocidBytes = 0;
+    private static long gapDocidBytes = 0;
+    private static long unaryFreqBytes = 0;
+
+    /**
+     * Receiver of the decoded blocks of an index
+     */
+    interface BlockVisitor {
+        /**
+         * Receive a block
+         * @param docids the docids of the block
+         * @param freqs the frequencies of the block
+         * @param numPostings the number of postings of the block
+         * @param previousMaxDocid the max docid of the previous block of the term, 0 for the first block
+         */
+        void visit(int[] docids, int[] freqs, int numPostings, int previousMaxDocid);
+    }
+
+    /**
+     * Decode all the blocks of a segment, with the codecs of the index, and pass them to a visitor
+     * @param segment the segment
+     * @param visitor the visitor
+     */
+    static void visitBlocks(Segment segment, BlockVisitor visitor) throws IOException {
+        boolean compressionMode = Flags.isCompressionEnabled();
+
+        try (ChannelReader vocabularyReader = new ChannelReader(segment.getVocabularyPath());
+             ChannelReader descriptorReader = new ChannelReader(segment.getBlockDescriptorsPath());
+             ChannelReader docidReader = new ChannelReader(segment.getDocidsPath());
+             ChannelReader frequencyReader = new ChannelReader(segment.getFrequenciesPath())) {
+            VocabularyEntry vocabularyEntry = new VocabularyEntry();
+            BlockDescriptor blockDescriptor = new BlockDescriptor();
+
+            for (long i = 0; i < segment.getVocabularySize(); i++) {
+                vocabularyEntry.readFromBuffer(vocabularyReader.require((int) VocabularyEntry.ENTRY_SIZE));
+
+                descriptorReader.seek(vocabularyEntry.getBlockOffset());
+                int previousMaxDocid = 0;
+                for (int b = 0; b < vocabularyEntry.getNumBlocks(); b++) {
+                    blockDescriptor.readFromBuffer(descriptorReader.require(BlockDescriptor.BLOCK_DESCRIPTOR_ENTRY_BYTES));
+
+                    int n = blockDescriptor.getNumPostings();
+                    int[] docids = new int[n];
+                    int[] freqs = new int[n];
+                    docidReader.seek(blockDescriptor.getDocidOffset());
+                    frequencyReader.seek(blockDescriptor.getFreqOffset());
+                    if (compressionMode) {
+                        // the postings are decoded with the codecs of the index
+                        byte[] compressedDocids = new byte[blockDescriptor.getDocidSize()];
+                        byte[] compressedFreqs = new byte[blockDescriptor.getFreqSize()];
+                        docidReader.readBytes(compressedDocids, 0, compressedDocids.length);
+                        frequencyReader.readBytes(compressedFreqs, 0, compressedFreqs.length);
+                        Flags.getDocidCodec().decode(compressedDocids, 0, compressedDocids.length, docids, n);
+                        Flags.getFrequencyCodec().decode(compressedFreqs, 0, compressedFreqs.length, freqs, n);
+                        if (Flags.isDocidGapsEnabled())
+                            DocidGaps.fromGaps(docids, n, previousMaxDocid);
+                    } else {
+                        docidReader.readInts(docids, 0, n);
+                        frequencyReader.readInts(freqs, 0, n);
+                    }
+
+                    visitor.visit(docids, freqs, n, previousMaxDocid);
+                    previousMaxDocid = blockDescriptor.getMaxDocid();
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the sizes of a block to the totals
+     * @param docids the docids of the block, replaced by their gaps
+     * @param freqs the frequencies of the block
+     * @param n the number of postings of the block
+     * @param previousMaxDocid the max docid of the previous block of the term, 0 for the first block
+     */
+    private static void measureBlock(int[] docids, int[] freqs, int n, int previousMaxDocid) {
+        unaryFreqBytes += UnaryCompressor.compressedLength(freqs, n);
+
+        absoluteDocidBytes += VariableByteCompressor.compressedLength(docids, n);
+        DocidGaps.toGaps(docids, previousMaxDocid);
+        gapDocidBytes += VariableByteCompressor.compressedLength(docids, n);
+
+        numPostings += n;
+    }
+
+    /**
+     * @param bytes a number of bytes
+     * @return the bytes per posting, formatted
+     */
+    private static String perPosting(long bytes) {
+        return String.format("%.3f", (double) bytes / Math.max(1, numPostings));
+    }
+
+    /**
+     * Main method to run the report
+     */
+    public static void main(String[] args) throws IOException {
+        String label = (args.length > 0) ? args[0] : "collection";
+
+        if (!SegmentManifest.load() || SegmentManifest.getSegments().isEmpty() || !Flags.initializeFlags()) {
+            System.out.println("No index to measure: build it first");
+            return;
+        }
+
+        for (Segment segment : SegmentManifest.getSegments())
+            visitBlocks(segment, CompressionReport::measureBlock);
+
+        System.out.println("Postings: " + numPostings + " (index format " + Flags.getFormatVersion()
+                + (Flags.isCompressionEnabled() ? ", compressed)" : ", not compressed)"));
+        System.out.println("Docids, uncompressed: 4.000 bytes/posting");
+        System.out.println("Docids, variable byte of the absolute docids: " + perPosting(absoluteDocidBytes) + " bytes/posting");
+        System.out.println("Docids, variable byte of the gaps: " + perPosting(gapDocidBytes) + " bytes/posting");
+        System.out.println("Frequencies, unary: " + perPosting(unaryFreqBytes) + " bytes/posting");
+
+        FileUtils.createDirectory("data/benchmark");
+        try (BufferedWriter statsBuffer = new BufferedWriter(new FileWriter(REPORT_PATH, true))) {
+            statsBuffer.write("collection\tpostings\tabsolute docids (B/posting)\tdocid gaps (B/posting)\tunary freqs (B/posting)\n");
+            statsBuffer.write(label + "\t" + numPostings + "\t" + perPosting(absoluteDocidBytes) + "\t"
+                    + perPosting(gapDocidBytes) + "\t" + perPosting(unaryFreqBytes) + "\n");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package compressionTests;
+
+import it.unipi.dii.aide.mircv.compression.UnaryCompressor;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of the unary decoder of the frequencies: blocks of frequencies with the skewed distribution of a
+ * real collection are compressed once, then decoded many times by the word-at-a-time decoder of UnaryCompressor
+ * and by the bit-at-a-time decoder it replaced, copied below without its per-bit logging (with the logging the
+ * old decoder is slower by further orders of magnitude). Every round is preceded by warm-up rounds, so the
+ * decoders are measured after the JIT compilation; the outputs of the two decoders are checked to be equal.
+ */
+public class UnaryBenchmark {
+    private static final String STATS_PATH = "data/benchmark/unaryStats.txt";
+    private static final int NUM_BLOCKS = 10000;
+    private static final int[] BLOCK_SIZES = {16, 128, 1024};
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    /**
+     * Generate a block of frequencies: most postings have frequency 1 or 2, a few are much larger
+     * @param random the generator
+     * @param size the number of frequencies
+     * @return the block
+     */
+    private static int[] generateBlock(Random random, int size) {
+        int[] freqs = new int[size];
+        for (int i = 0; i < size; i++) {
+            double p = random.nextDouble();
+            freqs[i] = (p < 0.6) ? 1 : (p < 0.85) ? 2 : (p < 0.98) ? 3 + random.nextInt(5) : 8 + random.nextInt(100);
+        }
+        return freqs;
+    }
+
+    /**
+     * The bit-at-a-time decoder replaced by the word-at-a-time one, without its logging
+     * @param toBeDecompressed the compressed bytes
+     * @param totNums the number of integers to decompress
+     * @return the decompressed integers
+     */
+    private static int[] bitAtATimeDecompression(byte[] toBeDecompressed, int totNums) {
+        int[] decompressedArray = new int[totNums];
+
+        int toBeReadedByte = 0;
+        int toBeReadedBit = 0;
+        int nextInteger = 0;
+        int onesCounter = 0;
+
+        for (int i = 0; i < toBeDecompressed.length * 8; i++) {
+            byte b = 0b00000000;
+            b |= (byte) (1 << 7 - (i % 8));
+
+            if ((toBeDecompressed[toBeReadedByte] & b) == 0) {
+                decompressedArray[nextInteger] = onesCounter + 1;
+
+                nextInteger++;
+                if (nextInteger == totNums)
+                    break;
+
+                onesCounter = 0;
+            } else {
+                onesCounter++;
+            }
+            toBeReadedBit++;
+
+            if (toBeReadedBit == 8) {
+                toBeReadedByte++;
+                toBeReadedBit = 0;
+            }
+        }
+        return decompressedArray;
+    }
+
+    /**
+     * Decode all the blocks with the old decoder
+     * @return a checksum of the output, so that the decoding is not optimized away
+     */
+    private static long runBitAtATime(byte[][] compressed, int blockSize) {
+        long checksum = 0;
+        for (byte[] block : compressed)
+            checksum += bitAtATimeDecompression(block, blockSize)[blockSize - 1];
+        return checksum;
+    }
+
+    /**
+     * Decode all the blocks with the new decoder, into a reusable array
+     * @return a checksum of the output, so that the decoding is not optimized away
+     */
+    private static long runWordAtATime(byte[][] compressed, int blockSize, int[] output) {
+        long checksum = 0;
+        for (byte[] block : compressed) {
+            UnaryCompressor.decompress(block, 0, block.length, output, blockSize);
+            checksum += output[blockSize - 1];
+        }
+        return checksum;
+    }
+
+    /**
+     * Main method to run the benchmark
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        FileUtils.createDirectory("data/benchmark");
+
+        try (BufferedWriter statsBuffer = new BufferedWriter(new FileWriter(STATS_PATH, true))) {
+            statsBuffer.write("block size\tbit-at-a-time (M freqs/s)\tword-at-a-time (M freqs/s)\tspeedup\n");
+
+            for (int blockSize : BLOCK_SIZES) {
+                byte[][] compressed = new byte[NUM_BLOCKS][];
+                for (int b = 0; b < NUM_BLOCKS; b++) {
+                    int[] block = generateBlock(random, blockSize);
+                    compressed[b] = UnaryCompressor.integerArrayCompression(block);
+
+                    int[] decoded = new int[blockSize];
+                    UnaryCompressor.decompress(compressed[b], 0, compressed[b].length, decoded, blockSize);
+                    if (!Arrays.equals(decoded, block) || !Arrays.equals(decoded, bitAtATimeDecompression(compressed[b], blockSize))) {
+                        System.out.println("The decoders disagree on a block of size " + blockSize);
+                        return;
+                    }
+                }
+
+                int[] output = new int[blockSize];
+                long checksum = 0;
+                for (int r = 0; r < WARMUP_ROUNDS; r++) {
+                    checksum += runBitAtATime(compressed, blockSize);
+                    checksum += runWordAtATime(compressed, blockSize, output);
+                }
+
+                long oldTime = 0;
+                long newTime = 0;
+                for (int r = 0; r < MEASURED_ROUNDS; r++) {
+                    long start = System.nanoTime();
+                    checksum += runBitAtATime(compressed, blockSize);
+                    long middle = System.nanoTime();
+                    checksum += runWordAtATime(compressed, blockSize, output);
+                    oldTime += middle - start;
+                    newTime += System.nanoTime() - middle;
+                }
+
+                double freqs = (double) NUM_BLOCKS * blockSize * MEASURED_ROUNDS / 1e6;
+                double oldRate = freqs / (oldTime / 1e9);
+                double newRate = freqs / (newTime / 1e9);
+                System.out.printf("Blocks of %d frequencies: bit-at-a-time %.1f M freqs/s, word-at-a-time %.1f M freqs/s (x%.1f, checksum %d)%n",
+                        blockSize, oldRate, newRate, newRate / oldRate, checksum);
+                statsBuffer.write(String.format("%d\t%.1f\t%.1f\t%.1f%n", blockSize, oldRate, newRate, newRate / oldRate));
+            }
+        }
+    }
+}
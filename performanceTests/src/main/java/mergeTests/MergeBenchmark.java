@@ -0,0 +1,183 @@
+package mergeTests;
+
+import it.unipi.dii.aide.mircv.algorithms.Merger;
+import it.unipi.dii.aide.mircv.beans.VocabularyEntry;
+import it.unipi.dii.aide.mircv.config.CollectionSize;
+import it.unipi.dii.aide.mircv.utils.ChannelWriter;
+import it.unipi.dii.aide.mircv.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of the merge of the partial indexes: the same synthetic collection is split in a growing number
+ * of partial indexes, and the time of Merger.mergeIndexes is measured for each split.
+ * The files are written in data/benchmark, so the index of the collection is not touched.
+ * With the -w flag the merged index is compressed, as in the indexer.
+ */
+public class MergeBenchmark {
+    private static final String BENCHMARK_DIR = "data/benchmark";
+    private static final String STATS_PATH = BENCHMARK_DIR + "/mergeStats.txt";
+    private static final int[] NUM_PARTIALS = {1, 4, 16, 64, 256, 1024};
+    private static final int NUM_DOCS = 100000;
+    private static final int VOCABULARY_SIZE = 100000;
+    private static final int TERMS_PER_DOC = 20;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Cumulative distribution of the terms, following Zipf's law
+     */
+    private static double[] termDistribution;
+
+    /**
+     * Compute the cumulative distribution of the terms: the term of rank r has probability proportional to 1/r
+     */
+    private static void initializeDistribution() {
+        termDistribution = new double[VOCABULARY_SIZE];
+        double sum = 0;
+        for (int r = 0; r < VOCABULARY_SIZE; r++) {
+            sum += 1.0 / (r + 1);
+            termDistribution[r] = sum;
+        }
+        for (int r = 0; r < VOCABULARY_SIZE; r++)
+            termDistribution[r] /= sum;
+    }
+
+    /**
+     * The terms are named so that their lexicographic order is the order of their ranks
+     */
+    private static String termName(int rank) {
+        return String.format("term%06d", rank);
+    }
+
+    /**
+     * Write the partial indexes of the synthetic collection, each one with a contiguous range of docids
+     * @param numPartials number of partial indexes
+     * @return the total number of postings
+     */
+    private static long writePartialIndexes(int numPartials) throws IOException {
+        Random random = new Random(42);
+        long totalPostings = 0;
+
+        for (int p = 0; p < numPartials; p++) {
+            int firstDocid = 1 + (int) ((long) NUM_DOCS * p / numPartials);
+            int lastDocid = (int) ((long) NUM_DOCS * (p + 1) / numPartials);
+
+            // posting lists of the partial index, indexed by term rank
+            int[][] docids = new int[VOCABULARY_SIZE][];
+            int[][] freqs = new int[VOCABULARY_SIZE][];
+            int[] sizes = new int[VOCABULARY_SIZE];
+
+            for (int docid = firstDocid; docid <= lastDocid; docid++) {
+                for (int t = 0; t < TERMS_PER_DOC; t++) {
+                    int rank = Arrays.binarySearch(termDistribution, random.nextDouble());
+                    rank = Math.min((rank < 0) ? -rank - 1 : rank, VOCABULARY_SIZE - 1);
+
+                    if (docids[rank] == null) {
+                        docids[rank] = new int[4];
+                        freqs[rank] = new int[4];
+                    }
+                    int size = sizes[rank];
+                    if (size > 0 && docids[rank][size - 1] == docid) {
+                        freqs[rank][size - 1]++;
+                        continue;
+                    }
+                    if (size == docids[rank].length) {
+                        docids[rank] = Arrays.copyOf(docids[rank], size * 2);
+                        freqs[rank] = Arrays.copyOf(freqs[rank], size * 2);
+                    }
+                    docids[rank][size] = docid;
+                    freqs[rank][size] = 1;
+                    sizes[rank]++;
+                }
+            }
+
+            try (ChannelWriter docsWriter = new ChannelWriter(BENCHMARK_DIR + "/partial_docids/docids_" + p, WRITE_BUFFER_SIZE);
+                 ChannelWriter freqsWriter = new ChannelWriter(BENCHMARK_DIR + "/partial_freqs/freqs_" + p, WRITE_BUFFER_SIZE);
+                 ChannelWriter vocabWriter = new ChannelWriter(BENCHMARK_DIR + "/partial_vocabulary/vocabulary_" + p, WRITE_BUFFER_SIZE)) {
+                for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+                    if (sizes[rank] == 0)
+                        continue;
+
+                    VocabularyEntry entry = new VocabularyEntry(termName(rank));
+                    entry.setMemoryOffset(docsWriter.getPosition());
+                    entry.setFrequencyOffset(freqsWriter.getPosition());
+                    entry.setDf(sizes[rank]);
+                    entry.setMaxTf(Arrays.stream(freqs[rank], 0, sizes[rank]).max().orElse(0));
+                    entry.setDocidSize(sizes[rank] * 4);
+                    entry.setFrequencySize(sizes[rank] * 4);
+
+                    docsWriter.writeInts(docids[rank], 0, sizes[rank]);
+                    freqsWriter.writeInts(freqs[rank], 0, sizes[rank]);
+                    entry.writeToBuffer(vocabWriter.reserve((int) VocabularyEntry.ENTRY_SIZE));
+                    totalPostings += sizes[rank];
+                }
+            }
+        }
+        return totalPostings;
+    }
+
+    /**
+     * Delete the files of the benchmark and create its directories
+     */
+    private static void resetFiles() {
+        FileUtils.deleteDirectory(BENCHMARK_DIR + "/partial_docids");
+        FileUtils.deleteDirectory(BENCHMARK_DIR + "/partial_freqs");
+        FileUtils.deleteDirectory(BENCHMARK_DIR + "/partial_vocabulary");
+        FileUtils.removeFile(BENCHMARK_DIR + "/vocabulary");
+        FileUtils.removeFile(BENCHMARK_DIR + "/invertedIndexDocs");
+        FileUtils.removeFile(BENCHMARK_DIR + "/invertedIndexFreqs");
+        FileUtils.removeFile(BENCHMARK_DIR + "/blockDescriptors");
+
+        FileUtils.createDirectory(BENCHMARK_DIR);
+        FileUtils.createDirectory(BENCHMARK_DIR + "/partial_docids");
+        FileUtils.createDirectory(BENCHMARK_DIR + "/partial_freqs");
+        FileUtils.createDirectory(BENCHMARK_DIR + "/partial_vocabulary");
+    }
+
+    /**
+     * Main method to run the benchmark
+     */
+    public static void main(String[] args) throws IOException {
+        boolean compressionMode = Arrays.asList(args).contains("-w");
+        FileUtils.createDirectory(BENCHMARK_DIR);
+
+        // redirect all the files of the merge to the benchmark directory
+        Merger.setPathToPartialIndexesDocs(BENCHMARK_DIR + "/partial_docids/docids");
+        Merger.setPathToPartialIndexesFreqs(BENCHMARK_DIR + "/partial_freqs/freqs");
+        Merger.setPathToPartialVocabularies(BENCHMARK_DIR + "/partial_vocabulary/vocabulary");
+        Merger.setPathToVocabulary(BENCHMARK_DIR + "/vocabulary");
+        Merger.setPathToInvertedIndexDocs(BENCHMARK_DIR + "/invertedIndexDocs");
+        Merger.setPathToInvertedIndexFreqs(BENCHMARK_DIR + "/invertedIndexFreqs");
+        Merger.setPathToBlockDescriptors(BENCHMARK_DIR + "/blockDescriptors");
+        CollectionSize.setCollectionStatisticsPath(BENCHMARK_DIR + "/collectionStatistics");
+        CollectionSize.setCollectionSize(NUM_DOCS);
+
+        initializeDistribution();
+
+        try (BufferedWriter statsBuffer = new BufferedWriter(new FileWriter(STATS_PATH, true))) {
+            statsBuffer.write("partials\tpostings\tmerge time (ms)" + (compressionMode ? "\tcompressed" : "") + "\n");
+
+            for (int numPartials : NUM_PARTIALS) {
+                resetFiles();
+                long postings = writePartialIndexes(numPartials);
+
+                long start = System.currentTimeMillis();
+                boolean success = Merger.mergeIndexes(numPartials, compressionMode, false);
+                long mergeTime = System.currentTimeMillis() - start;
+
+                if (!success) {
+                    System.out.println("Error while merging " + numPartials + " partial indexes");
+                    return;
+                }
+
+                System.out.println(numPartials + " partial indexes, " + postings + " postings: merged in " + mergeTime + " ms");
+                statsBuffer.write(numPartials + "\t" + postings + "\t" + mergeTime + "\n");
+            }
+        }
+        resetFiles();
+    }
+}
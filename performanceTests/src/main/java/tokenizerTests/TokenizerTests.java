@@ -0,0 +1,93 @@
+package tokenizerTests;
+
+import it.unipi.dii.aide.mircv.preprocess.Preprocesser;
+import it.unipi.dii.aide.mircv.preprocess.Tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Golden-output test of the single-pass tokenizer: the tokens of every document of the sample collection
+ * must be equal to the ones of the regex-based reference implementation. Then both are timed.
+ */
+public class TokenizerTests {
+    private static final String COLLECTION_PATH = "data/test_sample.tsv";
+    private static final int TIMING_ROUNDS = 20;
+
+    /**
+     * Texts covering the corner cases of the regular expressions
+     */
+    private static final String[] CORNER_CASES = {
+            "", "   ", "a", "\t\n", "https://www.unipi.it/index.php?id=3", "HTTP://Example.com\n", "see https://unipi.it",
+            "ftp://a.b", "mailto://me@unipi.it", "<p>Hello</p><br/>world", "a<>b", "a<b<c>d", "x < y and y > z", "<unclosed tag",
+            "camelCaseWord HTMLParser iPhone aB", "Goooood yesss zzz aaaA AAAa", "it's 2023: 50% off!!", "tab\tsep nbsp",
+            "café naïve über", "😀emoji😀", "a".repeat(100), "ab".repeat(40) + "Cd", "loooongCamelCaaaase"
+    };
+
+    /**
+     * Compare the tokens of the two implementations for a text
+     * @param text the text
+     * @return true if the tokens are equal
+     */
+    private static boolean compare(String text) {
+        String[] expected = Preprocesser.tokenizeWords(Preprocesser.cleanText(text));
+        String[] actual = Tokenizer.tokenize(text);
+        if (Arrays.equals(expected, actual))
+            return true;
+
+        System.out.println("Mismatch for text: " + text);
+        System.out.println("\texpected: " + Arrays.toString(expected));
+        System.out.println("\tactual:   " + Arrays.toString(actual));
+        return false;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> texts = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(COLLECTION_PATH), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+
+                // the text as read by the indexer and as it is in the file
+                String text = line.split("\t")[1];
+                texts.add(text.replaceAll("[^\\x00-\\x7F]", ""));
+                texts.add(text);
+            }
+        }
+        texts.addAll(Arrays.asList(CORNER_CASES));
+
+        int mismatches = 0;
+        for (String text : texts)
+            if (!compare(text))
+                mismatches++;
+
+        System.out.println("Compared " + texts.size() + " texts: " + mismatches + " mismatches");
+
+        // time the two implementations
+        long tokens = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMING_ROUNDS; i++)
+            for (String text : texts)
+                tokens += Preprocesser.tokenizeWords(Preprocesser.cleanText(text)).length;
+        long regexTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < TIMING_ROUNDS; i++)
+            for (String text : texts)
+                tokens -= Tokenizer.tokenize(text).length;
+        long singlePassTime = System.nanoTime() - start;
+
+        System.out.println("Regex tokenizer: " + regexTime / 1000000 + " ms");
+        System.out.println("Single-pass tokenizer: " + singlePassTime / 1000000 + " ms (" +
+                String.format("%.1f", (double) regexTime / singlePassTime) + "x)");
+
+        if (mismatches > 0 || tokens != 0)
+            System.exit(1);
+    }
+}
@@ -131,6 +131,19 @@ public class DAAT {
         return score;
     }
 
+    /**
+     * Moves past a document the posting lists pointing to it, without scoring it
+     * @param docid docid of the document to skip
+     * @param postingsToScore the posting lists
+     */
+    public static void skipDocument(int docid, ArrayList<PostingList> postingsToScore) {
+        for (PostingList postingList : postingsToScore) {
+            Posting currPosting = postingList.getCurrentPosting();
+            if (currPosting != null && currPosting.getDocid() == docid)
+                postingList.next();
+        }
+    }
+
     /** method to process DAAT a list of posting list of the query terms using TFIDF as scoring function
      * @param queryPostings : list of postings of query terms
      * @param isConjuctive : if true, the query must be processed in CONJUNCTIVE way, else in DISJUNCTIVE way
@@ -145,11 +158,20 @@ public class DAAT {
         // initialization of the MinHeap for the results
         PriorityQueue<Map.Entry<Double, Integer>> topKDocuments = new PriorityQueue<>(k, Map.Entry.comparingByKey());
 
+        // deleted documents still in the posting lists, null if there are none
+        BitSet deletedDocuments = QueryProcesser.getDeletedDocuments();
+
         int docToProcess = nextDocToProcess(isConjuctive, queryPostings);
 
         // until there are documents to be processed
         while(docToProcess!= -1){
 
+            if (deletedDocuments != null && deletedDocuments.get(docToProcess)) {
+                skipDocument(docToProcess, queryPostings);
+                docToProcess = nextDocToProcess(isConjuctive, queryPostings);
+                continue;
+            }
+
             double docScore = scoreDocument(docToProcess, queryPostings, scoringFunction);
 
             // check if the MinHeap is full
@@ -49,6 +49,9 @@ public class MaxScore {
 
         boolean currThresholdHasBeenUpdated = true;
 
+        // deleted documents still in the posting lists, null if there are none
+        BitSet deletedDocuments = QueryProcesser.getDeletedDocuments();
+
         int firstEssentialPLIndex = 0;
         while(true) {
 
@@ -80,6 +83,17 @@ public class MaxScore {
                     break;
             }
 
+            // a deleted document is skipped without being scored: the non-essential lists skip it with their next nextGEQ
+            if (deletedDocuments != null && deletedDocuments.get(docToProcess)) {
+                for (Map.Entry<PostingList, Double> postingList : sortedLists) {
+                    Posting pointedPosting = postingList.getKey().getCurrentPosting();
+                    if (pointedPosting != null && pointedPosting.getDocid() == docToProcess)
+                        postingList.getKey().next();
+                }
+                currThresholdHasBeenUpdated = false;
+                continue;
+            }
+
             // process DAAT the essential posting lists for docToProcess
             partialScore = processEssentialListsDAAT(sortedLists, firstEssentialPLIndex, docToProcess, scoringFunction);
 
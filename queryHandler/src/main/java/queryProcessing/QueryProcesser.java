@@ -1,7 +1,8 @@
 package queryProcessing;
 
+import it.unipi.dii.aide.mircv.algorithms.SegmentMerger;
 import it.unipi.dii.aide.mircv.beans.*;
-import it.unipi.dii.aide.mircv.config.ConfigurationParams;
+import it.unipi.dii.aide.mircv.config.SegmentManifest;
 import it.unipi.dii.aide.mircv.preprocess.Preprocesser;
 import it.unipi.dii.aide.mircv.config.Flags;
 
@@ -24,14 +25,25 @@ public class QueryProcesser {
     private static final DocumentIndex documentIndex = DocumentIndex.getInstance();
 
     /**
-     * Path for Storing Inverted Index docids
+     * Generation of the segments whose documents are in the document index
      */
-    private static final String INVERTED_INDEX_DOCIDS_PATH = ConfigurationParams.getInvertedIndexDocs();
+    private static long loadedGeneration = -1;
 
     /**
-     * Path for Storing Inverted Index tf
+     * Identifier of the index whose documents are in the document index
      */
-    private static final String INVERTED_INDEX_FREQS_PATH = ConfigurationParams.getInvertedIndexFreqs();
+    private static long loadedIndexId = 0;
+
+    /**
+     * First docid after the documents in the document index: the segments are contiguous ranges of docids,
+     * so a segment starting before it is already loaded
+     */
+    private static int loadedDocids = 0;
+
+    /**
+     * Bitset of the deleted docids of the live segments, null if no document is deleted
+     */
+    private static volatile BitSet deletedDocuments = null;
 
 
     /**
@@ -94,24 +106,133 @@ public class QueryProcesser {
      * @return an array with the top-k document pids
      */
     public static String[] processQuery(String query, int k, boolean isConjunctive, String scoringFunction) {
-        // Create a new TextDocument object with the query
-        TextDocument queryDoc = new TextDocument("query", query);
+        // The segments stay on disk until the query is processed, even if they are merged meanwhile
+        List<Segment> segments = SegmentManifest.acquireSegments();
+        try {
+            if (!refreshSegments(segments))
+                return null;
+
+            // Create a new TextDocument object with the query
+            TextDocument queryDoc = new TextDocument("query", query);
+
+            // Perform text processing on the document, with the flags of the index acquired
+            ProcessedDocument processedQuery = Preprocesser.preprocessDocument(queryDoc);
+
+            // Perform the query processing
+            ArrayList<PostingList> queryPostings = getQueryPostings(processedQuery, isConjunctive);
+            if (queryPostings == null || queryPostings.isEmpty())
+                return null;
+
+            PriorityQueue<Map.Entry<Double, Integer>> priorityQueue;
+            if (!Flags.isMaxScoreEnabled())
+                priorityQueue = DAAT.scoreQuery(queryPostings, true, k, scoringFunction);
+            else
+                priorityQueue = MaxScore.scoreQuery(queryPostings, k, scoringFunction, isConjunctive);
+
+            return lookupPid(priorityQueue, k);
+        } finally {
+            SegmentManifest.releaseSegments(segments);
+        }
+    }
+
+    /**
+     * Make the query processor use the live segments, if they changed since the last query:
+     * the documents of the new segments are added to the document index, the deleted documents are reloaded,
+     * and the cached vocabulary entries, which point to the old segments, are discarded.
+     * An index rebuilt from scratch reuses the docids of the old one, so all its documents are loaded again
+     * @param segments the live segments
+     * @return true if the document index contains the documents of all the segments
+     */
+    private static boolean refreshSegments(List<Segment> segments) {
+        if (SegmentManifest.getGeneration() == loadedGeneration)
+            return true;
 
-        // Perform text processing on the document
-        ProcessedDocument processedQuery = Preprocesser.preprocessDocument(queryDoc);
+        if (SegmentManifest.getIndexId() != loadedIndexId) {
+            documentIndex.clear();
+            loadedDocids = 0;
+            loadedIndexId = SegmentManifest.getIndexId();
+        }
 
-        // Perform the query processing
-        ArrayList<PostingList> queryPostings = getQueryPostings(processedQuery, isConjunctive);
-        if (queryPostings == null || queryPostings.isEmpty())
-            return null;
+        for (Segment segment : segments) {
+            // a merged segment contains documents already loaded
+            if (segment.getFirstDocid() < loadedDocids)
+                continue;
+            if (!documentIndex.loadFromDisk(segment))
+                return false;
+            loadedDocids = segment.getNextDocid();
+        }
 
-        PriorityQueue<Map.Entry<Double, Integer>> priorityQueue;
-        if (!Flags.isMaxScoreEnabled())
-            priorityQueue = DAAT.scoreQuery(queryPostings, true, k, scoringFunction);
-        else
-            priorityQueue = MaxScore.scoreQuery(queryPostings, k, scoringFunction, isConjunctive);
+        if (!loadDeletedDocuments(segments))
+            return false;
 
-        return lookupPid(priorityQueue, k);
+        Vocabulary.clearCache();
+        loadedGeneration = SegmentManifest.getGeneration();
+        return true;
+    }
+
+    /**
+     * Load the deleted documents of the segments in a single bitset indexed by docid
+     * @param segments the live segments
+     * @return true if the deleted documents of every segment are loaded
+     */
+    private static boolean loadDeletedDocuments(List<Segment> segments) {
+        BitSet deleted = null;
+        for (Segment segment : segments) {
+            if (segment.getNumDeleted() == 0)
+                continue;
+
+            DeletedDocuments segmentDeleted = DeletedDocuments.loadFromDisk(segment);
+            if (segmentDeleted == null)
+                return false;
+            if (deleted == null)
+                deleted = new BitSet(SegmentManifest.getNextDocid());
+            segmentDeleted.copyTo(deleted);
+        }
+        deletedDocuments = deleted;
+        return true;
+    }
+
+    /**
+     * @return the bitset of the deleted docids, null if no document is deleted. The query processors skip the
+     * deleted documents still in the posting lists
+     */
+    public static BitSet getDeletedDocuments() {
+        return deletedDocuments;
+    }
+
+    /**
+     * Delete documents from the index. The documents are removed from the results of the next queries,
+     * and their postings are removed when their segments are merged.
+     * The pids are looked up in the document index, loading first the segments added since the last query;
+     * the documents of a segment published during the lookup are not deleted
+     * @param pids the pids of the documents to delete
+     * @return the number of documents deleted, -1 in case of error
+     */
+    public static int deleteDocuments(Collection<String> pids) {
+        List<Segment> segments = SegmentManifest.acquireSegments();
+        try {
+            if (!refreshSegments(segments))
+                return -1;
+
+            HashSet<String> toDelete = new HashSet<>(pids);
+            List<DocumentIndexEntry> entries = new ArrayList<>();
+            for (DocumentIndexEntry entry : documentIndex.values())
+                if (toDelete.contains(entry.getPid()))
+                    entries.add(entry);
+
+            if (entries.isEmpty())
+                return 0;
+            return SegmentManifest.deleteDocuments(entries, loadedIndexId);
+        } finally {
+            SegmentManifest.releaseSegments(segments);
+        }
+    }
+
+    /**
+     * Start merging the segments of the index in background while the queries are processed
+     */
+    public static void startBackgroundMerges() {
+        SegmentMerger.startBackgroundMerges();
     }
 
     /**
@@ -119,17 +240,28 @@ public class QueryProcesser {
      * @return boolean
      */
     public static boolean setupProcesser() {
-        //initialize flags
-        if (!Flags.initializeFlags())
+        // load the segments of the index
+        if (!SegmentManifest.load())
             return false;
 
-        //check if document index exists. If not the setup failed
-        if (!new File(INVERTED_INDEX_DOCIDS_PATH).exists() || !new File(INVERTED_INDEX_FREQS_PATH).exists())
+        //initialize the flags published with the segments
+        if (!Flags.initializeFlags())
             return false;
 
+        //check if the inverted index of every segment exists. If not the setup failed
+        for (Segment segment : SegmentManifest.getSegments())
+            if (!new File(segment.getDocidsPath()).exists() || !new File(segment.getFrequenciesPath()).exists())
+                return false;
+
         // load the document index
         if (!documentIndex.loadFromDisk())
             return false;
+        loadedDocids = SegmentManifest.getNextDocid();
+        loadedIndexId = SegmentManifest.getIndexId();
+
+        if (!loadDeletedDocuments(SegmentManifest.getSegments()))
+            return false;
+        loadedGeneration = SegmentManifest.getGeneration();
 
         //check if document index contains entries. If not the setup failed
         return !documentIndex.isEmpty();